@@ -0,0 +1,95 @@
+package me.noahandrews.savpp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Cost of a seek broadcast, from building the command to every simulated guest having its frame written out. Guests
+ * are in-memory so the numbers reflect the server's fan-out and not the kernel's socket buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+    private static final OutboundQueue.Listener NO_OP_LISTENER = new OutboundQueue.Listener() {
+        @Override
+        public void framesAvailable() {}
+
+        @Override
+        public void overflowed() {}
+    };
+
+    @Param({"1", "10", "100", "1000"})
+    public int guestCount;
+
+    private BroadcastGroup broadcastGroup;
+    private List<Guest> guests;
+    private int timestamp = 0;
+
+    @Setup
+    public void setUp() {
+        broadcastGroup = new BroadcastGroup();
+        guests = new ArrayList<>(guestCount);
+        for(int i = 0; i < guestCount; i++) {
+            Guest guest = new Guest(new OutboundQueue(64, SlowConsumerPolicy.COALESCE, NO_OP_LISTENER));
+            //Spread guests across a few latency classes, as on a real LAN
+            guest.getRttEstimator().addSample(TimeUnit.MICROSECONDS.toNanos(200 + (i % 4) * 1500));
+            guests.add(guest);
+            broadcastGroup.add(guest);
+        }
+    }
+
+    @Benchmark
+    public int broadcastSeek() {
+        int seekTimestamp = timestamp++;
+        return broadcastGroup.broadcastScheduled((delay, hostTime) -> Frame.seek(seekTimestamp, delay, hostTime));
+    }
+
+    @Benchmark
+    public void broadcastSeekAndDrain(Blackhole blackhole) {
+        broadcastSeek();
+        for(Guest guest: guests) {
+            Frame frame;
+            while((frame = guest.getOutboundQueue().poll()) != null) {
+                ByteBuffer buffer = frame.buffer();
+                blackhole.consume(buffer.get(buffer.limit() - 1));
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        for(Guest guest: guests) {
+            guest.getOutboundQueue().clear();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package me.noahandrews.savpp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Measures how long it takes 1,000 guests that are already connected to all complete their handshakes at once. The
+ * connection requests are written back to back, so the server sees them arrive together and every connection's
+ * handshake runs concurrently with the others.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class ConcurrentJoinBenchmark {
+    private static final String MD5_HASH = "5a73e7b6df89f85bb34129fcdfd7da12";
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"1000"})
+    public int guestCount;
+
+    private MediaSynchronizationServer server;
+    private Socket[] sockets;
+    private byte[] connectionRequest;
+    private CountDownLatch established;
+
+    @Setup(Level.Trial)
+    public void encodeRequest() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CONNECTION_REQUEST)
+                .setConnectionRequest(SAVPPProto.ConnectionRequest.newBuilder().setMd5(MD5_HASH))
+                .build()
+                .writeDelimitedTo(frame);
+        connectionRequest = frame.toByteArray();
+    }
+
+    @Setup(Level.Invocation)
+    public void connectGuests() throws IOException, InterruptedException {
+        server = engine.equals("nio") ? new SAVPPNioServer(MD5_HASH, Runtime.getRuntime().availableProcessors()) : new SAVPPServer(MD5_HASH);
+        CountDownLatch started = new CountDownLatch(1);
+        established = new CountDownLatch(guestCount);
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+
+            @Override
+            public void connectionEstablished() {
+                established.countDown();
+            }
+        });
+        server.startListening();
+        started.await();
+
+        sockets = new Socket[guestCount];
+        for(int i = 0; i < guestCount; i++) {
+            sockets[i] = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+        }
+    }
+
+    @Benchmark
+    public void join() throws IOException, InterruptedException {
+        for(Socket socket: sockets) {
+            socket.getOutputStream().write(connectionRequest);
+        }
+        established.await();
+        for(Socket socket: sockets) {
+            readInitialSeek(socket.getInputStream());
+        }
+    }
+
+    private static void readInitialSeek(InputStream stream) throws IOException {
+        SAVPPMessage message;
+        do {
+            message = SAVPPMessage.parseDelimitedFrom(stream);
+        } while(message != null && message.getType() == SAVPPMessage.MessageType.PING);
+        if(message == null || message.getType() != SAVPPMessage.MessageType.SEEK_COMMAND) {
+            throw new IllegalStateException("Guest was not accepted: " + message);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void disconnectGuests() throws InterruptedException, ExecutionException, IOException {
+        for(Socket socket: sockets) {
+            socket.close();
+        }
+        server.tearDown().get();
+    }
+}
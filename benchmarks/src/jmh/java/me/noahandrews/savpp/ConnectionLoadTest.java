@@ -0,0 +1,191 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Parks thousands of idle guests on a {@link SAVPPServer} and reports what they cost with a given
+ * {@link ExecutorStrategy}. Run it once per strategy, each in a fresh JVM, with {@code gradle loadTest}.
+ * <p>
+ * Every guest opens a connection and completes a clock probe round trip, which needs its connection handler to be
+ * running, and then stays connected without sending anything else. A single full handshake is timed at the end, with
+ * all of the idle guests still parked.
+ * <p>
+ * The operating system must allow about two file descriptors per guest, since both ends of every connection live in
+ * this process.
+ */
+public class ConnectionLoadTest {
+    private static final String MD5_HASH = "5a73e7b6df89f85bb34129fcdfd7da12";
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.err.println("Usage: ConnectionLoadTest <platform|virtual> [connections]");
+            System.exit(1);
+        }
+        String mode = args[0];
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        ExecutorStrategy strategy;
+        if(mode.equals("virtual")) {
+            if(!ExecutorStrategy.isVirtualThreadSupported()) {
+                System.out.println("Skipping virtual threads: JDK " + System.getProperty("java.version") + " does not have them");
+                return;
+            }
+            strategy = ExecutorStrategy.virtualThreads();
+        } else {
+            strategy = ExecutorStrategy.platformThreads();
+        }
+
+        SAVPPServer server = new SAVPPServer(MD5_HASH, strategy);
+        // The parked guests never finish a handshake, and connecting all of them can take longer than the timeout
+        server.setConnectionTimeouts(0, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        server.startListening();
+        started.await();
+
+        Snapshot before = Snapshot.take();
+        List<Socket> guests = new ArrayList<>(connections);
+        long[] latencies = new long[connections];
+        try {
+            for(int i = 0; i < connections; i++) {
+                long start = System.nanoTime();
+                Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+                guests.add(socket);
+                probe(socket);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Snapshot after = Snapshot.take();
+
+            long handshakeNanos;
+            try(Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+                long start = System.nanoTime();
+                SAVPPMessage.newBuilder()
+                        .setType(SAVPPMessage.MessageType.CONNECTION_REQUEST)
+                        .setConnectionRequest(SAVPPProto.ConnectionRequest.newBuilder().setMd5(MD5_HASH))
+                        .build()
+                        .writeDelimitedTo(socket.getOutputStream());
+                readNonPing(socket);
+                handshakeNanos = System.nanoTime() - start;
+            }
+
+            Arrays.sort(latencies);
+            System.out.println("Strategy:                  " + mode + " threads");
+            System.out.println("Idle guests:               " + connections);
+            System.out.println("Live platform threads:     " + before.threads + " -> " + after.threads);
+            System.out.println("Heap per guest:            " + (after.heapBytes - before.heapBytes) / connections + " B");
+            if(before.residentBytes >= 0) {
+                System.out.println("Resident memory per guest: " + (after.residentBytes - before.residentBytes) / connections + " B");
+            }
+            System.out.println("Connect + first reply:     p50 " + micros(latencies[connections / 2])
+                    + ", p99 " + micros(latencies[connections * 99 / 100])
+                    + ", max " + micros(latencies[connections - 1]));
+            System.out.println("Handshake with all parked: " + micros(handshakeNanos));
+        } finally {
+            for(Socket socket: guests) {
+                socket.close();
+            }
+            server.tearDown().get();
+        }
+    }
+
+    private static void probe(Socket socket) throws IOException {
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE)
+                .setClockProbe(SAVPPProto.ClockProbe.newBuilder().setOriginateTime(System.nanoTime()))
+                .build()
+                .writeDelimitedTo(socket.getOutputStream());
+        readNonPing(socket);
+    }
+
+    private static SAVPPMessage readNonPing(Socket socket) throws IOException {
+        SAVPPMessage message;
+        do {
+            message = SAVPPMessage.parseDelimitedFrom(socket.getInputStream());
+            if(message == null) {
+                throw new IOException("The server closed the connection");
+            }
+        } while(message.getType() == SAVPPMessage.MessageType.PING);
+        return message;
+    }
+
+    private static String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + " us";
+    }
+
+    private static class Snapshot {
+        final int threads;
+        final long heapBytes;
+        final long residentBytes;
+
+        private Snapshot(int threads, long heapBytes, long residentBytes) {
+            this.threads = threads;
+            this.heapBytes = heapBytes;
+            this.residentBytes = residentBytes;
+        }
+
+        static Snapshot take() throws IOException, InterruptedException {
+            System.gc();
+            Thread.sleep(200);
+            return new Snapshot(ManagementFactory.getThreadMXBean().getThreadCount(),
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                    residentBytes());
+        }
+
+        /**
+         * @return The process's resident set size, or -1 where the platform does not expose it
+         */
+        private static long residentBytes() throws IOException {
+            Path status = Paths.get("/proc/self/status");
+            if(!Files.exists(status)) {
+                return -1;
+            }
+            for(String line: Files.readAllLines(status)) {
+                if(line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+            return -1;
+        }
+    }
+}
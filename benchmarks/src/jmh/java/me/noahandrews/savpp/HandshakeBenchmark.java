@@ -0,0 +1,75 @@
+package me.noahandrews.savpp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Time from {@link SAVPPClient#connect(String)} until the server reports the connection as established, over
+ * loopback. Each invocation gets a fresh server because the blocking engine only ever accepts one guest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandshakeBenchmark {
+    private static final String MD5_HASH = "5a73e7b6df89f85bb34129fcdfd7da12";
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    private MediaSynchronizationServer server;
+    private SAVPPClient client;
+
+    @Setup(Level.Invocation)
+    public void startServer() throws IOException, InterruptedException {
+        server = engine.equals("nio") ? new SAVPPNioServer(MD5_HASH) : new SAVPPServer(MD5_HASH);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        server.startListening();
+        started.await();
+        client = new SAVPPClient("localhost");
+    }
+
+    @Benchmark
+    public int handshake() throws IOException {
+        return client.connect(MD5_HASH).join();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopServer() throws InterruptedException, ExecutionException, IOException {
+        client.tearDown();
+        server.tearDown().get();
+    }
+}
@@ -0,0 +1,148 @@
+package me.noahandrews.savpp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolCodecBenchmark {
+    private static final String MD5_HASH = "5a73e7b6df89f85bb34129fcdfd7da12";
+
+    private SAVPPMessage seekMessage;
+    private byte[] encodedSeekMessage;
+    private byte[] fixedLayoutSeekMessage;
+    private ByteArrayOutputStream outputStream;
+    private DelimitedFraming.Decoder decoder;
+    private DecodedMessage decodedMessage;
+    private ByteBuffer encodeBuffer;
+    private int timestamp = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        seekMessage = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder()
+                        .setTimestamp(5_400_000)
+                        .setDelay(12)
+                        .setHostTime(System.nanoTime()))
+                .build();
+        outputStream = new ByteArrayOutputStream(64);
+        seekMessage.writeDelimitedTo(outputStream);
+        encodedSeekMessage = outputStream.toByteArray();
+        decoder = new DelimitedFraming.Decoder(512);
+        decodedMessage = new DecodedMessage();
+        encodeBuffer = ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE);
+        FixedLayoutCodec.writeSeek(encodeBuffer, 5_400_000, 12, System.nanoTime());
+        fixedLayoutSeekMessage = Arrays.copyOf(encodeBuffer.array(), encodeBuffer.position());
+    }
+
+    @Benchmark
+    public SAVPPMessage buildSeekMessage() {
+        return SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(5_400_000).setDelay(12))
+                .build();
+    }
+
+    @Benchmark
+    public int writeDelimited() throws IOException {
+        outputStream.reset();
+        seekMessage.writeDelimitedTo(outputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public SAVPPMessage parseDelimited() throws IOException {
+        return SAVPPMessage.parseDelimitedFrom(new ByteArrayInputStream(encodedSeekMessage));
+    }
+
+    @Benchmark
+    public Frame encodeFrame() {
+        return Frame.of(seekMessage);
+    }
+
+    @Benchmark
+    public SAVPPMessage decodeFrame() throws IOException {
+        ByteBuffer buffer = decoder.writableBuffer();
+        buffer.put(encodedSeekMessage);
+        return decoder.next();
+    }
+
+    /**
+     * Should report no allocation under the gc profiler.
+     */
+    @Benchmark
+    public int writeSeekFastPath() {
+        encodeBuffer.clear();
+        MessageCodec.writeSeek(encodeBuffer, timestamp++, 12, 1_000_000_000L);
+        return encodeBuffer.position();
+    }
+
+    /**
+     * Should report no allocation under the gc profiler.
+     */
+    @Benchmark
+    public int decodeSeekFastPath() throws IOException {
+        decoder.writableBuffer().put(encodedSeekMessage);
+        decoder.next(decodedMessage);
+        return decodedMessage.getTimestamp();
+    }
+
+    /**
+     * Should report no allocation under the gc profiler.
+     */
+    @Benchmark
+    public int writeSeekFixedLayout() {
+        encodeBuffer.clear();
+        FixedLayoutCodec.writeSeek(encodeBuffer, timestamp++, 12, 1_000_000_000L);
+        return encodeBuffer.position();
+    }
+
+    /**
+     * Should report no allocation under the gc profiler.
+     */
+    @Benchmark
+    public int decodeSeekFixedLayout() throws IOException {
+        decoder.writableBuffer().put(fixedLayoutSeekMessage);
+        decoder.next(decodedMessage);
+        return decodedMessage.getTimestamp();
+    }
+
+    @Benchmark
+    public boolean validateHash() {
+        return MD5Checker.isHashValid(MD5_HASH);
+    }
+}
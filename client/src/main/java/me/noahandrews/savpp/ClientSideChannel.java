@@ -0,0 +1,159 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The guest's end of the UDP side channel the host offered. It only carries traffic once {@link #activate()} has been
+ * called, after the host has answered a hello, so a network that blocks UDP just leaves everything on TCP.
+ */
+class ClientSideChannel implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final DatagramChannel channel;
+    private final long key;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+    private int nextSequence = 0;
+    private volatile boolean active = false;
+
+    //Only touched by the thread that calls receive()
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+    private boolean hasReceived = false;
+    private int latestSequence;
+
+    private ClientSideChannel(DatagramChannel channel, long key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    static ClientSideChannel open(InetAddress host, int port, long key) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(host, port));
+        return new ClientSideChannel(channel, key);
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    void activate() {
+        active = true;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    synchronized void sendHello() throws IOException {
+        send(SAVPPMessage.newBuilder().setType(SAVPPMessage.MessageType.SIDE_CHANNEL_HELLO).build());
+    }
+
+    synchronized void sendClockProbe(long originateTime) throws IOException {
+        startDatagram();
+        MessageCodec.writeClockProbe(sendBuffer, originateTime);
+        flushDatagram();
+    }
+
+    synchronized void sendPong(int sequence) throws IOException {
+        startDatagram();
+        MessageCodec.writePong(sendBuffer, sequence);
+        flushDatagram();
+    }
+
+    synchronized void sendPositionReport(int position, long hostTime) throws IOException {
+        startDatagram();
+        MessageCodec.writePositionReport(sendBuffer, position, hostTime);
+        flushDatagram();
+    }
+
+    synchronized void send(SAVPPMessage message) throws IOException {
+        channel.write(SideChannelCodec.encode(key, nextSequence++, message));
+    }
+
+    private void startDatagram() {
+        sendBuffer.clear();
+        SideChannelCodec.writeHeader(sendBuffer, key, nextSequence++);
+    }
+
+    private void flushDatagram() throws IOException {
+        sendBuffer.flip();
+        channel.write(sendBuffer);
+    }
+
+    /**
+     * Blocks until a datagram that is newer than every one before it arrives, dropping stale and malformed ones
+     * @return False once the channel has been closed
+     */
+    boolean receive(DecodedMessage into) {
+        while(channel.isOpen()) {
+            try {
+                receiveBuffer.clear();
+                channel.read(receiveBuffer);
+                receiveBuffer.flip();
+            } catch (PortUnreachableException e) {
+                continue; //The host isn't listening yet, or an earlier datagram bounced
+            } catch (IOException e) {
+                logger.debug("Side channel receive stopped: " + e.getMessage());
+                return false;
+            }
+            if(receiveBuffer.remaining() < SideChannelCodec.HEADER_SIZE || SideChannelCodec.readKey(receiveBuffer) != key) {
+                continue;
+            }
+            int sequence = SideChannelCodec.readSequence(receiveBuffer);
+            if(hasReceived && !SideChannelCodec.isNewer(sequence, latestSequence)) {
+                continue;
+            }
+            try {
+                SideChannelCodec.decode(receiveBuffer, into);
+            } catch (InvalidProtocolBufferException e) {
+                logger.debug("Invalid side channel datagram: " + e.getMessage());
+                continue;
+            }
+            hasReceived = true;
+            latestSequence = sequence;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        active = false;
+        channel.close();
+    }
+}
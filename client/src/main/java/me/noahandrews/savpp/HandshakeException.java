@@ -0,0 +1,54 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The host did not accept a guest's connection request
+ */
+public class HandshakeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final SAVPPProto.Error.ErrorType errorType;
+
+    public HandshakeException(SAVPPProto.Error.ErrorType errorType) {
+        super("The host refused the connection: " + errorType);
+        this.errorType = errorType;
+    }
+
+    public HandshakeException(String message) {
+        super(message);
+        this.errorType = null;
+    }
+
+    /**
+     * @return The reason the host gave, or null if it closed the connection without giving one, which is what it
+     * does when the guest's file does not match
+     */
+    public SAVPPProto.Error.ErrorType getErrorType() {
+        return errorType;
+    }
+}
@@ -1,6 +1,7 @@
 package me.noahandrews.savpp;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * MIT License
@@ -27,5 +28,150 @@ import java.io.IOException;
  */
 
 public interface MediaSynchronizationClient extends MediaSynchronizer {
-    void connect(String md5Hash) throws IOException;
+    /**
+     * Connects to the host and sends a connection request. Returns as soon as the request is sent; the host's
+     * answer arrives on the receive thread.
+     * @param md5Hash The MD5 hash of the guest's file
+     * @return Completes with the host's current timestamp once the host accepts the guest, or exceptionally with a
+     * {@link HandshakeException} if it refuses
+     * @throws IOException If the host could not be reached
+     * @throws IllegalStateException If the client has already connected. Reconnecting after a dropped connection
+     * happens on its own; a client that was torn down can't be reused.
+     */
+    CompletableFuture<Integer> connect(String md5Hash) throws IOException;
+
+    /**
+     * Connects using a fingerprint other than the file's full MD5 hash, such as the much cheaper
+     * {@link MediaFingerprinter#sampledMd5(java.nio.file.Path)}. The host must have been given a fingerprint of the
+     * same type.
+     * @param type The kind of fingerprint being sent
+     * @param fingerprint The fingerprint of the guest's file, as 32 hex digits
+     * @return The same as {@link #connect(String)}
+     */
+    CompletableFuture<Integer> connect(SAVPPProto.FingerprintType type, String fingerprint) throws IOException;
+
+    /**
+     * Sets the handler that is told about the host's answer and commands. Handlers are called on the receive thread
+     * as soon as each message is decoded, so they should return quickly.
+     */
+    void setEventHandler(EventHandler handler);
+
+    /**
+     * @return The host's clock, kept in sync in the background once connected
+     */
+    MediaClock getMediaClock();
+
+    /**
+     * Asks the host to have every guest seek to the given timestamp. Bursts of requests, such as those caused by
+     * scrubbing, are collapsed so that only the latest is sent.
+     * @param timestamp Milliseconds since the beginning of the file
+     */
+    void requestSeek(int timestamp);
+
+    /**
+     * Sets how bursts of {@link #requestSeek(int)} calls are collapsed. Must be called before connecting.
+     * @param windowMillis Requests closer together than this are merged, and only the latest is sent
+     * @param maxSeeksPerSecond The sustained number of requests sent per second
+     * @throws IllegalArgumentException If the window is negative or the rate isn't positive
+     */
+    void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond);
+
+    /**
+     * Chooses which room to join on a host that runs several sessions for the same file. Must be called before
+     * connecting.
+     * @param roomId The room id the host gave out, or an empty string for none
+     */
+    void setRoomId(String roomId);
+
+    /**
+     * Sets how the client reconnects after its connection drops. Each attempt waits twice as long as the previous
+     * one, up to the maximum, with some jitter so that guests that lost their connection together don't all come
+     * back at once. If the host still remembers the guest, reconnecting skips the handshake.
+     * @param maxAttempts How many reconnects to try before giving up, or 0 to not reconnect at all
+     */
+    void setReconnectBackoff(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts);
+
+    /**
+     * Sets how often the client probes the host's clock and reports its playback position. Takes effect on the next
+     * call to connect.
+     */
+    void setHeartbeatIntervals(long clockProbeIntervalMillis, long positionReportIntervalMillis);
+
+    /**
+     * Sets whether the client asks the host for a UDP side channel. When the host offers one and datagrams get
+     * through, pings, clock probes and position reports use it instead of TCP so that a lost packet can't hold them
+     * up behind a retransmission. Enabled by default; it falls back to TCP on its own when UDP is blocked.
+     */
+    void setSideChannelEnabled(boolean enabled);
+
+    /**
+     * Sets whether the client asks the host to deliver seek and play commands over LAN multicast. Commands that a
+     * multicast datagram loses are fetched again over TCP, so they still arrive in order. Enabled by default; the host
+     * only offers multicast when it has been set up for it.
+     */
+    void setMulticastEnabled(boolean enabled);
+
+    /**
+     * Sets whether the client offers to exchange seeks, plays, pings and clock probes in a fixed binary layout,
+     * which is cheaper to read than protobuf. Only used once the host agrees. Enabled by default.
+     */
+    void setFixedLayoutEnabled(boolean enabled);
+
+    abstract class EventHandler {
+        /**
+         * Called when the host accepts the connection request, and again if reconnecting needed a full handshake
+         * @param timestamp Where the host is in the file, in milliseconds since its beginning
+         */
+        public void connectionEstablished(int timestamp) {}
+
+        /**
+         * Called when a reconnect resumed the previous connection. Any seek and play commands that were missed
+         * follow immediately.
+         */
+        public void connectionResumed() {}
+
+        /**
+         * @param reason The error the host sent, or null if it closed the connection without one
+         */
+        public void connectionRefused(SAVPPProto.Error.ErrorType reason) {}
+
+        /**
+         * @param timestamp Milliseconds since the beginning of the file
+         * @param delayMillis How long to wait before seeking, so that every guest seeks at the same moment
+         */
+        public void seekCommandReceived(int timestamp, int delayMillis) {}
+
+        /**
+         * @param delayMillis How long to wait before playing, so that every guest starts at the same moment
+         */
+        public void playCommandReceived(int delayMillis) {}
+
+        /**
+         * Called when the host wants the guest to catch up on, or fall back from, a small drift without seeking
+         * @param rate The playback speed to use, where 1.0 is normal
+         * @param durationMillis How long to play at that speed before going back to normal
+         */
+        public void rateAdjustmentReceived(double rate, int durationMillis) {}
+
+        /**
+         * Called every second while connected, so that the host can keep the guest in sync
+         * @return Where playback is right now, in milliseconds since the beginning of the file, or -1 if the player
+         * doesn't know
+         */
+        public int positionRequested() {
+            return -1;
+        }
+
+        public void errorReceived(SAVPPProto.Error.ErrorType errorType) {}
+
+        /**
+         * Called when an established connection drops. The client starts reconnecting unless that is turned off.
+         */
+        public void disconnected() {}
+
+        /**
+         * Called when every reconnect attempt has failed
+         */
+        public void reconnectFailed() {}
+    }
 }
@@ -0,0 +1,232 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The guest's membership of the host's multicast group. Commands are handed on strictly in sequence order: ones that
+ * arrive early wait for the gap before them to be repaired over TCP, and ones that were already handed on are dropped.
+ * Nothing is handed on until the host has said which sequence number it starts from.
+ */
+class MulticastReceiver implements Runnable, Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final DatagramChannel channel;
+    private final long key;
+    private final Listener listener;
+    private final DecodedMessage command = new DecodedMessage();
+
+    //Guarded by this
+    private final TreeMap<Integer, byte[]> early = new TreeMap<>();
+    private boolean started = false;
+    private int expected;
+    private boolean nacked = false;
+    private int nackedThrough;
+
+    private MulticastReceiver(DatagramChannel channel, long key, Listener listener) {
+        this.channel = channel;
+        this.key = key;
+        this.listener = listener;
+    }
+
+    /**
+     * @param networkInterface The interface to join the group on
+     */
+    static MulticastReceiver join(InetAddress group, int port, NetworkInterface networkInterface, long key,
+                                  Listener listener) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.join(group, networkInterface);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new MulticastReceiver(channel, key, listener);
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer datagram = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+        while(channel.isOpen()) {
+            try {
+                datagram.clear();
+                channel.receive(datagram);
+                datagram.flip();
+            } catch (IOException e) {
+                logger.debug("Multicast receive stopped: " + e.getMessage());
+                return;
+            }
+            if(datagram.remaining() < SideChannelCodec.HEADER_SIZE || SideChannelCodec.readKey(datagram) != key) {
+                continue;
+            }
+            int sequence = SideChannelCodec.readSequence(datagram);
+            if(SideChannelCodec.isEmpty(datagram)) {
+                heartbeat(sequence);
+            } else {
+                byte[] frame = Arrays.copyOfRange(datagram.array(), datagram.position() + SideChannelCodec.HEADER_SIZE,
+                        datagram.limit());
+                received(sequence, frame);
+            }
+        }
+    }
+
+    /**
+     * Called when the host confirms the guest has joined. Every command before the given sequence number has already
+     * arrived over TCP.
+     */
+    synchronized void start(int sequence) {
+        started = true;
+        expected = sequence;
+        early.headMap(sequence).clear();
+        deliverEarly();
+    }
+
+    /**
+     * Called with the host's answer to a NACK
+     * @param frames The missed commands, one for each sequence number, or a catch-up that replaces all of them
+     */
+    synchronized void repaired(int from, int to, List<ByteString> frames) {
+        if(!started || SideChannelCodec.isNewer(expected, to + 1)) {
+            return;
+        }
+        if(SideChannelCodec.isNewer(from, expected)) {
+            // Can't be placed; the next heartbeat asks again from the right place
+            nacked = false;
+            return;
+        }
+        int skip = 0;
+        if(frames.size() == to - from + 1 && SideChannelCodec.isNewer(expected, from)) {
+            skip = expected - from;
+        }
+        for(ByteString frame: frames.subList(skip, frames.size())) {
+            deliver(frame.toByteArray());
+        }
+        expected = to + 1;
+        early.headMap(expected).clear();
+        if(nacked && !SideChannelCodec.isNewer(nackedThrough, to)) {
+            nacked = false;
+        }
+        deliverEarly();
+        if(!early.isEmpty()) {
+            requestRepair(early.firstKey() - 1);
+        }
+    }
+
+    synchronized void received(int sequence, byte[] frame) {
+        if(started && SideChannelCodec.isNewer(expected, sequence)) {
+            return;
+        }
+        if(started && sequence == expected) {
+            deliver(frame);
+            expected++;
+            deliverEarly();
+            return;
+        }
+        if(early.size() < SAVPPValues.MULTICAST_HISTORY_SIZE) {
+            early.put(sequence, frame);
+        }
+        if(started) {
+            requestRepair(early.firstKey() - 1);
+        }
+    }
+
+    synchronized void heartbeat(int latestSequence) {
+        if(!started || SideChannelCodec.isNewer(expected, latestSequence)) {
+            return;
+        }
+        requestRepair(early.isEmpty() ? latestSequence : early.firstKey() - 1);
+    }
+
+    private void requestRepair(int through) {
+        if(nacked && !SideChannelCodec.isNewer(through, nackedThrough)) {
+            return;
+        }
+        int from = nacked && SideChannelCodec.isNewer(nackedThrough + 1, expected) ? nackedThrough + 1 : expected;
+        try {
+            listener.gapDetected(from, through);
+            nacked = true;
+            nackedThrough = through;
+        } catch (IOException e) {
+            logger.debug("Failed to send NACK: " + e.getMessage());
+        }
+    }
+
+    private void deliverEarly() {
+        while(!early.isEmpty() && early.firstKey() == expected) {
+            deliver(early.pollFirstEntry().getValue());
+            expected++;
+        }
+    }
+
+    private void deliver(byte[] frame) {
+        try {
+            SideChannelCodec.decodeFrame(ByteBuffer.wrap(frame), 0, command);
+        } catch (InvalidProtocolBufferException e) {
+            logger.debug("Invalid multicast command: " + e.getMessage());
+            return;
+        }
+        listener.commandReceived(command);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    interface Listener {
+        /**
+         * Called with each command in order, while the receiver's lock is held
+         */
+        void commandReceived(DecodedMessage command);
+
+        /**
+         * Asks the host for the commands numbered from to to, inclusive
+         */
+        void gapDetected(int from, int to) throws IOException;
+    }
+}
@@ -1,10 +1,22 @@
 package me.noahandrews.savpp;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static me.noahandrews.savpp.MD5Checker.isHashValid;
 import static me.noahandrews.savpp.SAVPPProto.ConnectionRequest;
@@ -35,43 +47,669 @@ import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
  */
 
 public class SAVPPClient implements MediaSynchronizationClient {
-    private final String hostname;
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Transport transport;
 
     private Socket socket;
 
     private OutputStream outputStream;
-    private InputStream inputStream;
+
+    private final ClockSynchronizer clockSynchronizer = new ClockSynchronizer();
+    private ExecutorService receiveExecutor;
+    // Read by the receive thread, which schedules reconnects and side channel hellos on it
+    private volatile ScheduledExecutorService scheduler;
+    private SeekCoalescer seekCoalescer;
+    private long seekCoalescingWindowMillis = SAVPPValues.SEEK_COALESCING_WINDOW_MILLIS;
+    private int maxSeeksPerSecond = SAVPPValues.MAX_SEEKS_PER_SECOND;
+    private String roomId = "";
+    private long initialBackoffMillis = SAVPPValues.RECONNECT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = SAVPPValues.RECONNECT_MAX_BACKOFF_MILLIS;
+    private int maxReconnectAttempts = SAVPPValues.RECONNECT_MAX_ATTEMPTS;
+    private long clockProbeIntervalMillis = SAVPPValues.CLOCK_PROBE_INTERVAL_MILLIS;
+    private long positionReportIntervalMillis = SAVPPValues.POSITION_REPORT_INTERVAL_MILLIS;
+
+    private volatile EventHandler eventHandler = new EventHandler() {};
+    private volatile CompletableFuture<Integer> handshakeResult;
+    private volatile boolean tornDown = false;
+    private volatile boolean established = false;
+
+    private SAVPPProto.FingerprintType fingerprintType;
+    private String fingerprint;
+    private volatile String resumeToken = "";
+    private boolean sideChannelEnabled = true;
+    private volatile ClientSideChannel sideChannel;
+    private boolean multicastEnabled = true;
+    private volatile MulticastReceiver multicastReceiver;
+    private boolean fixedLayoutEnabled = true;
+    // Whether the host agreed to the fixed layout on the current connection
+    private volatile boolean fixedLayout = false;
+    private ExecutorService datagramExecutor;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE);
 
     public SAVPPClient(String hostname) {
-        this.hostname = hostname;
+        this(Transport.tcp(hostname, SAVPPValues.PORT_NUMBER));
+    }
+
+    /**
+     * @param transport How to reach the host, for example {@link Transport#unixDomain(java.nio.file.Path)} when it
+     *                  runs on the same machine
+     */
+    public SAVPPClient(Transport transport) {
+        this.transport = transport;
     }
 
     @Override
-    public void connect(String md5Hash) throws IOException {
-        if(!isHashValid(md5Hash)) {
+    public CompletableFuture<Integer> connect(String md5Hash) throws IOException {
+        return connect(SAVPPProto.FingerprintType.FULL_MD5, md5Hash);
+    }
+
+    @Override
+    public CompletableFuture<Integer> connect(SAVPPProto.FingerprintType type, String fingerprint) throws IOException {
+        if(!isHashValid(fingerprint)) {
             throw new IllegalArgumentException("Invalid MD5 hash");
         }
+        synchronized(this) {
+            if(receiveExecutor != null || tornDown) {
+                throw new IllegalStateException("connect() can only be called once.");
+            }
+            this.fingerprintType = type;
+            this.fingerprint = fingerprint;
+            receiveExecutor = Executors.newSingleThreadExecutor();
+            // Created before the receive thread starts, which may need it right away
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        handshakeResult = result;
+        try {
+            openConnection(0);
+        } catch (IOException e) {
+            synchronized(this) {
+                // Nothing was started, so the caller may try again
+                scheduler.shutdownNow();
+                receiveExecutor.shutdownNow();
+                scheduler = null;
+                receiveExecutor = null;
+            }
+            throw e;
+        }
+
+        synchronized(this) {
+            scheduler.scheduleAtFixedRate(this::sendClockProbe, 0, clockProbeIntervalMillis, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(this::sendPositionReport, positionReportIntervalMillis,
+                    positionReportIntervalMillis, TimeUnit.MILLISECONDS);
+            seekCoalescer = new SeekCoalescer(seekCoalescingWindowMillis, maxSeeksPerSecond, scheduler, this::sendSeekRequest);
+        }
+        return result;
+    }
+
+    /**
+     * Opens a socket and sends a connection request, which resumes the previous connection if the host gave us a
+     * token for it
+     * @param attempt 0 for the first connection, otherwise how many times in a row we have tried to reconnect
+     */
+    private void openConnection(int attempt) throws IOException {
+        SAVPPMessage message;
+        synchronized(this) {
+            ConnectionRequest.Builder request = ConnectionRequest.newBuilder()
+                    .setMd5(fingerprint)
+                    .setFingerprintType(fingerprintType)
+                    .setRoomId(roomId)
+                    .setResumable(maxReconnectAttempts > 0)
+                    .setResumeToken(resumeToken)
+                    .setSideChannel(sideChannelEnabled)
+                    .setMulticast(multicastEnabled);
+            if(fixedLayoutEnabled) {
+                request.setCapabilities(SAVPPProto.Capabilities.newBuilder().setFixedLayout(true));
+            }
+            message = SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.CONNECTION_REQUEST)
+                    .setConnectionRequest(request)
+                    .build();
+        }
+
+        Socket newSocket = createSocket();
+        InputStream inputStream = newSocket.getInputStream();
+        synchronized(this) {
+            socket = newSocket;
+            outputStream = newSocket.getOutputStream();
+            // A new connection negotiates its capabilities afresh
+            fixedLayout = false;
+            sendMessage(message);
+        }
+        receiveExecutor.execute(new MessageReceiver(inputStream, attempt));
+    }
+
+    @Override
+    public void setEventHandler(EventHandler handler) {
+        this.eventHandler = handler == null ? new EventHandler() {} : handler;
+    }
+
+    @Override
+    public synchronized void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond) {
+        SeekCoalescer.checkSettings(windowMillis, maxSeeksPerSecond);
+        this.seekCoalescingWindowMillis = windowMillis;
+        this.maxSeeksPerSecond = maxSeeksPerSecond;
+    }
 
-        SAVPPMessage message = SAVPPMessage.newBuilder()
-                .setType(SAVPPMessage.MessageType.CONNECTION_REQUEST)
-                .setConnectionRequest(ConnectionRequest.newBuilder().setMd5(md5Hash))
-                .build();
+    @Override
+    public synchronized void setRoomId(String roomId) {
+        this.roomId = roomId == null ? "" : roomId;
+    }
 
-        socket = createSocket();
-        outputStream = socket.getOutputStream();
-        inputStream = socket.getInputStream();
+    @Override
+    public synchronized void setReconnectBackoff(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+        if(initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis || maxAttempts < 0) {
+            throw new IllegalArgumentException("Invalid reconnect backoff");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxReconnectAttempts = maxAttempts;
+    }
+
+    @Override
+    public synchronized void setHeartbeatIntervals(long clockProbeIntervalMillis, long positionReportIntervalMillis) {
+        if(clockProbeIntervalMillis < 1 || positionReportIntervalMillis < 1) {
+            throw new IllegalArgumentException("Heartbeat intervals must be positive");
+        }
+        this.clockProbeIntervalMillis = clockProbeIntervalMillis;
+        this.positionReportIntervalMillis = positionReportIntervalMillis;
+    }
+
+    @Override
+    public synchronized void setSideChannelEnabled(boolean enabled) {
+        this.sideChannelEnabled = enabled;
+    }
+
+    @Override
+    public synchronized void setMulticastEnabled(boolean enabled) {
+        this.multicastEnabled = enabled;
+    }
+
+    @Override
+    public synchronized void setFixedLayoutEnabled(boolean enabled) {
+        this.fixedLayoutEnabled = enabled;
+    }
+
+    /**
+     * Schedules a reconnect after an exponentially growing, jittered delay, or gives up once the attempts run out
+     */
+    private void scheduleReconnect(int attempt) {
+        long delay;
+        synchronized(this) {
+            if(attempt > maxReconnectAttempts) {
+                logger.debug("Giving up on reconnecting after " + maxReconnectAttempts + " attempts");
+                eventHandler.reconnectFailed();
+                return;
+            }
+            long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+            delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        }
+        logger.debug("Reconnecting in " + delay + "ms");
+        scheduler.schedule(() -> reconnect(attempt), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect(int attempt) {
+        if(tornDown) {
+            return;
+        }
+        try {
+            openConnection(attempt);
+        } catch (IOException e) {
+            logger.debug("Reconnect failed: " + e.getMessage());
+            scheduleReconnect(attempt + 1);
+        }
+    }
+
+    @Override
+    public void requestSeek(int timestamp) {
+        SeekCoalescer coalescer;
+        synchronized(this) {
+            coalescer = seekCoalescer;
+        }
+        if(coalescer == null) {
+            throw new IllegalStateException("requestSeek() can only be called after connecting.");
+        }
+        coalescer.submit(timestamp);
+    }
+
+    private void sendSeekRequest(int timestamp) {
+        try {
+            synchronized(this) {
+                sendBuffer.clear();
+                if(fixedLayout) {
+                    FixedLayoutCodec.writeSeek(sendBuffer, timestamp, 0, 0);
+                } else {
+                    MessageCodec.writeSeek(sendBuffer, timestamp, 0, 0);
+                }
+                flushSendBuffer();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to send seek request: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public MediaClock getMediaClock() {
+        return clockSynchronizer;
+    }
 
+    private synchronized void sendMessage(SAVPPMessage message) throws IOException {
         message.writeDelimitedTo(outputStream);
     }
 
+    /**
+     * Writes whatever a {@link MessageCodec} or {@link FixedLayoutCodec} call just put in {@link #sendBuffer}.
+     * Callers must hold the lock.
+     */
+    private void flushSendBuffer() throws IOException {
+        outputStream.write(sendBuffer.array(), 0, sendBuffer.position());
+    }
+
+    private synchronized void sendPong(int sequence) throws IOException {
+        sendBuffer.clear();
+        if(fixedLayout) {
+            FixedLayoutCodec.writePong(sendBuffer, sequence);
+        } else {
+            MessageCodec.writePong(sendBuffer, sequence);
+        }
+        flushSendBuffer();
+    }
+
+    private void sendClockProbe() {
+        try {
+            ClientSideChannel channel = sideChannel;
+            if(channel != null && channel.isActive()) {
+                channel.sendClockProbe(System.nanoTime());
+                return;
+            }
+            synchronized(this) {
+                sendBuffer.clear();
+                if(fixedLayout) {
+                    FixedLayoutCodec.writeClockProbe(sendBuffer, System.nanoTime());
+                } else {
+                    MessageCodec.writeClockProbe(sendBuffer, System.nanoTime());
+                }
+                flushSendBuffer();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to send clock probe: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tells the host where playback is, stamped with the host's clock so that network delay doesn't count as drift
+     */
+    private void sendPositionReport() {
+        if(!established || !clockSynchronizer.isSynchronized()) {
+            return;
+        }
+        int position = eventHandler.positionRequested();
+        if(position < 0) {
+            return;
+        }
+        long hostTime = clockSynchronizer.toHostNanos(System.nanoTime());
+        try {
+            ClientSideChannel channel = sideChannel;
+            if(channel != null && channel.isActive()) {
+                channel.sendPositionReport(position, hostTime);
+                return;
+            }
+            synchronized(this) {
+                sendBuffer.clear();
+                if(fixedLayout) {
+                    FixedLayoutCodec.writePositionReport(sendBuffer, position, hostTime);
+                } else {
+                    MessageCodec.writePositionReport(sendBuffer, position, hostTime);
+                }
+                flushSendBuffer();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to send position report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the side channel the host offered and says hello until the host echoes one back, which proves that
+     * datagrams get through both ways. Nothing uses the channel until then.
+     */
+    private void openSideChannel(SAVPPProto.SideChannel offer) {
+        ClientSideChannel channel;
+        try {
+            synchronized(this) {
+                closeSideChannel();
+                channel = ClientSideChannel.open(socket.getInetAddress(), offer.getPort(), offer.getKey());
+                sideChannel = channel;
+                if(datagramExecutor == null) {
+                    datagramExecutor = Executors.newCachedThreadPool();
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to open side channel: " + e.getMessage());
+            return;
+        }
+        datagramExecutor.execute(new SideChannelReceiver(channel));
+        sendHello(channel, SAVPPValues.SIDE_CHANNEL_HELLO_ATTEMPTS);
+    }
+
+    private void sendHello(ClientSideChannel channel, int attemptsLeft) {
+        if(channel.isActive() || channel != sideChannel || attemptsLeft == 0) {
+            return;
+        }
+        try {
+            channel.sendHello();
+        } catch (IOException e) {
+            logger.debug("Failed to send side channel hello: " + e.getMessage());
+        }
+        scheduler.schedule(() -> sendHello(channel, attemptsLeft - 1),
+                SAVPPValues.SIDE_CHANNEL_HELLO_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeSideChannel() {
+        if(sideChannel == null) {
+            return;
+        }
+        try {
+            sideChannel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close side channel: " + e.getMessage());
+        }
+        sideChannel = null;
+    }
+
+    /**
+     * Joins the multicast group the host offered, on the interface our connection to the host goes through, and
+     * tells the host so that it stops sending commands over TCP
+     */
+    private void joinMulticast(SAVPPProto.MulticastGroup offer) {
+        MulticastReceiver receiver;
+        try {
+            synchronized(this) {
+                closeMulticast();
+                NetworkInterface networkInterface = NetworkInterface.getByInetAddress(socket.getLocalAddress());
+                receiver = MulticastReceiver.join(InetAddress.getByName(offer.getAddress()), offer.getPort(),
+                        networkInterface, offer.getKey(), new MulticastListener());
+                multicastReceiver = receiver;
+                if(datagramExecutor == null) {
+                    datagramExecutor = Executors.newCachedThreadPool();
+                }
+            }
+            datagramExecutor.execute(receiver);
+            sendMessage(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.MULTICAST_JOIN)
+                    .setMulticastGroup(SAVPPProto.MulticastGroup.newBuilder().setKey(offer.getKey()))
+                    .build());
+        } catch (IOException e) {
+            // The host keeps sending commands over TCP
+            logger.debug("Failed to join multicast group: " + e.getMessage());
+        }
+    }
+
+    private synchronized void closeMulticast() {
+        if(multicastReceiver == null) {
+            return;
+        }
+        try {
+            multicastReceiver.close();
+        } catch (IOException e) {
+            logger.debug("Failed to leave multicast group: " + e.getMessage());
+        }
+        multicastReceiver = null;
+    }
+
+    /**
+     * Hands a seek or play command to the event handler
+     * @param useHostTime Whether to work out the delay from the host time the command carries, which multicast
+     *                    commands need because their delay is shared by every guest
+     */
+    private void commandReceived(DecodedMessage command, boolean useHostTime) {
+        int delay = command.getDelay();
+        if(useHostTime && command.hasHostTime() && clockSynchronizer.isSynchronized()) {
+            long untilExecution = clockSynchronizer.toLocalNanos(command.getHostTime()) - System.nanoTime();
+            delay = (int) Math.max(0, TimeUnit.NANOSECONDS.toMillis(untilExecution));
+        }
+        if(command.getType() == SAVPPMessage.MessageType.SEEK_COMMAND) {
+            eventHandler.seekCommandReceived(command.getTimestamp(), delay);
+        } else if(command.getType() == SAVPPMessage.MessageType.PLAY_COMMAND) {
+            eventHandler.playCommandReceived(delay);
+        }
+    }
+
+    private class MulticastListener implements MulticastReceiver.Listener {
+        @Override
+        public void commandReceived(DecodedMessage command) {
+            SAVPPClient.this.commandReceived(command, true);
+        }
+
+        @Override
+        public void gapDetected(int from, int to) throws IOException {
+            sendMessage(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.NACK)
+                    .setNack(SAVPPProto.Nack.newBuilder().setFrom(from).setTo(to))
+                    .build());
+        }
+    }
+
     protected Socket createSocket() throws IOException {
-        return new Socket(hostname, SAVPPValues.PORT_NUMBER);
+        return transport.openSocket();
     }
 
     @Override
-    public void tearDown() throws ExecutionException, InterruptedException, IOException {
-        if(socket != null) {
-            socket.close();
+    public CompletableFuture<Void> tearDown() throws ExecutionException, InterruptedException, IOException {
+        tornDown = true;
+        CompletableFuture<Integer> pending = handshakeResult;
+        if(pending != null) {
+            pending.completeExceptionally(new HandshakeException("The client was torn down before the host answered"));
+        }
+        if(scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        synchronized(this) {
+            closeSideChannel();
+            closeMulticast();
+            if(socket != null) {
+                socket.close();
+            }
+        }
+        if(receiveExecutor != null) {
+            receiveExecutor.shutdownNow();
+        }
+        if(datagramExecutor != null) {
+            datagramExecutor.shutdownNow();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private class SideChannelReceiver implements Runnable {
+        private final DecodedMessage message = new DecodedMessage();
+        private final ClientSideChannel channel;
+
+        SideChannelReceiver(ClientSideChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            while(channel.receive(message)) {
+                long receivedAtNanos = System.nanoTime();
+                try {
+                    handle(receivedAtNanos);
+                } catch (IOException e) {
+                    logger.debug("Side channel send failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private void handle(long receivedAtNanos) throws IOException {
+            switch(message.getType()) {
+                case SIDE_CHANNEL_HELLO:
+                    if(!channel.isActive()) {
+                        channel.activate();
+                        sendMessage(SAVPPMessage.newBuilder()
+                                .setType(SAVPPMessage.MessageType.SIDE_CHANNEL_ACCEPT)
+                                .setSideChannel(SAVPPProto.SideChannel.newBuilder().setKey(channel.getKey()))
+                                .build());
+                    }
+                    break;
+                case PING:
+                    channel.sendPong(message.getSequence());
+                    break;
+                case CLOCK_PROBE_REPLY:
+                    clockSynchronizer.addSample(message.getOriginateTime(), message.getReceiveTime(),
+                            message.getTransmitTime(), receivedAtNanos);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class MessageReceiver implements Runnable {
+        private final DelimitedFraming.Decoder decoder = new DelimitedFraming.Decoder(512);
+        private final DecodedMessage message = new DecodedMessage();
+        private final InputStream inputStream;
+        private final int attempt;
+        private boolean answered = false;
+        private boolean refused = false;
+        private boolean hostShuttingDown = false;
+
+        /**
+         * @param attempt 0 for the first connection, otherwise the reconnect attempt this connection belongs to
+         */
+        MessageReceiver(InputStream inputStream, int attempt) {
+            this.inputStream = inputStream;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    ByteBuffer buffer = decoder.writableBuffer();
+                    int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    if(read < 0) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + read);
+                    long receivedAtNanos = System.nanoTime();
+                    while(decoder.next(message)) {
+                        handle(message, receivedAtNanos);
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Receive loop stopped: " + e.getMessage());
+            }
+            try {
+                // Hang up our side too, so a host that is draining its guests isn't kept waiting
+                inputStream.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the connection: " + e.getMessage());
+            }
+            connectionClosed();
+        }
+
+        /**
+         * The host closes the connection without an error when the guest's file doesn't match, so a close before
+         * the first connection is answered is a refusal. Once connected, a close means the connection dropped.
+         */
+        private void connectionClosed() {
+            established = false;
+            // A reconnect negotiates a new side channel and multicast membership if it wants them
+            closeSideChannel();
+            closeMulticast();
+            if(tornDown || refused) {
+                return;
+            }
+            if(answered) {
+                eventHandler.disconnected();
+                if(!hostShuttingDown) {
+                    scheduleReconnect(1);
+                }
+            } else if(attempt > 0) {
+                scheduleReconnect(attempt + 1);
+            } else if(handshakeResult.completeExceptionally(new HandshakeException("The host closed the connection"))) {
+                eventHandler.connectionRefused(null);
+            }
+        }
+
+        private void handle(DecodedMessage message, long receivedAtNanos) throws IOException {
+            switch(message.getType()) {
+                case PING:
+                    sendPong(message.getSequence());
+                    break;
+                case CLOCK_PROBE_REPLY:
+                    clockSynchronizer.addSample(message.getOriginateTime(), message.getReceiveTime(),
+                            message.getTransmitTime(), receivedAtNanos);
+                    break;
+                case SEEK_COMMAND:
+                    // The host answers a new connection with a seek to where it currently is
+                    if(!answered) {
+                        answered = true;
+                        established = true;
+                        handshakeResult.complete(message.getTimestamp());
+                        eventHandler.connectionEstablished(message.getTimestamp());
+                    } else {
+                        commandReceived(message, false);
+                    }
+                    break;
+                case PLAY_COMMAND:
+                    commandReceived(message, false);
+                    break;
+                case RATE_ADJUSTMENT:
+                    eventHandler.rateAdjustmentReceived(message.getRate(), message.getDuration());
+                    break;
+                case SESSION_TOKEN:
+                    SAVPPProto.SessionToken token = message.getMessage().getSessionToken();
+                    resumeToken = token.getToken();
+                    if(token.getResumed() && !answered) {
+                        answered = true;
+                        established = true;
+                        eventHandler.connectionResumed();
+                    }
+                    break;
+                case CAPABILITIES:
+                    fixedLayout = message.getMessage().getCapabilities().getFixedLayout();
+                    break;
+                case SIDE_CHANNEL_OFFER:
+                    openSideChannel(message.getMessage().getSideChannel());
+                    break;
+                case MULTICAST_OFFER:
+                    joinMulticast(message.getMessage().getMulticastGroup());
+                    break;
+                case MULTICAST_JOIN:
+                    MulticastReceiver receiver = multicastReceiver;
+                    SAVPPProto.MulticastGroup joined = message.getMessage().getMulticastGroup();
+                    if(receiver != null && receiver.getKey() == joined.getKey()) {
+                        receiver.start(joined.getSequence());
+                    }
+                    break;
+                case MULTICAST_REPAIR:
+                    SAVPPProto.MulticastRepair repair = message.getMessage().getMulticastRepair();
+                    receiver = multicastReceiver;
+                    if(receiver != null) {
+                        receiver.repaired(repair.getFrom(), repair.getTo(), repair.getFrameList());
+                    }
+                    break;
+                case ERROR:
+                    SAVPPProto.Error.ErrorType errorType = message.getMessage().getError().getType();
+                    if(answered) {
+                        if(errorType == SAVPPProto.Error.ErrorType.SERVER_SHUTTING_DOWN) {
+                            // There is nothing to reconnect to once the host has shut down
+                            hostShuttingDown = true;
+                        }
+                        eventHandler.errorReceived(errorType);
+                    } else {
+                        // A refused reconnect ends here too: the host won't take this guest back
+                        refused = true;
+                        handshakeResult.completeExceptionally(new HandshakeException(errorType));
+                        eventHandler.connectionRefused(errorType);
+                    }
+                    break;
+                default:
+                    break;
+            }
         }
     }
 }
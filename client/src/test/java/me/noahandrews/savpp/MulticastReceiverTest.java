@@ -0,0 +1,114 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class MulticastReceiverTest {
+    private final List<Integer> timestamps = new ArrayList<>();
+    private final List<String> nacks = new ArrayList<>();
+    private MulticastReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        receiver = MulticastReceiver.join(InetAddress.getByName("239.255.83.86"), 0, loopback, 1,
+                new MulticastReceiver.Listener() {
+                    @Override
+                    public void commandReceived(DecodedMessage command) {
+                        timestamps.add(command.getTimestamp());
+                    }
+
+                    @Override
+                    public void gapDetected(int from, int to) {
+                        nacks.add(from + "-" + to);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void commandsWaitForTheHostsStartingSequence() {
+        receiver.received(1, seek(2000));
+        receiver.received(0, seek(1000));
+        assertEquals(Collections.emptyList(), timestamps);
+
+        receiver.start(1);
+        assertEquals(Collections.singletonList(2000), timestamps);
+        assertEquals(Collections.emptyList(), nacks);
+    }
+
+    @Test
+    public void gapsAreRepairedInOrder() {
+        receiver.start(0);
+        receiver.received(0, seek(1000));
+        receiver.received(2, seek(3000));
+        receiver.received(3, seek(4000));
+        assertEquals(Collections.singletonList(1000), timestamps);
+        assertEquals(Collections.singletonList("1-1"), nacks);
+
+        receiver.repaired(1, 1, Collections.singletonList(ByteString.copyFrom(seek(2000))));
+        assertEquals(Arrays.asList(1000, 2000, 3000, 4000), timestamps);
+
+        receiver.received(2, seek(3000));
+        assertEquals(4, timestamps.size());
+    }
+
+    @Test
+    public void heartbeatRevealsALostLastCommand() {
+        receiver.start(0);
+        receiver.received(0, seek(1000));
+        receiver.heartbeat(0);
+        assertEquals(Collections.emptyList(), nacks);
+
+        receiver.heartbeat(1);
+        receiver.heartbeat(1);
+        assertEquals(Collections.singletonList("1-1"), nacks);
+    }
+
+    private static byte[] seek(int timestamp) {
+        ByteBuffer frame = Frame.seek(timestamp, 0, 0).buffer();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+}
@@ -8,9 +8,15 @@ import org.junit.rules.ExpectedException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -43,6 +49,7 @@ public class SAVPPClientTest {
 
     private PipedInputStream outgoingDataAsInputStream;
     private PipedOutputStream outgoingDataAsOutputStream;
+    private PipedOutputStream incomingDataAsOutputStream;
 
     private final String MD5_STRING = "5a73e7b6df89f85bb34129fcdfd7da12";
 
@@ -56,6 +63,8 @@ public class SAVPPClientTest {
 
         final Socket mockedSocket = mock(Socket.class);
         when(mockedSocket.getOutputStream()).thenReturn(outgoingDataAsOutputStream);
+        incomingDataAsOutputStream = new PipedOutputStream();
+        when(mockedSocket.getInputStream()).thenReturn(new PipedInputStream(incomingDataAsOutputStream));
 
         savppClient = new SAVPPClient("localhost") {
             @Override
@@ -75,10 +84,199 @@ public class SAVPPClientTest {
         assertEquals(MD5_STRING, message.getConnectionRequest().getMd5());
     }
 
+    @Test
+    public void connectCompletesWithTheHostsTimestamp() throws Exception {
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        savppClient.setEventHandler(new MediaSynchronizationClient.EventHandler() {
+            @Override
+            public void connectionEstablished(int timestamp) {
+                events.add("established " + timestamp);
+            }
+
+            @Override
+            public void seekCommandReceived(int timestamp, int delayMillis) {
+                events.add("seek " + timestamp + " " + delayMillis);
+            }
+
+            @Override
+            public void playCommandReceived(int delayMillis) {
+                events.add("play " + delayMillis);
+            }
+        });
+        CompletableFuture<Integer> result = savppClient.connect(MD5_STRING);
+        assertFalse(result.isDone());
+
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(4000).setDelay(0)));
+        assertEquals(4000, (int) result.get(5, TimeUnit.SECONDS));
+        assertEquals("established 4000", events.poll(5, TimeUnit.SECONDS));
+
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(9000).setDelay(150)));
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.PLAY_COMMAND)
+                .setPlayCommand(SAVPPProto.PlayCommand.newBuilder().setDelay(150)));
+        assertEquals("seek 9000 150", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("play 150", events.poll(5, TimeUnit.SECONDS));
+        savppClient.tearDown();
+    }
+
+    @Test
+    public void refusedConnectionFailsTheFuture() throws Exception {
+        LinkedBlockingQueue<SAVPPProto.Error.ErrorType> refusals = new LinkedBlockingQueue<>();
+        savppClient.setEventHandler(new MediaSynchronizationClient.EventHandler() {
+            @Override
+            public void connectionRefused(SAVPPProto.Error.ErrorType reason) {
+                refusals.add(reason);
+            }
+        });
+        CompletableFuture<Integer> result = savppClient.connect(MD5_STRING);
+
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.ERROR)
+                .setError(SAVPPProto.Error.newBuilder().setType(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED)));
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("The connection should have been refused");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HandshakeException);
+            assertEquals(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED, ((HandshakeException) e.getCause()).getErrorType());
+        }
+        assertEquals(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED, refusals.poll(5, TimeUnit.SECONDS));
+        savppClient.tearDown();
+    }
+
+    @Test
+    public void droppedConnectionIsResumed() throws Exception {
+        PipedInputStream resumedOutgoingData = new PipedInputStream();
+        PipedOutputStream resumedIncomingData = new PipedOutputStream();
+        Socket resumedSocket = mock(Socket.class);
+        when(resumedSocket.getOutputStream()).thenReturn(new PipedOutputStream(resumedOutgoingData));
+        when(resumedSocket.getInputStream()).thenReturn(new PipedInputStream(resumedIncomingData));
+        Socket firstSocket = savppClient.createSocket();
+        LinkedBlockingQueue<Socket> sockets = new LinkedBlockingQueue<>();
+        sockets.add(firstSocket);
+        sockets.add(resumedSocket);
+        savppClient = new SAVPPClient("localhost") {
+            @Override
+            protected Socket createSocket() {
+                return sockets.remove();
+            }
+        };
+        savppClient.setReconnectBackoff(1, 1, 3);
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        savppClient.setEventHandler(new MediaSynchronizationClient.EventHandler() {
+            @Override
+            public void disconnected() {
+                events.add("disconnected");
+            }
+
+            @Override
+            public void connectionResumed() {
+                events.add("resumed");
+            }
+        });
+
+        savppClient.connect(MD5_STRING);
+        assertTrue(SAVPPMessage.parseDelimitedFrom(outgoingDataAsInputStream).getConnectionRequest().getResumable());
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(0).setDelay(0)));
+        writeIncoming(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SESSION_TOKEN)
+                .setSessionToken(SAVPPProto.SessionToken.newBuilder().setToken("token")));
+        incomingDataAsOutputStream.close();
+        assertEquals("disconnected", events.poll(5, TimeUnit.SECONDS));
+
+        SAVPPProto.ConnectionRequest resumeRequest = SAVPPMessage.parseDelimitedFrom(resumedOutgoingData).getConnectionRequest();
+        assertEquals("token", resumeRequest.getResumeToken());
+        assertEquals(MD5_STRING, resumeRequest.getMd5());
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SESSION_TOKEN)
+                .setSessionToken(SAVPPProto.SessionToken.newBuilder().setToken("token").setResumed(true))
+                .build()
+                .writeDelimitedTo(resumedIncomingData);
+        resumedIncomingData.flush();
+        assertEquals("resumed", events.poll(5, TimeUnit.SECONDS));
+        savppClient.tearDown();
+    }
+
+    private void writeIncoming(SAVPPMessage.Builder message) throws Exception {
+        message.build().writeDelimitedTo(incomingDataAsOutputStream);
+        incomingDataAsOutputStream.flush();
+    }
+
+    @Test
+    public void clockIsSynchronizedFromProbeReplies() throws Exception {
+        savppClient.connect(MD5_STRING);
+        SAVPPMessage.parseDelimitedFrom(outgoingDataAsInputStream);
+
+        SAVPPMessage probe = SAVPPMessage.parseDelimitedFrom(outgoingDataAsInputStream);
+        assertEquals(SAVPPMessage.MessageType.CLOCK_PROBE, probe.getType());
+
+        long hostOffset = TimeUnit.SECONDS.toNanos(30);
+        long hostReceiveTime = System.nanoTime() + hostOffset;
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY)
+                .setClockProbe(SAVPPProto.ClockProbe.newBuilder()
+                        .setOriginateTime(probe.getClockProbe().getOriginateTime())
+                        .setReceiveTime(hostReceiveTime)
+                        .setTransmitTime(hostReceiveTime))
+                .build()
+                .writeDelimitedTo(incomingDataAsOutputStream);
+
+        MediaClock clock = savppClient.getMediaClock();
+        while(!clock.isSynchronized()) {
+            Thread.sleep(1);
+        }
+        long error = clock.toHostNanos(System.nanoTime()) - (System.nanoTime() + hostOffset);
+        assertTrue("Offset error was " + error + "ns", Math.abs(error) < TimeUnit.MILLISECONDS.toNanos(500));
+        savppClient.tearDown();
+    }
+
+    @Test
+    public void clockDriftIsTracked() throws Exception {
+        ClockSynchronizer synchronizer = new ClockSynchronizer();
+        double driftRate = 50e-6; //50 ppm, a typical crystal oscillator tolerance
+        long oneWayDelay = TimeUnit.MILLISECONDS.toNanos(2);
+        for(int i = 0; i < ClockSynchronizer.WINDOW_SIZE * 10; i++) {
+            long originateTime = TimeUnit.SECONDS.toNanos(i);
+            long jitter = (i % 3) * TimeUnit.MILLISECONDS.toNanos(1);
+            long hostTime = originateTime + oneWayDelay + jitter + Math.round(originateTime * driftRate);
+            synchronizer.addSample(originateTime, hostTime, hostTime, originateTime + 2 * oneWayDelay + jitter);
+        }
+        assertEquals(driftRate, synchronizer.getDriftRate(), 1e-6);
+
+        long anHourLater = TimeUnit.HOURS.toNanos(1);
+        long expectedHostTime = anHourLater + Math.round(anHourLater * driftRate);
+        long error = synchronizer.toHostNanos(anHourLater) - expectedHostTime;
+        assertTrue("Offset error was " + error + "ns", Math.abs(error) < TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
     @Test
     public void invalidHashRaisesException() throws Exception {
         thrown.expect(IllegalArgumentException.class);
         thrown.expectMessage("Invalid MD5 hash");
         savppClient.connect("1234567890abcdef");
     }
+
+    @Test
+    public void invalidSeekCoalescingIsRejected() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("The seek rate must be positive");
+        savppClient.setSeekCoalescing(100, 0);
+    }
+
+    @Test
+    public void secondConnectIsRejected() throws Exception {
+        savppClient.connect(MD5_STRING);
+        try {
+            thrown.expect(IllegalStateException.class);
+            savppClient.connect(MD5_STRING);
+        } finally {
+            savppClient.tearDown();
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package me.noahandrews.savpp;
+
+import static me.noahandrews.savpp.SAVPPProto.ClockProbe;
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Estimates the offset between a local and a remote clock from NTP-style four-timestamp exchanges.
+ * <p>
+ * Network delay only ever makes a sample's offset less accurate, so within each window of recent samples the one
+ * with the smallest round trip is trusted and the rest are ignored. The trusted samples of successive windows are
+ * then fitted to a line, which gives the rate at which the two clocks drift apart and lets the offset be
+ * extrapolated between probes.
+ */
+class ClockSynchronizer implements MediaClock {
+    static final int WINDOW_SIZE = 8;
+    static final int DRIFT_HISTORY_SIZE = 16;
+
+    private final long[] windowOffsets = new long[WINDOW_SIZE];
+    private final long[] windowDelays = new long[WINDOW_SIZE];
+    private final long[] windowLocalTimes = new long[WINDOW_SIZE];
+    private int windowCount = 0;
+    private int windowNext = 0;
+    private int samplesSinceAnchor = 0;
+
+    private final long[] anchorLocalTimes = new long[DRIFT_HISTORY_SIZE];
+    private final long[] anchorOffsets = new long[DRIFT_HISTORY_SIZE];
+    private int anchorCount = 0;
+    private int anchorNext = 0;
+
+    private long bestLocalTime;
+    private long bestOffset;
+    private double driftRate = 0;
+
+    /**
+     * Records one completed probe.
+     * @param originateTime Local time when the probe was sent (t1)
+     * @param receiveTime Remote time when the probe arrived (t2)
+     * @param transmitTime Remote time when the reply was sent (t3)
+     * @param destinationTime Local time when the reply arrived (t4)
+     */
+    synchronized void addSample(long originateTime, long receiveTime, long transmitTime, long destinationTime) {
+        long delay = (destinationTime - originateTime) - (transmitTime - receiveTime);
+        if(delay < 0) {
+            return;
+        }
+        long offset = ((receiveTime - originateTime) + (transmitTime - destinationTime)) / 2;
+        long localTime = originateTime + (destinationTime - originateTime) / 2;
+
+        windowOffsets[windowNext] = offset;
+        windowDelays[windowNext] = delay;
+        windowLocalTimes[windowNext] = localTime;
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+        windowCount = Math.min(windowCount + 1, WINDOW_SIZE);
+
+        int best = 0;
+        for(int i = 1; i < windowCount; i++) {
+            if(windowDelays[i] < windowDelays[best]) {
+                best = i;
+            }
+        }
+        bestLocalTime = windowLocalTimes[best];
+        bestOffset = windowOffsets[best];
+
+        if(++samplesSinceAnchor >= WINDOW_SIZE) {
+            samplesSinceAnchor = 0;
+            addAnchor(bestLocalTime, bestOffset);
+        }
+    }
+
+    private void addAnchor(long localTime, long offset) {
+        if(anchorCount > 0 && anchorLocalTimes[(anchorNext + DRIFT_HISTORY_SIZE - 1) % DRIFT_HISTORY_SIZE] == localTime) {
+            return;
+        }
+        anchorLocalTimes[anchorNext] = localTime;
+        anchorOffsets[anchorNext] = offset;
+        anchorNext = (anchorNext + 1) % DRIFT_HISTORY_SIZE;
+        anchorCount = Math.min(anchorCount + 1, DRIFT_HISTORY_SIZE);
+
+        if(anchorCount < 2) {
+            return;
+        }
+        //Least squares fit of offset against local time, relative to the first anchor to keep the numbers small
+        long origin = anchorLocalTimes[(anchorNext + DRIFT_HISTORY_SIZE - anchorCount) % DRIFT_HISTORY_SIZE];
+        long offsetOrigin = anchorOffsets[(anchorNext + DRIFT_HISTORY_SIZE - anchorCount) % DRIFT_HISTORY_SIZE];
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for(int i = 0; i < anchorCount; i++) {
+            double x = anchorLocalTimes[i] - origin;
+            double y = anchorOffsets[i] - offsetOrigin;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        double denominator = anchorCount * sumXX - sumX * sumX;
+        if(denominator != 0) {
+            driftRate = (anchorCount * sumXY - sumX * sumY) / denominator;
+        }
+    }
+
+    @Override
+    public synchronized boolean isSynchronized() {
+        return windowCount > 0;
+    }
+
+    /**
+     * @return The remote clock minus the local clock at the given local time
+     */
+    synchronized long getOffsetNanos(long localNanos) {
+        return bestOffset + Math.round(driftRate * (localNanos - bestLocalTime));
+    }
+
+    synchronized double getDriftRate() {
+        return driftRate;
+    }
+
+    /**
+     * Answers a probe on the host side. Should be called as late as possible before the reply is written.
+     * @param receiveTime The host's clock when the probe was read
+     */
+    static SAVPPMessage createProbeReply(ClockProbe probe, long receiveTime) {
+        return SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY)
+                .setClockProbe(ClockProbe.newBuilder()
+                        .setOriginateTime(probe.getOriginateTime())
+                        .setReceiveTime(receiveTime)
+                        .setTransmitTime(System.nanoTime()))
+                .build();
+    }
+
+    @Override
+    public long hostTimeNanos() {
+        return toHostNanos(System.nanoTime());
+    }
+
+    @Override
+    public long toLocalNanos(long hostNanos) {
+        long guess = hostNanos - getOffsetNanos(System.nanoTime());
+        return hostNanos - getOffsetNanos(guess);
+    }
+
+    @Override
+    public long toHostNanos(long localNanos) {
+        return localNanos + getOffsetNanos(localNanos);
+    }
+}
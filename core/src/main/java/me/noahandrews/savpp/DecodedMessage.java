@@ -0,0 +1,437 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.nio.ByteBuffer;
+
+import static me.noahandrews.savpp.MessageCodec.*;
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A reusable holder that one connection decodes every incoming message into. The high-frequency types (seek, play,
+ * ping, pong, clock probes, position reports and rate adjustments) are read field by field into primitives without allocating. Everything else is
+ * rare, so it is handed to the regular protobuf parser and available from {@link #getMessage()}. Messages in the
+ * {@link FixedLayoutCodec fixed layout} are always accepted, whether or not it was negotiated.
+ */
+final class DecodedMessage {
+    private SAVPPMessage.MessageType type;
+    private SAVPPMessage message;
+
+    private int timestamp;
+    private int delay;
+    private long hostTime;
+    private boolean hasHostTime;
+    private int sequence;
+    private long originateTime;
+    private long receiveTime;
+    private long transmitTime;
+    private int reportedPosition;
+    private double rate;
+    private int duration;
+
+    private int position;
+    private int end;
+
+    SAVPPMessage.MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return The fully parsed message. Only available for types without a fast path; see {@link #toMessage()}.
+     */
+    SAVPPMessage getMessage() {
+        return message;
+    }
+
+    int getTimestamp() {
+        return timestamp;
+    }
+
+    int getDelay() {
+        return delay;
+    }
+
+    long getHostTime() {
+        return hostTime;
+    }
+
+    boolean hasHostTime() {
+        return hasHostTime;
+    }
+
+    int getSequence() {
+        return sequence;
+    }
+
+    long getOriginateTime() {
+        return originateTime;
+    }
+
+    long getReceiveTime() {
+        return receiveTime;
+    }
+
+    long getTransmitTime() {
+        return transmitTime;
+    }
+
+    /**
+     * @return The playback position a position report carries. Its host time is {@link #getHostTime()}.
+     */
+    int getPosition() {
+        return reportedPosition;
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Builds a regular protobuf message with the same contents. Allocates, so it is meant for slow paths and tests.
+     */
+    SAVPPMessage toMessage() {
+        if(message != null) {
+            return message;
+        }
+        SAVPPMessage.Builder builder = SAVPPMessage.newBuilder().setType(type);
+        switch(type) {
+            case SEEK_COMMAND:
+                SAVPPProto.SeekCommand.Builder seek = SAVPPProto.SeekCommand.newBuilder().setTimestamp(timestamp).setDelay(delay);
+                if(hasHostTime) {
+                    seek.setHostTime(hostTime);
+                }
+                return builder.setSeekCommand(seek).build();
+            case PLAY_COMMAND:
+                SAVPPProto.PlayCommand.Builder play = SAVPPProto.PlayCommand.newBuilder().setDelay(delay);
+                if(hasHostTime) {
+                    play.setHostTime(hostTime);
+                }
+                return builder.setPlayCommand(play).build();
+            case PING:
+                return builder.setPing(SAVPPProto.Ping.newBuilder().setSequence(sequence)).build();
+            case PONG:
+                return builder.setPong(SAVPPProto.Pong.newBuilder().setSequence(sequence)).build();
+            case POSITION_REPORT:
+                return builder.setPositionReport(SAVPPProto.PositionReport.newBuilder()
+                        .setPosition(reportedPosition)
+                        .setHostTime(hostTime)).build();
+            case RATE_ADJUSTMENT:
+                return builder.setRateAdjustment(SAVPPProto.RateAdjustment.newBuilder()
+                        .setRate(rate)
+                        .setDuration(duration)).build();
+            default:
+                return builder.setClockProbe(SAVPPProto.ClockProbe.newBuilder()
+                        .setOriginateTime(originateTime)
+                        .setReceiveTime(receiveTime)
+                        .setTransmitTime(transmitTime)).build();
+        }
+    }
+
+    /**
+     * Decodes one message body, without its length prefix, replacing whatever this holder contained before. The
+     * buffer's position is not changed.
+     */
+    void decode(ByteBuffer buffer, int offset, int length) throws InvalidProtocolBufferException {
+        clear();
+        if(length > 0 && buffer.get(offset) == FixedLayoutCodec.MARKER) {
+            decodeFixedLayout(buffer, offset, length);
+            return;
+        }
+        position = offset;
+        end = offset + length;
+
+        int bodyOffset = -1;
+        int bodyEnd = -1;
+        int bodyField = 0;
+        while(position < end) {
+            int tag = (int) readVarint(buffer);
+            int field = tag >>> 3;
+            int wireType = tag & 0x7;
+            if(field == 0) {
+                throw invalidTag();
+            }
+            if(field == MESSAGE_TYPE_FIELD && wireType == WIRETYPE_VARINT) {
+                type = SAVPPMessage.MessageType.valueOf((int) readVarint(buffer));
+            } else if(wireType == WIRETYPE_LENGTH_DELIMITED) {
+                int size = (int) readVarint(buffer);
+                if(size < 0 || position + size > end) {
+                    throw truncated();
+                }
+                bodyField = field;
+                bodyOffset = position;
+                bodyEnd = position + size;
+                position = bodyEnd;
+            } else {
+                skipField(buffer, wireType);
+            }
+        }
+
+        if(type == null || !hasFastPath(type) || bodyField != fastPathField(type)) {
+            parseWithProtobuf(buffer, offset, length);
+            return;
+        }
+
+        position = bodyOffset;
+        end = bodyEnd;
+        int seen = 0;
+        while(position < end) {
+            int tag = (int) readVarint(buffer);
+            int field = tag >>> 3;
+            if(field == 0) {
+                throw invalidTag();
+            }
+            if(type == SAVPPMessage.MessageType.RATE_ADJUSTMENT && field == 1 && (tag & 0x7) == WIRETYPE_FIXED64) {
+                rate = Double.longBitsToDouble(readFixed64(buffer));
+                seen |= 1 << field;
+                continue;
+            }
+            if((tag & 0x7) != WIRETYPE_VARINT || field > 3) {
+                skipField(buffer, tag & 0x7);
+                continue;
+            }
+            long value = readVarint(buffer);
+            seen |= 1 << field;
+            assign(field, value);
+        }
+        if(type != SAVPPMessage.MessageType.PLAY_COMMAND && (seen & (1 << 1)) == 0) {
+            throw new InvalidProtocolBufferException("Message missing required fields");
+        }
+    }
+
+    private void decodeFixedLayout(ByteBuffer buffer, int offset, int length) throws InvalidProtocolBufferException {
+        SAVPPMessage.MessageType fixedType = length < FixedLayoutCodec.HEADER_SIZE ? null
+                : SAVPPMessage.MessageType.valueOf(buffer.get(offset + 1));
+        if(fixedType == null || FixedLayoutCodec.bodySize(fixedType) != length) {
+            throw new InvalidProtocolBufferException("Malformed fixed-layout message");
+        }
+        int fields = offset + FixedLayoutCodec.HEADER_SIZE;
+        switch(fixedType) {
+            case SEEK_COMMAND:
+                timestamp = buffer.getInt(fields);
+                delay = buffer.getInt(fields + 4);
+                hostTime = buffer.getLong(fields + 8);
+                hasHostTime = true;
+                break;
+            case PLAY_COMMAND:
+                delay = buffer.getInt(fields);
+                hostTime = buffer.getLong(fields + 4);
+                hasHostTime = true;
+                break;
+            case POSITION_REPORT:
+                reportedPosition = buffer.getInt(fields);
+                hostTime = buffer.getLong(fields + 4);
+                hasHostTime = true;
+                break;
+            case RATE_ADJUSTMENT:
+                rate = buffer.getDouble(fields);
+                duration = buffer.getInt(fields + 8);
+                break;
+            case PING:
+            case PONG:
+                sequence = buffer.getInt(fields);
+                break;
+            case CLOCK_PROBE:
+                originateTime = buffer.getLong(fields);
+                break;
+            default: // CLOCK_PROBE_REPLY
+                originateTime = buffer.getLong(fields);
+                receiveTime = buffer.getLong(fields + 8);
+                transmitTime = buffer.getLong(fields + 16);
+                break;
+        }
+        type = fixedType;
+    }
+
+    private void assign(int field, long value) {
+        switch(type) {
+            case SEEK_COMMAND:
+                if(field == 1) {
+                    timestamp = (int) value;
+                } else if(field == 2) {
+                    delay = (int) value;
+                } else {
+                    hostTime = value;
+                    hasHostTime = true;
+                }
+                break;
+            case PLAY_COMMAND:
+                if(field == 1) {
+                    delay = (int) value;
+                } else if(field == 2) {
+                    hostTime = value;
+                    hasHostTime = true;
+                }
+                break;
+            case PING:
+            case PONG:
+                if(field == 1) {
+                    sequence = (int) value;
+                }
+                break;
+            case POSITION_REPORT:
+                if(field == 1) {
+                    reportedPosition = (int) value;
+                } else if(field == 2) {
+                    hostTime = value;
+                    hasHostTime = true;
+                }
+                break;
+            case RATE_ADJUSTMENT:
+                if(field == 2) {
+                    duration = (int) value;
+                }
+                break;
+            default:
+                if(field == 1) {
+                    originateTime = value;
+                } else if(field == 2) {
+                    receiveTime = value;
+                } else {
+                    transmitTime = value;
+                }
+                break;
+        }
+    }
+
+    private void clear() {
+        type = null;
+        message = null;
+        timestamp = 0;
+        delay = 0;
+        hostTime = 0;
+        hasHostTime = false;
+        sequence = 0;
+        originateTime = 0;
+        receiveTime = 0;
+        transmitTime = 0;
+        reportedPosition = 0;
+        rate = 0;
+        duration = 0;
+    }
+
+    private void parseWithProtobuf(ByteBuffer buffer, int offset, int length) throws InvalidProtocolBufferException {
+        if(buffer.hasArray()) {
+            message = SAVPPMessage.PARSER.parseFrom(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            byte[] copy = new byte[length];
+            for(int i = 0; i < length; i++) {
+                copy[i] = buffer.get(offset + i);
+            }
+            message = SAVPPMessage.PARSER.parseFrom(copy);
+        }
+        type = message.getType();
+    }
+
+    private static boolean hasFastPath(SAVPPMessage.MessageType type) {
+        return fastPathField(type) != 0;
+    }
+
+    private static int fastPathField(SAVPPMessage.MessageType type) {
+        switch(type) {
+            case SEEK_COMMAND:
+                return SEEK_COMMAND_FIELD;
+            case PLAY_COMMAND:
+                return PLAY_COMMAND_FIELD;
+            case PING:
+                return PING_FIELD;
+            case PONG:
+                return PONG_FIELD;
+            case CLOCK_PROBE:
+            case CLOCK_PROBE_REPLY:
+                return CLOCK_PROBE_FIELD;
+            case POSITION_REPORT:
+                return POSITION_REPORT_FIELD;
+            case RATE_ADJUSTMENT:
+                return RATE_ADJUSTMENT_FIELD;
+            default:
+                return 0;
+        }
+    }
+
+    private long readVarint(ByteBuffer buffer) throws InvalidProtocolBufferException {
+        long result = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            if(position >= end) {
+                throw truncated();
+            }
+            byte b = buffer.get(position++);
+            result |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return result;
+            }
+        }
+        throw new InvalidProtocolBufferException("Malformed varint");
+    }
+
+    /**
+     * Protobuf writes fixed-width fields little-endian
+     */
+    private long readFixed64(ByteBuffer buffer) throws InvalidProtocolBufferException {
+        if(position + 8 > end) {
+            throw truncated();
+        }
+        long result = 0;
+        for(int i = 0; i < 8; i++) {
+            result |= (buffer.get(position++) & 0xFFL) << (8 * i);
+        }
+        return result;
+    }
+
+    private void skipField(ByteBuffer buffer, int wireType) throws InvalidProtocolBufferException {
+        switch(wireType) {
+            case WIRETYPE_VARINT:
+                readVarint(buffer);
+                return;
+            case 1:
+                position += 8;
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                position += (int) readVarint(buffer);
+                break;
+            case 5:
+                position += 4;
+                break;
+            default:
+                throw new InvalidProtocolBufferException("Unsupported wire type " + wireType);
+        }
+        if(position > end || position < 0) {
+            throw truncated();
+        }
+    }
+
+    private static InvalidProtocolBufferException invalidTag() {
+        return new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+    }
+
+    private static InvalidProtocolBufferException truncated() {
+        return new InvalidProtocolBufferException("Message truncated");
+    }
+}
@@ -0,0 +1,136 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Varint-delimited framing of {@link SAVPPMessage}s for non-blocking channels. The wire format is identical to
+ * {@link SAVPPMessage#writeDelimitedTo(java.io.OutputStream)}, so both kinds of peers can talk to each other.
+ */
+final class DelimitedFraming {
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private DelimitedFraming() {}
+
+    static ByteBuffer encode(SAVPPMessage message) {
+        int size = message.getSerializedSize();
+        byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(size) + size];
+        CodedOutputStream output = CodedOutputStream.newInstance(frame);
+        try {
+            output.writeRawVarint32(size);
+            message.writeTo(output);
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Serializing to a byte array should not throw", e);
+        }
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Accumulates bytes read from a channel and splits them into messages. Not thread safe; each connection owns
+     * one decoder.
+     */
+    static class Decoder {
+        private ByteBuffer buffer;
+
+        Decoder(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        /**
+         * @return A buffer in write mode that the caller should read channel data into.
+         */
+        ByteBuffer writableBuffer() {
+            if(!buffer.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, SAVPPValues.MAX_FRAME_SIZE + MAX_VARINT_SIZE));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+
+        /**
+         * @return The next complete message, or null if more data is needed.
+         */
+        SAVPPMessage next() throws InvalidProtocolBufferException {
+            DecodedMessage decoded = new DecodedMessage();
+            return next(decoded) ? decoded.toMessage() : null;
+        }
+
+        /**
+         * Decodes the next complete message into a reusable holder. Does not allocate once the buffer has grown to
+         * fit the largest frame it sees.
+         * @return Whether a message was decoded; false means more data is needed.
+         */
+        boolean next(DecodedMessage into) throws InvalidProtocolBufferException {
+            buffer.flip();
+            try {
+                int start = buffer.position();
+                int length = 0;
+                int shift = 0;
+                int headerSize = 0;
+                while(true) {
+                    if(headerSize == buffer.remaining()) {
+                        return false;
+                    }
+                    byte b = buffer.get(start + headerSize++);
+                    length |= (b & 0x7F) << shift;
+                    if(b >= 0) {
+                        break;
+                    }
+                    shift += 7;
+                    if(headerSize == MAX_VARINT_SIZE) {
+                        throw new InvalidProtocolBufferException("Malformed frame length");
+                    }
+                }
+                if(length < 0 || length > SAVPPValues.MAX_FRAME_SIZE) {
+                    throw new InvalidProtocolBufferException("Frame of " + length + " bytes exceeds the maximum frame size");
+                }
+                if(buffer.remaining() < headerSize + length) {
+                    if(buffer.capacity() < headerSize + length) {
+                        ByteBuffer grown = ByteBuffer.allocate(headerSize + length);
+                        grown.put(buffer);
+                        grown.flip();
+                        buffer = grown;
+                    }
+                    return false;
+                }
+                into.decode(buffer, start + headerSize, length);
+                buffer.position(start + headerSize + length);
+                return true;
+            } finally {
+                buffer.compact();
+            }
+        }
+    }
+}
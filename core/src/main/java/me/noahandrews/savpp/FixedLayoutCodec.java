@@ -0,0 +1,176 @@
+package me.noahandrews.savpp;
+
+import java.nio.ByteBuffer;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Writes the high-frequency messages in a fixed layout that peers who negotiated
+ * {@link SAVPPProto.Capabilities#getFixedLayout()} can read with a handful of absolute gets instead of walking
+ * protobuf tags. {@link DecodedMessage} reads both layouts, telling them apart by the first byte of the frame body:
+ * protobuf never starts a message with field number 0.
+ * <p>
+ * Frames keep the usual varint length prefix, so framing is unchanged. The body is a zero byte, the message type's
+ * number as one byte, then the fields as big-endian integers:
+ * <ul>
+ *     <li>SEEK_COMMAND: int32 timestamp, int32 delay, int64 hostTime</li>
+ *     <li>PLAY_COMMAND: int32 delay, int64 hostTime</li>
+ *     <li>PING, PONG: int32 sequence</li>
+ *     <li>CLOCK_PROBE: int64 originateTime</li>
+ *     <li>CLOCK_PROBE_REPLY: int64 originateTime, int64 receiveTime, int64 transmitTime</li>
+ *     <li>POSITION_REPORT: int32 position, int64 hostTime</li>
+ *     <li>RATE_ADJUSTMENT: float64 rate, int32 duration</li>
+ * </ul>
+ * Seek and play commands always carry a host time in this layout, so one that was built without it stays protobuf.
+ * Like {@link MessageCodec}, every method writes one complete frame at the buffer's position.
+ */
+final class FixedLayoutCodec {
+    static final byte MARKER = 0;
+    static final int HEADER_SIZE = 2;
+
+    private FixedLayoutCodec() {}
+
+    static void writeSeek(ByteBuffer out, int timestamp, int delay, long hostTime) {
+        writeHeader(out, SAVPPMessage.MessageType.SEEK_COMMAND);
+        out.putInt(timestamp);
+        out.putInt(delay);
+        out.putLong(hostTime);
+    }
+
+    static void writePlay(ByteBuffer out, int delay, long hostTime) {
+        writeHeader(out, SAVPPMessage.MessageType.PLAY_COMMAND);
+        out.putInt(delay);
+        out.putLong(hostTime);
+    }
+
+    static void writePing(ByteBuffer out, int sequence) {
+        writeHeader(out, SAVPPMessage.MessageType.PING);
+        out.putInt(sequence);
+    }
+
+    static void writePong(ByteBuffer out, int sequence) {
+        writeHeader(out, SAVPPMessage.MessageType.PONG);
+        out.putInt(sequence);
+    }
+
+    static void writeClockProbe(ByteBuffer out, long originateTime) {
+        writeHeader(out, SAVPPMessage.MessageType.CLOCK_PROBE);
+        out.putLong(originateTime);
+    }
+
+    static void writeClockProbeReply(ByteBuffer out, long originateTime, long receiveTime, long transmitTime) {
+        writeHeader(out, SAVPPMessage.MessageType.CLOCK_PROBE_REPLY);
+        out.putLong(originateTime);
+        out.putLong(receiveTime);
+        out.putLong(transmitTime);
+    }
+
+    static void writePositionReport(ByteBuffer out, int position, long hostTime) {
+        writeHeader(out, SAVPPMessage.MessageType.POSITION_REPORT);
+        out.putInt(position);
+        out.putLong(hostTime);
+    }
+
+    static void writeRateAdjustment(ByteBuffer out, double rate, int duration) {
+        writeHeader(out, SAVPPMessage.MessageType.RATE_ADJUSTMENT);
+        out.putDouble(rate);
+        out.putInt(duration);
+    }
+
+    /**
+     * Writes a message that was decoded from the protobuf layout in the fixed layout
+     * @return false, having written nothing, if the message has no fixed layout
+     */
+    static boolean write(ByteBuffer out, DecodedMessage message) {
+        switch(message.getType()) {
+            case SEEK_COMMAND:
+                if(!message.hasHostTime()) {
+                    return false;
+                }
+                writeSeek(out, message.getTimestamp(), message.getDelay(), message.getHostTime());
+                return true;
+            case PLAY_COMMAND:
+                if(!message.hasHostTime()) {
+                    return false;
+                }
+                writePlay(out, message.getDelay(), message.getHostTime());
+                return true;
+            case PING:
+                writePing(out, message.getSequence());
+                return true;
+            case PONG:
+                writePong(out, message.getSequence());
+                return true;
+            case CLOCK_PROBE:
+                writeClockProbe(out, message.getOriginateTime());
+                return true;
+            case CLOCK_PROBE_REPLY:
+                writeClockProbeReply(out, message.getOriginateTime(), message.getReceiveTime(), message.getTransmitTime());
+                return true;
+            case POSITION_REPORT:
+                writePositionReport(out, message.getPosition(), message.getHostTime());
+                return true;
+            case RATE_ADJUSTMENT:
+                writeRateAdjustment(out, message.getRate(), message.getDuration());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The size of a message body of the given type, including the header, or -1 if the type has no fixed
+     * layout
+     */
+    static int bodySize(SAVPPMessage.MessageType type) {
+        switch(type) {
+            case SEEK_COMMAND:
+                return HEADER_SIZE + 16;
+            case PLAY_COMMAND:
+                return HEADER_SIZE + 12;
+            case PING:
+            case PONG:
+                return HEADER_SIZE + 4;
+            case CLOCK_PROBE:
+                return HEADER_SIZE + 8;
+            case CLOCK_PROBE_REPLY:
+                return HEADER_SIZE + 24;
+            case POSITION_REPORT:
+            case RATE_ADJUSTMENT:
+                return HEADER_SIZE + 12;
+            default:
+                return -1;
+        }
+    }
+
+    private static void writeHeader(ByteBuffer out, SAVPPMessage.MessageType type) {
+        // Every body is shorter than 128 bytes, so its length fits in a one-byte varint
+        out.put((byte) bodySize(type));
+        out.put(MARKER);
+        out.put((byte) type.getNumber());
+    }
+}
@@ -0,0 +1,169 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * An immutable, already-serialized, length-delimited {@link SAVPPMessage}. Encoding a message once into a frame lets
+ * the same bytes be written to any number of guests. Frames for the high-frequency messages are encoded in the
+ * {@link FixedLayoutCodec fixed layout} as well, for guests that negotiated it.
+ */
+final class Frame {
+    private static final ThreadLocal<ByteBuffer> scratchBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE));
+    private static final ThreadLocal<DecodedMessage> scratchMessage = ThreadLocal.withInitial(DecodedMessage::new);
+
+    private final byte[] bytes;
+    private final SAVPPMessage.MessageType type;
+    // Encoded the first time a guest that negotiated the fixed layout needs it
+    private volatile Frame fixedLayout;
+
+    private Frame(byte[] bytes, SAVPPMessage.MessageType type) {
+        this.bytes = bytes;
+        this.type = type;
+    }
+
+    static Frame of(SAVPPMessage message) {
+        return new Frame(DelimitedFraming.encode(message).array(), message.getType());
+    }
+
+    static Frame seek(int timestamp, int delay, long hostTime) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writeSeek(buffer, timestamp, delay, hostTime);
+        return fromScratch(buffer, SAVPPMessage.MessageType.SEEK_COMMAND);
+    }
+
+    static Frame seek(int timestamp, int delay) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writeSeek(buffer, timestamp, delay);
+        return fromScratch(buffer, SAVPPMessage.MessageType.SEEK_COMMAND);
+    }
+
+    static Frame play(int delay, long hostTime) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writePlay(buffer, delay, hostTime);
+        return fromScratch(buffer, SAVPPMessage.MessageType.PLAY_COMMAND);
+    }
+
+    static Frame play(int delay) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writePlay(buffer, delay);
+        return fromScratch(buffer, SAVPPMessage.MessageType.PLAY_COMMAND);
+    }
+
+    static Frame ping(int sequence) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writePing(buffer, sequence);
+        return fromScratch(buffer, SAVPPMessage.MessageType.PING);
+    }
+
+    static Frame clockProbeReply(long originateTime, long receiveTime, long transmitTime) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writeClockProbeReply(buffer, originateTime, receiveTime, transmitTime);
+        return fromScratch(buffer, SAVPPMessage.MessageType.CLOCK_PROBE_REPLY);
+    }
+
+    static Frame rateAdjustment(double rate, int duration) {
+        ByteBuffer buffer = scratch();
+        MessageCodec.writeRateAdjustment(buffer, rate, duration);
+        return fromScratch(buffer, SAVPPMessage.MessageType.RATE_ADJUSTMENT);
+    }
+
+    private static ByteBuffer scratch() {
+        ByteBuffer buffer = scratchBuffer.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    private static Frame fromScratch(ByteBuffer buffer, SAVPPMessage.MessageType type) {
+        return new Frame(Arrays.copyOf(buffer.array(), buffer.position()), type);
+    }
+
+    SAVPPMessage.MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return The same message in the fixed layout, or this frame if the message doesn't have one. Only for guests
+     * that negotiated it. Frames are shared between connections, so the fixed layout is encoded at most once per
+     * frame, and not at all if no guest negotiated it.
+     */
+    Frame inFixedLayout() {
+        Frame fixed = fixedLayout;
+        if(fixed == null) {
+            // Two connections may race to encode it; either result is the same
+            fixed = encodeFixedLayout();
+            fixedLayout = fixed;
+        }
+        return fixed;
+    }
+
+    private Frame encodeFixedLayout() {
+        if(FixedLayoutCodec.bodySize(type) < 0) {
+            return this;
+        }
+        int lengthPrefixSize = 1;
+        while(bytes[lengthPrefixSize - 1] < 0) {
+            lengthPrefixSize++;
+        }
+        DecodedMessage message = scratchMessage.get();
+        try {
+            message.decode(ByteBuffer.wrap(bytes), lengthPrefixSize, bytes.length - lengthPrefixSize);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("A frame we encoded should always decode", e);
+        }
+        ByteBuffer buffer = scratch();
+        // Messages the fast path couldn't read are left as they are
+        if(message.getMessage() != null || !FixedLayoutCodec.write(buffer, message)) {
+            return this;
+        }
+        Frame fixed = fromScratch(buffer, type);
+        fixed.fixedLayout = fixed;
+        return fixed;
+    }
+
+    int size() {
+        return bytes.length;
+    }
+
+    /**
+     * @return A new read-only view of the frame, positioned at its first byte. Each writer needs its own view.
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    void writeTo(OutputStream stream) throws IOException {
+        stream.write(bytes);
+    }
+}
@@ -0,0 +1,282 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Runs tasks after a delay, for timers that are usually cancelled before they fire and that don't need to be
+ * precise, such as handshake deadlines and idle timeouts. Timeouts are hashed into a ring of buckets by their
+ * deadline, one bucket per tick, so scheduling and cancelling take constant time however many timeouts are pending.
+ * A single thread advances the wheel once per tick and runs the tasks that have expired, so tasks should only hand
+ * work off or close something.
+ * <p>
+ * Tasks run up to one tick late. The thread is started by the first {@link #schedule(Runnable, long, TimeUnit)}.
+ */
+class HashedWheelTimer {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int INIT = 0;
+    private static final int STARTED = 1;
+    private static final int STOPPED = 2;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger state = new AtomicInteger(INIT);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private volatile Thread worker;
+
+    /** The number of ticks the wheel has advanced. Only used by the worker thread. */
+    private long tick = 0;
+
+    /**
+     * @param name The name of the timer's thread
+     * @param tickMillis How often the wheel advances, which is also how late a task may run
+     * @param wheelSize The number of buckets, rounded up to a power of two. Timeouts further away than one turn of
+     *                  the wheel wait in their bucket for the remaining turns.
+     */
+    HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        if(tickMillis < 1 || wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid tick duration or wheel size");
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(wheelSize);
+        if(size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for(int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+    }
+
+    HashedWheelTimer(String name) {
+        this(name, SAVPPValues.TIMER_TICK_MILLIS, SAVPPValues.TIMER_WHEEL_SIZE);
+    }
+
+    /**
+     * @throws IllegalStateException If the timer has been stopped
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(Math.max(delay, 0)));
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return The number of timeouts that have neither fired nor been cancelled
+     */
+    int pendingTimeouts() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the timer's thread. Timeouts that haven't fired never will.
+     */
+    void stop() {
+        if(state.getAndSet(STOPPED) == STARTED) {
+            Thread thread = worker;
+            if(thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private void start() {
+        int current = state.get();
+        if(current == STARTED) {
+            return;
+        }
+        if(current == STOPPED) {
+            throw new IllegalStateException("The timer has been stopped");
+        }
+        if(state.compareAndSet(INIT, STARTED)) {
+            Thread thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        } else if(state.get() == STOPPED) {
+            throw new IllegalStateException("The timer has been stopped");
+        }
+    }
+
+    private void run() {
+        try {
+            while(state.get() == STARTED) {
+                long sleepNanos = tickNanos * (tick + 1) - (System.nanoTime() - startNanos);
+                if(sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    continue;
+                }
+                removeCancelled();
+                transferScheduled();
+                wheel[(int) (tick & mask)].expire();
+                tick++;
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+        logger.debug("Timer " + name + " stopped");
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while((timeout = cancelled.poll()) != null) {
+            if(timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Moves newly scheduled timeouts into their buckets. A timeout whose deadline has already passed goes into the
+     * current bucket, so it fires on this tick.
+     */
+    private void transferScheduled() {
+        Timeout timeout;
+        while((timeout = scheduled.poll()) != null) {
+            if(timeout.state.get() != Timeout.WAITING) {
+                continue;
+            }
+            long deadlineTick = Math.max(timeout.deadlineNanos / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        /** Relative to when the timer was created */
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        // Only used by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout previous;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return Whether the task was stopped from running. False if it has already run or been cancelled.
+         */
+        boolean cancel() {
+            if(!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if(!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Timer task threw an exception", e);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, so that a cancelled one can be unlinked without searching
+     */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if(head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while(timeout != null) {
+                Timeout next = timeout.next;
+                if(timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if(timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else if(head == timeout) {
+                head = timeout.next;
+            }
+            if(timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else if(tail == timeout) {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Records the distribution of non-negative values, such as latencies in nanoseconds, without locking or allocating,
+ * so that it can stay on in production.
+ * <p>
+ * Values are counted in log-linear buckets like an HdrHistogram: each power of two is split into 32 buckets, so a
+ * reported percentile is within about 3% of the true value, from zero up to {@link Long#MAX_VALUE}, in a fixed
+ * 15 KB. Reads are not a consistent snapshot while values are being recorded, which is fine for monitoring.
+ */
+public final class Histogram implements HistogramMXBean {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * @param value The value to record. Negative values, which a clock going backwards can produce, count as 0.
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            //Another thread raised the maximum; try again against the new one
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    @Override
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The highest value in the bucket that holds the given percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if(count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if(seen >= target) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getPercentile50() {
+        return getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getPercentile90() {
+        return getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getPercentile99() {
+        return getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getPercentile999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestValueAt(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowestValueAt(index + 1) - 1;
+    }
+}
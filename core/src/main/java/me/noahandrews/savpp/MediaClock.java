@@ -0,0 +1,53 @@
+package me.noahandrews.savpp;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The host's clock as seen from a guest. Host times are the host's {@link System#nanoTime()}, and local times are
+ * the guest's, so a command that says "at host time T, be at position P" can be turned into a local deadline.
+ */
+public interface MediaClock {
+    /**
+     * @return Whether enough clock probes have completed for the other methods to be meaningful
+     */
+    boolean isSynchronized();
+
+    /**
+     * @return The current time on the host's clock, in nanoseconds
+     */
+    long hostTimeNanos();
+
+    /**
+     * @param hostNanos A time on the host's clock
+     * @return The same instant on this machine's {@link System#nanoTime()} clock
+     */
+    long toLocalNanos(long hostNanos);
+
+    /**
+     * @param localNanos A time on this machine's {@link System#nanoTime()} clock
+     * @return The same instant on the host's clock
+     */
+    long toHostNanos(long localNanos);
+}
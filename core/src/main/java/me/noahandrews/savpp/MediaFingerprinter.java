@@ -0,0 +1,256 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Computes the MD5 hashes that {@link MediaSynchronizer}s identify media files by.
+ * <p>
+ * Files are hashed through memory-mapped regions, so large files are never copied into the Java heap. Results are
+ * cached on disk and keyed by the file's path, size, modification time and, where the platform has one, its inode,
+ * so a file that has not changed since the last session is not hashed again.
+ * <p>
+ * For very large files, {@link #sampledMd5(Path)} is a much cheaper alternative that only reads a fixed number of
+ * chunks, at the cost of not noticing edits that fall between them.
+ */
+public class MediaFingerprinter {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final long REGION_SIZE = 64 * 1024 * 1024;
+    static final int SAMPLE_COUNT = 16;
+    static final int SAMPLE_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path cacheFile;
+    private Properties cache;
+
+    /**
+     * Creates a fingerprinter that caches hashes in {@code .savpp/fingerprints.properties} in the user's home
+     * directory
+     */
+    public MediaFingerprinter() {
+        this(Paths.get(System.getProperty("user.home"), ".savpp", "fingerprints.properties"));
+    }
+
+    /**
+     * @param cacheFile Where to keep cached hashes, or null to disable caching
+     */
+    public MediaFingerprinter(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return The file's MD5 hash as 32 lowercase hex digits
+     */
+    public String md5(Path file) throws IOException {
+        return md5(file, null);
+    }
+
+    /**
+     * @param progressListener Told about progress while the file is being hashed. Not called when the hash comes from
+     *                         the cache.
+     * @return The file's MD5 hash as 32 lowercase hex digits
+     */
+    public String md5(Path file, ProgressListener progressListener) throws IOException {
+        Path realPath = file.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        String cacheKey = realPath.toString();
+        String fileVersion = attributes.size() + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.fileKey();
+
+        String cached = lookUp(cacheKey, fileVersion);
+        if(cached != null) {
+            logger.debug("Using cached hash for " + realPath);
+            return cached;
+        }
+
+        String hash = hash(realPath, attributes.size(), progressListener);
+        store(cacheKey, fileVersion, hash);
+        return hash;
+    }
+
+    /**
+     * Computes the {@link SAVPPProto.FingerprintType#SAMPLED_MD5} fingerprint: the MD5 hash of the file's size as
+     * 8 big-endian bytes, followed by {@value #SAMPLE_COUNT} chunks of {@value #SAMPLE_SIZE} bytes taken at evenly
+     * spaced offsets from the start to the end of the file. Files too small to sample are hashed in full after their
+     * size. The chunks are read in parallel, so this takes about the same time for any file size.
+     * @return The fingerprint as 32 lowercase hex digits
+     */
+    public String sampledMd5(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<CompletableFuture<ByteBuffer>> chunks = new ArrayList<>(SAMPLE_COUNT);
+            if(size <= (long) SAMPLE_COUNT * SAMPLE_SIZE) {
+                chunks.add(readChunkAsync(channel, 0, (int) size));
+            } else {
+                long stride = (size - SAMPLE_SIZE) / (SAMPLE_COUNT - 1);
+                for(int i = 0; i < SAMPLE_COUNT; i++) {
+                    long offset = i == SAMPLE_COUNT - 1 ? size - SAMPLE_SIZE : i * stride;
+                    chunks.add(readChunkAsync(channel, offset, SAMPLE_SIZE));
+                }
+            }
+
+            MessageDigest digest = newMd5Digest();
+            digest.update(ByteBuffer.allocate(8).putLong(0, size));
+            for(CompletableFuture<ByteBuffer> chunk : chunks) {
+                digest.update(chunk.join());
+            }
+            return toHex(digest.digest());
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static CompletableFuture<ByteBuffer> readChunkAsync(FileChannel channel, long offset, int length) {
+        return CompletableFuture.supplyAsync(() -> {
+            ByteBuffer chunk = ByteBuffer.allocate(length);
+            try {
+                while(chunk.hasRemaining()) {
+                    if(channel.read(chunk, offset + chunk.position()) < 0) {
+                        throw new IOException("File shrank while it was being fingerprinted");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunk.flip();
+            return chunk;
+        });
+    }
+
+    private static MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java platform is required to support MD5", e);
+        }
+    }
+
+    private static String hash(Path file, long size, ProgressListener progressListener) throws IOException {
+        MessageDigest digest = newMd5Digest();
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while(position < size) {
+                long regionSize = Math.min(REGION_SIZE, size - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+                digest.update(region);
+                position += regionSize;
+                if(progressListener != null) {
+                    progressListener.progress(position, size);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private synchronized String lookUp(String cacheKey, String fileVersion) {
+        if(cacheFile == null) {
+            return null;
+        }
+        String entry = loadCache().getProperty(cacheKey);
+        if(entry == null || !entry.startsWith(fileVersion + "|")) {
+            return null;
+        }
+        String hash = entry.substring(fileVersion.length() + 1);
+        return MD5Checker.isHashValid(hash) ? hash : null;
+    }
+
+    private synchronized void store(String cacheKey, String fileVersion, String hash) {
+        if(cacheFile == null) {
+            return;
+        }
+        Properties properties = loadCache();
+        properties.setProperty(cacheKey, fileVersion + "|" + hash);
+        try {
+            Path directory = cacheFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporaryFile = Files.createTempFile(directory, "fingerprints", ".tmp");
+            boolean moved = false;
+            try {
+                try(OutputStream stream = Files.newOutputStream(temporaryFile)) {
+                    properties.store(stream, "SAVPP media fingerprint cache");
+                }
+                Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                moved = true;
+            } finally {
+                if(!moved) {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not write fingerprint cache: " + e.getMessage());
+        }
+    }
+
+    private Properties loadCache() {
+        if(cache != null) {
+            return cache;
+        }
+        cache = new Properties();
+        if(Files.exists(cacheFile)) {
+            try(InputStream stream = Files.newInputStream(cacheFile)) {
+                cache.load(stream);
+            } catch (IOException e) {
+                logger.debug("Could not read fingerprint cache: " + e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    public interface ProgressListener {
+        void progress(long bytesHashed, long totalBytes);
+    }
+}
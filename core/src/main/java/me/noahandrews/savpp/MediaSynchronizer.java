@@ -1,6 +1,7 @@
 package me.noahandrews.savpp;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -28,5 +29,9 @@ import java.util.concurrent.ExecutionException;
  */
 
 public interface MediaSynchronizer {
-    void tearDown() throws ExecutionException, InterruptedException, IOException;
+    /**
+     * Closes every connection and stops every thread. Calling it again returns the same future.
+     * @return A future that completes once everything has stopped
+     */
+    CompletableFuture<Void> tearDown() throws ExecutionException, InterruptedException, IOException;
 }
@@ -0,0 +1,184 @@
+package me.noahandrews.savpp;
+
+import java.nio.ByteBuffer;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Writes the high-frequency messages straight from primitives into a caller-owned buffer, without going through
+ * protobuf builders. The output is byte-for-byte what {@link SAVPPMessage#writeDelimitedTo(java.io.OutputStream)}
+ * produces for the equivalent message, so peers cannot tell the difference. {@link DecodedMessage} is the matching
+ * decoder.
+ * <p>
+ * Every method writes one complete length-delimited frame at the buffer's position and throws
+ * {@link java.nio.BufferOverflowException} if it does not fit. {@link #MAX_FAST_PATH_FRAME_SIZE} bytes is always
+ * enough.
+ */
+final class MessageCodec {
+    static final int MAX_FAST_PATH_FRAME_SIZE = 64;
+
+    static final int WIRETYPE_VARINT = 0;
+    static final int WIRETYPE_FIXED64 = 1;
+    static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    static final int MESSAGE_TYPE_FIELD = 1;
+    static final int SEEK_COMMAND_FIELD = 4;
+    static final int PING_FIELD = 5;
+    static final int PONG_FIELD = 6;
+    static final int PLAY_COMMAND_FIELD = 7;
+    static final int CLOCK_PROBE_FIELD = 8;
+    static final int POSITION_REPORT_FIELD = 10;
+    static final int RATE_ADJUSTMENT_FIELD = 11;
+
+    private MessageCodec() {}
+
+    static void writeSeek(ByteBuffer out, int timestamp, int delay, long hostTime) {
+        int bodySize = fieldSize(1, timestamp) + fieldSize(2, delay) + fieldSize(3, hostTime);
+        writeHeader(out, SAVPPMessage.MessageType.SEEK_COMMAND, SEEK_COMMAND_FIELD, bodySize);
+        writeField(out, 1, timestamp);
+        writeField(out, 2, delay);
+        writeField(out, 3, hostTime);
+    }
+
+    /**
+     * Writes a seek without a host time, for commands that only concern one guest and so are timed by their delay
+     */
+    static void writeSeek(ByteBuffer out, int timestamp, int delay) {
+        int bodySize = fieldSize(1, timestamp) + fieldSize(2, delay);
+        writeHeader(out, SAVPPMessage.MessageType.SEEK_COMMAND, SEEK_COMMAND_FIELD, bodySize);
+        writeField(out, 1, timestamp);
+        writeField(out, 2, delay);
+    }
+
+    static void writePlay(ByteBuffer out, int delay, long hostTime) {
+        int bodySize = fieldSize(1, delay) + fieldSize(2, hostTime);
+        writeHeader(out, SAVPPMessage.MessageType.PLAY_COMMAND, PLAY_COMMAND_FIELD, bodySize);
+        writeField(out, 1, delay);
+        writeField(out, 2, hostTime);
+    }
+
+    /**
+     * Writes a play without a host time, for commands that only concern one guest and so are timed by their delay
+     */
+    static void writePlay(ByteBuffer out, int delay) {
+        writeHeader(out, SAVPPMessage.MessageType.PLAY_COMMAND, PLAY_COMMAND_FIELD, fieldSize(1, delay));
+        writeField(out, 1, delay);
+    }
+
+    static void writePing(ByteBuffer out, int sequence) {
+        writeHeader(out, SAVPPMessage.MessageType.PING, PING_FIELD, fieldSize(1, sequence));
+        writeField(out, 1, sequence);
+    }
+
+    static void writePong(ByteBuffer out, int sequence) {
+        writeHeader(out, SAVPPMessage.MessageType.PONG, PONG_FIELD, fieldSize(1, sequence));
+        writeField(out, 1, sequence);
+    }
+
+    static void writeClockProbe(ByteBuffer out, long originateTime) {
+        writeHeader(out, SAVPPMessage.MessageType.CLOCK_PROBE, CLOCK_PROBE_FIELD, fieldSize(1, originateTime));
+        writeField(out, 1, originateTime);
+    }
+
+    static void writeClockProbeReply(ByteBuffer out, long originateTime, long receiveTime, long transmitTime) {
+        int bodySize = fieldSize(1, originateTime) + fieldSize(2, receiveTime) + fieldSize(3, transmitTime);
+        writeHeader(out, SAVPPMessage.MessageType.CLOCK_PROBE_REPLY, CLOCK_PROBE_FIELD, bodySize);
+        writeField(out, 1, originateTime);
+        writeField(out, 2, receiveTime);
+        writeField(out, 3, transmitTime);
+    }
+
+    static void writePositionReport(ByteBuffer out, int position, long hostTime) {
+        int bodySize = fieldSize(1, position) + fieldSize(2, hostTime);
+        writeHeader(out, SAVPPMessage.MessageType.POSITION_REPORT, POSITION_REPORT_FIELD, bodySize);
+        writeField(out, 1, position);
+        writeField(out, 2, hostTime);
+    }
+
+    static void writeRateAdjustment(ByteBuffer out, double rate, int duration) {
+        int bodySize = tagSize(1) + 8 + fieldSize(2, duration);
+        writeHeader(out, SAVPPMessage.MessageType.RATE_ADJUSTMENT, RATE_ADJUSTMENT_FIELD, bodySize);
+        writeVarint(out, tag(1, WIRETYPE_FIXED64));
+        writeFixed64(out, Double.doubleToRawLongBits(rate));
+        writeField(out, 2, duration);
+    }
+
+    private static void writeHeader(ByteBuffer out, SAVPPMessage.MessageType type, int bodyField, int bodySize) {
+        int messageSize = fieldSize(MESSAGE_TYPE_FIELD, type.getNumber())
+                + tagSize(bodyField) + varintSize(bodySize) + bodySize;
+        writeVarint(out, messageSize);
+        writeField(out, MESSAGE_TYPE_FIELD, type.getNumber());
+        writeVarint(out, tag(bodyField, WIRETYPE_LENGTH_DELIMITED));
+        writeVarint(out, bodySize);
+    }
+
+    private static void writeField(ByteBuffer out, int field, long value) {
+        writeVarint(out, tag(field, WIRETYPE_VARINT));
+        writeVarint(out, value);
+    }
+
+    /**
+     * Protobuf writes fixed-width fields little-endian, whatever the buffer's byte order
+     */
+    private static void writeFixed64(ByteBuffer out, long value) {
+        for(int i = 0; i < 8; i++) {
+            out.put((byte) (value >>> (8 * i)));
+        }
+    }
+
+    /**
+     * Protobuf sign-extends negative int32s to 64 bits, which the {@code int} to {@code long} widening does for us.
+     */
+    static void writeVarint(ByteBuffer out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int fieldSize(int field, long value) {
+        return tagSize(field) + varintSize(value);
+    }
+
+    private static int tagSize(int field) {
+        return varintSize(tag(field, 0));
+    }
+
+    static int tag(int field, int wireType) {
+        return (field << 3) | wireType;
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
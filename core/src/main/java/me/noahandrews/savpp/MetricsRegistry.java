@@ -0,0 +1,152 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The metrics of one server. Look metrics up once and keep the returned object; recording on it is lock-free.
+ */
+public class MetricsRegistry {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    private String jmxDomain;
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : create(counters, "Counter", name, Counter::new);
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : create(histograms, "Histogram", name, Histogram::new);
+    }
+
+    /**
+     * @param value Called whenever the gauge is read or exported, from any thread
+     */
+    public void gauge(String name, LongSupplier value) {
+        create(gauges, "Gauge", name, () -> new Gauge(value));
+    }
+
+    public void exportTo(MetricsExporter exporter) {
+        for(Map.Entry<String, Counter> counter: counters.entrySet()) {
+            exporter.exportCounter(counter.getKey(), counter.getValue().getCount());
+        }
+        for(Map.Entry<String, Gauge> gauge: gauges.entrySet()) {
+            exporter.exportGauge(gauge.getKey(), gauge.getValue().getValue());
+        }
+        for(Map.Entry<String, Histogram> histogram: histograms.entrySet()) {
+            exporter.exportHistogram(histogram.getKey(), histogram.getValue());
+        }
+    }
+
+    /**
+     * Registers every metric, including ones added later, with the platform MBean server as
+     * {@code <domain>:type=<Counter|Gauge|Histogram>,name=<name>}
+     * @param domain The object name domain, which must be unique among the registries in this JVM
+     */
+    public synchronized void registerMBeans(String domain) throws JMException {
+        if(jmxDomain != null) {
+            throw new IllegalStateException("The metrics are already registered as " + jmxDomain);
+        }
+        jmxDomain = domain;
+        for(Map.Entry<String, Counter> counter: counters.entrySet()) {
+            register("Counter", counter.getKey(), counter.getValue());
+        }
+        for(Map.Entry<String, Gauge> gauge: gauges.entrySet()) {
+            register("Gauge", gauge.getKey(), gauge.getValue());
+        }
+        for(Map.Entry<String, Histogram> histogram: histograms.entrySet()) {
+            register("Histogram", histogram.getKey(), histogram.getValue());
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName name: registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.debug("Failed to unregister " + name + ": " + e.getMessage());
+            }
+        }
+        registeredNames.clear();
+        jmxDomain = null;
+    }
+
+    private synchronized <T> T create(Map<String, T> metrics, String type, String name, Supplier<T> factory) {
+        T metric = metrics.get(name);
+        if(metric != null) {
+            return metric;
+        }
+        metric = factory.get();
+        metrics.put(name, metric);
+        if(jmxDomain != null) {
+            try {
+                register(type, name, metric);
+            } catch (JMException e) {
+                logger.debug("Failed to register " + name + ": " + e.getMessage());
+            }
+        }
+        return metric;
+    }
+
+    private void register(String type, String name, Object metric) throws JMException {
+        ObjectName objectName = new ObjectName(jmxDomain + ":type=" + type + ",name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metric, objectName);
+        registeredNames.add(objectName);
+    }
+
+    private static final class Gauge implements GaugeMXBean {
+        private final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getValue() {
+            return value.getAsLong();
+        }
+    }
+}
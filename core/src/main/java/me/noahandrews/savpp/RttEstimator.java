@@ -0,0 +1,74 @@
+package me.noahandrews.savpp;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Smoothed round trip time and jitter for one peer, using the same weights as TCP's retransmission timer
+ * (RFC 6298): the average moves 1/8 of the way toward each sample and the mean deviation 1/4 of the way.
+ */
+class RttEstimator {
+    private long smoothedRttNanos = -1;
+    private long rttVariationNanos = 0;
+
+    synchronized void addSample(long rttNanos) {
+        if(rttNanos < 0) {
+            return;
+        }
+        if(smoothedRttNanos < 0) {
+            smoothedRttNanos = rttNanos;
+            rttVariationNanos = rttNanos / 2;
+            return;
+        }
+        long error = rttNanos - smoothedRttNanos;
+        smoothedRttNanos += error >> 3;
+        rttVariationNanos += (Math.abs(error) - rttVariationNanos) >> 2;
+    }
+
+    synchronized boolean hasSamples() {
+        return smoothedRttNanos >= 0;
+    }
+
+    synchronized long getSmoothedRttNanos() {
+        return Math.max(smoothedRttNanos, 0);
+    }
+
+    synchronized long getRttVariationNanos() {
+        return rttVariationNanos;
+    }
+
+    /**
+     * @return The expected time for a message to reach the peer
+     */
+    synchronized long getOneWayDelayNanos() {
+        return getSmoothedRttNanos() / 2;
+    }
+
+    /**
+     * @return A pessimistic one-way delay that a message will rarely exceed
+     */
+    synchronized long getLatestArrivalNanos() {
+        return getOneWayDelayNanos() + rttVariationNanos;
+    }
+}
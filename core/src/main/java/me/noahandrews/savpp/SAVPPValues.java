@@ -26,4 +26,29 @@ package me.noahandrews.savpp;
 
 class SAVPPValues {
     static final int PORT_NUMBER = 4440;
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+    static final long PING_INTERVAL_MILLIS = 1000;
+    static final long CLOCK_PROBE_INTERVAL_MILLIS = 1000;
+    static final long SEEK_COALESCING_WINDOW_MILLIS = 100;
+    static final int MAX_SEEKS_PER_SECOND = 10;
+    static final long RESUME_GRACE_PERIOD_MILLIS = 30000;
+    static final long RECONNECT_INITIAL_BACKOFF_MILLIS = 100;
+    static final long RECONNECT_MAX_BACKOFF_MILLIS = 5000;
+    static final int RECONNECT_MAX_ATTEMPTS = 10;
+    static final long POSITION_REPORT_INTERVAL_MILLIS = 1000;
+    static final int DRIFT_TOLERANCE_MILLIS = 20;
+    static final int DRIFT_SEEK_THRESHOLD_MILLIS = 500;
+    static final double MAX_RATE_ADJUSTMENT = 0.02;
+    static final long SIDE_CHANNEL_HELLO_INTERVAL_MILLIS = 200;
+    static final int SIDE_CHANNEL_HELLO_ATTEMPTS = 10;
+    static final long MULTICAST_HEARTBEAT_INTERVAL_MILLIS = 500;
+    static final int MULTICAST_HISTORY_SIZE = 256;
+    static final long SHUTDOWN_DRAIN_TIMEOUT_MILLIS = 2000;
+    static final long SHUTDOWN_JOIN_TIMEOUT_MILLIS = 3000;
+    static final long TIMER_TICK_MILLIS = 50;
+    static final int TIMER_WHEEL_SIZE = 512;
+    static final long HANDSHAKE_TIMEOUT_MILLIS = 10000;
+    static final long IDLE_TIMEOUT_MILLIS = 30000;
+    static final int WRITE_BATCH_MAX_BYTES = 16 * 1024;
+    static final int WRITE_BATCH_MAX_FRAMES = 64;
 }
@@ -0,0 +1,105 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Collapses a burst of seeks, such as a user dragging across the timeline, into as few as possible. The first seek
+ * after a quiet period goes out immediately. Seeks that arrive within the window after a send only replace each
+ * other, and the latest is sent when the window closes. A token bucket caps the sustained rate on top of that.
+ */
+class SeekCoalescer {
+    private final long windowNanos;
+    private final TokenBucket tokenBucket;
+    private final ScheduledExecutorService scheduler;
+    private final IntConsumer sender;
+
+    private boolean hasPendingSeek = false;
+    private int pendingTimestamp;
+    private boolean flushScheduled = false;
+    private long lastSentNanos;
+    private boolean hasSent = false;
+
+    /**
+     * @param windowMillis The minimum time between two sends
+     * @param seeksPerSecond The sustained rate allowed by the token bucket; bursts of up to that many pass through
+     * @param scheduler Runs the deferred sends
+     * @param sender Sends a seek. Called while holding this coalescer's lock, so sends are never reordered.
+     */
+    SeekCoalescer(long windowMillis, int seeksPerSecond, ScheduledExecutorService scheduler, IntConsumer sender) {
+        checkSettings(windowMillis, seeksPerSecond);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.tokenBucket = new TokenBucket(seeksPerSecond, seeksPerSecond);
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    /**
+     * Rejects settings that would make a coalescer useless, so that the setters which store them for later fail
+     * straight away
+     */
+    static void checkSettings(long windowMillis, int seeksPerSecond) {
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("The seek coalescing window can't be negative");
+        }
+        if(seeksPerSecond <= 0) {
+            throw new IllegalArgumentException("The seek rate must be positive");
+        }
+    }
+
+    synchronized void submit(int timestamp) {
+        pendingTimestamp = timestamp;
+        hasPendingSeek = true;
+        if(!flushScheduled) {
+            flush();
+        }
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if(!hasPendingSeek) {
+            return;
+        }
+        long waitNanos = Math.max(tokenBucket.nanosUntilAvailable(),
+                hasSent ? lastSentNanos + windowNanos - System.nanoTime() : 0);
+        if(waitNanos > 0 || !tokenBucket.tryAcquire()) {
+            try {
+                scheduler.schedule(this::flush, Math.max(waitNanos, 1), TimeUnit.NANOSECONDS);
+                flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                hasPendingSeek = false; //Shutting down
+            }
+            return;
+        }
+        hasPendingSeek = false;
+        hasSent = true;
+        lastSentNanos = System.nanoTime();
+        sender.accept(pendingTimestamp);
+    }
+}
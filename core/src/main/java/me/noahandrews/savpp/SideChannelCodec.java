@@ -0,0 +1,123 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.nio.ByteBuffer;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Lays out side channel and multicast datagrams: the channel's key and a sequence number, followed by one delimited
+ * frame
+ */
+final class SideChannelCodec {
+    static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    static final int MAX_DATAGRAM_SIZE = 512;
+
+    private SideChannelCodec() {
+    }
+
+    /**
+     * Writes the header at the buffer's position. A frame written by {@link MessageCodec} can follow directly.
+     */
+    static void writeHeader(ByteBuffer out, long key, int sequence) {
+        out.putLong(key);
+        out.putInt(sequence);
+    }
+
+    /**
+     * @return A datagram in read mode
+     */
+    static ByteBuffer encode(long key, int sequence, Frame frame) {
+        ByteBuffer frameBytes = frame.buffer();
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + frameBytes.remaining());
+        writeHeader(datagram, key, sequence);
+        datagram.put(frameBytes);
+        datagram.flip();
+        return datagram;
+    }
+
+    static ByteBuffer encode(long key, int sequence, SAVPPMessage message) {
+        return encode(key, sequence, Frame.of(message));
+    }
+
+    /**
+     * @param datagram A received datagram in read mode, at least {@link #HEADER_SIZE} bytes long
+     */
+    static long readKey(ByteBuffer datagram) {
+        return datagram.getLong(datagram.position());
+    }
+
+    static int readSequence(ByteBuffer datagram) {
+        return datagram.getInt(datagram.position() + Long.BYTES);
+    }
+
+    /**
+     * Decodes the frame that follows the header
+     */
+    static void decode(ByteBuffer datagram, DecodedMessage into) throws InvalidProtocolBufferException {
+        decodeFrame(datagram, datagram.position() + HEADER_SIZE, into);
+    }
+
+    /**
+     * @return Whether the datagram is only a header, like a multicast heartbeat
+     */
+    static boolean isEmpty(ByteBuffer datagram) {
+        return datagram.remaining() == HEADER_SIZE;
+    }
+
+    /**
+     * Decodes a delimited frame that starts at the given position
+     */
+    static void decodeFrame(ByteBuffer buffer, int position, DecodedMessage into) throws InvalidProtocolBufferException {
+        int length = 0;
+        int shift = 0;
+        while(true) {
+            if(position >= buffer.limit() || shift > 28) {
+                throw new InvalidProtocolBufferException("Malformed side channel datagram");
+            }
+            byte b = buffer.get(position++);
+            length |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                break;
+            }
+            shift += 7;
+        }
+        if(length < 0 || position + length > buffer.limit()) {
+            throw new InvalidProtocolBufferException("Truncated side channel datagram");
+        }
+        into.decode(buffer, position, length);
+    }
+
+    /**
+     * @return Whether a datagram with the given sequence number was sent after the latest one received, allowing for
+     * the sequence number wrapping around
+     */
+    static boolean isNewer(int sequence, int latestSequence) {
+        return sequence - latestSequence > 0;
+    }
+}
@@ -0,0 +1,69 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+class TcpTransport implements Transport {
+    private final String host;
+    private final int port;
+
+    /**
+     * @param host Where guests connect to, or null for this machine
+     */
+    TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public ServerSocketChannel openServerChannel() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(port));
+        return channel;
+    }
+
+    @Override
+    public ServerSocket openServerSocket() throws IOException {
+        return new ServerSocket(port);
+    }
+
+    @Override
+    public Socket openSocket() throws IOException {
+        return host == null ? new Socket(InetAddress.getLoopbackAddress(), port) : new Socket(host, port);
+    }
+
+    @Override
+    public String toString() {
+        return "tcp://" + (host == null ? "localhost" : host) + ":" + port;
+    }
+}
@@ -0,0 +1,76 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A classic token bucket: holds up to {@code capacity} tokens and refills continuously at a fixed rate. Each send
+ * spends one token, so sustained sends are limited to the refill rate while short bursts up to the capacity pass
+ * through immediately.
+ */
+class TokenBucket {
+    private final double tokensPerNano;
+    private final int capacity;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double tokensPerSecond, int capacity) {
+        if(tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Token bucket rate and capacity must be positive");
+        }
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    synchronized boolean tryAcquire() {
+        refill();
+        if(tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return How long until {@link #tryAcquire()} will succeed, or 0 if it would succeed now
+     */
+    synchronized long nanosUntilAvailable() {
+        refill();
+        if(tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
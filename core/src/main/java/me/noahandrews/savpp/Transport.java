@@ -0,0 +1,85 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * How the host and its guests reach each other. TCP is the default; hosts and guests on the same machine can use a
+ * Unix domain socket instead, which skips the TCP/IP stack.
+ */
+public interface Transport {
+    /**
+     * @return A bound channel for the NIO server to accept guests on
+     */
+    ServerSocketChannel openServerChannel() throws IOException;
+
+    /**
+     * @return A bound server socket for the blocking server to accept guests on
+     */
+    ServerSocket openServerSocket() throws IOException;
+
+    /**
+     * @return A socket connected to the host
+     */
+    Socket openSocket() throws IOException;
+
+    /**
+     * Listens on every interface, and connects to this machine
+     */
+    static Transport tcp(int port) {
+        return new TcpTransport(null, port);
+    }
+
+    /**
+     * @param host Where guests connect to. The host always listens on every interface.
+     */
+    static Transport tcp(String host, int port) {
+        return new TcpTransport(host, port);
+    }
+
+    /**
+     * A Unix domain socket at the given path. The host replaces a socket file left behind by a host that didn't shut
+     * down cleanly. Requires JDK 16 or newer at runtime.
+     * @throws UnsupportedOperationException If the running JDK does not have Unix domain socket channels
+     */
+    static Transport unixDomain(Path path) {
+        if(!isUnixDomainSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets require JDK 16 or newer");
+        }
+        return new UnixDomainTransport(path);
+    }
+
+    /**
+     * @return Whether {@link #unixDomain(Path)} can be used on the running JDK
+     */
+    static boolean isUnixDomainSupported() {
+        return UnixDomainTransport.isSupported();
+    }
+}
@@ -0,0 +1,128 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A Unix domain socket, opened through reflection because the API only exists on JDK 16 and newer. The channels it
+ * opens have no socket adaptors, so the blocking server and the client use them through {@link ChannelServerSocket}
+ * and {@link ChannelSocket}.
+ */
+class UnixDomainTransport implements Transport {
+    private static final ProtocolFamily UNIX = findUnixFamily();
+    private static final Method ADDRESS_FACTORY = findMethod("java.net.UnixDomainSocketAddress", "of", Path.class);
+    private static final Method OPEN_SERVER_CHANNEL = findMethod("java.nio.channels.ServerSocketChannel", "open", ProtocolFamily.class);
+    private static final Method OPEN_CHANNEL = findMethod("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+
+    private final Path path;
+
+    UnixDomainTransport(Path path) {
+        this.path = path;
+    }
+
+    static boolean isSupported() {
+        return UNIX != null && ADDRESS_FACTORY != null && OPEN_SERVER_CHANNEL != null && OPEN_CHANNEL != null;
+    }
+
+    @Override
+    public ServerSocketChannel openServerChannel() throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, UNIX);
+        try {
+            channel.bind(address());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    @Override
+    public ServerSocket openServerSocket() throws IOException {
+        return new ChannelServerSocket(openServerChannel());
+    }
+
+    @Override
+    public Socket openSocket() throws IOException {
+        SocketChannel channel = (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+        try {
+            channel.connect(address());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ChannelSocket(channel);
+    }
+
+    private SocketAddress address() throws IOException {
+        return (SocketAddress) invoke(ADDRESS_FACTORY, path);
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Could not open a Unix domain socket", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not open a Unix domain socket", e);
+        }
+    }
+
+    private static ProtocolFamily findUnixFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(String className, String name, Class<?> parameterType) {
+        try {
+            return Class.forName(className).getMethod(name, parameterType);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "unix://" + path;
+    }
+}
@@ -0,0 +1,94 @@
+package me.noahandrews.savpp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class HashedWheelTimerTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer("test timer", 10, 8);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void runsTasksAfterTheirDelay() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        long scheduledAt = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = timer.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    public void cancelledTasksNeverRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.pendingTimeouts());
+
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 60, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void timeoutsBeyondOneTurnWaitForTheirRound() throws Exception {
+        // The wheel turns once every 80ms, so these share buckets across several rounds
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch fired = new CountDownLatch(3);
+        timer.schedule(() -> { order.add(250); fired.countDown(); }, 250, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(90); fired.countDown(); }, 90, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(10); fired.countDown(); }, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(10, (int) order.get(0));
+        assertEquals(90, (int) order.get(1));
+        assertEquals(250, (int) order.get(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stoppedTimerRefusesTasks() {
+        timer.stop();
+        timer.schedule(() -> {}, 10, TimeUnit.MILLISECONDS);
+    }
+}
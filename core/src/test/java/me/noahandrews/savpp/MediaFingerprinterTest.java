@@ -0,0 +1,121 @@
+package me.noahandrews.savpp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class MediaFingerprinterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createMediaFile(int size) throws Exception {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents);
+        return file;
+    }
+
+    private static String expectedHash(Path file) throws Exception {
+        return MediaFingerprinter.toHex(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(file)));
+    }
+
+    @Test
+    public void hashMatchesMessageDigest() throws Exception {
+        Path file = createMediaFile(3 * 1024 * 1024 + 17);
+        AtomicLong progress = new AtomicLong();
+        String hash = new MediaFingerprinter(null).md5(file, (hashed, total) -> progress.set(hashed));
+
+        assertEquals(expectedHash(file), hash);
+        assertEquals(Files.size(file), progress.get());
+    }
+
+    @Test
+    public void emptyFileHasTheEmptyHash() throws Exception {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", new MediaFingerprinter(null).md5(createMediaFile(0)));
+    }
+
+    @Test
+    public void unchangedFileComesFromCache() throws Exception {
+        Path cacheFile = folder.getRoot().toPath().resolve("cache").resolve("fingerprints.properties");
+        Path file = createMediaFile(4096);
+        String hash = new MediaFingerprinter(cacheFile).md5(file);
+
+        AtomicLong progressCalls = new AtomicLong();
+        String cachedHash = new MediaFingerprinter(cacheFile).md5(file, (hashed, total) -> progressCalls.incrementAndGet());
+
+        assertEquals(hash, cachedHash);
+        assertEquals(0, progressCalls.get());
+    }
+
+    @Test
+    public void changedFileIsHashedAgain() throws Exception {
+        Path cacheFile = folder.getRoot().toPath().resolve("fingerprints.properties");
+        Path file = createMediaFile(4096);
+        MediaFingerprinter fingerprinter = new MediaFingerprinter(cacheFile);
+        fingerprinter.md5(file);
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertEquals(expectedHash(file), fingerprinter.md5(file));
+    }
+
+    @Test
+    public void sampledHashCoversSizeAndEvenlySpacedChunks() throws Exception {
+        int size = 5 * 1024 * 1024 + 3;
+        Path file = createMediaFile(size);
+        byte[] contents = Files.readAllBytes(file);
+
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(ByteBuffer.allocate(8).putLong(size).array());
+        long stride = (size - MediaFingerprinter.SAMPLE_SIZE) / (MediaFingerprinter.SAMPLE_COUNT - 1);
+        for(int i = 0; i < MediaFingerprinter.SAMPLE_COUNT; i++) {
+            int offset = (int) (i == MediaFingerprinter.SAMPLE_COUNT - 1 ? size - MediaFingerprinter.SAMPLE_SIZE : i * stride);
+            digest.update(contents, offset, MediaFingerprinter.SAMPLE_SIZE);
+        }
+
+        assertEquals(MediaFingerprinter.toHex(digest.digest()), new MediaFingerprinter(null).sampledMd5(file));
+    }
+
+    @Test
+    public void smallFileIsSampledInFull() throws Exception {
+        Path file = createMediaFile(1000);
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(ByteBuffer.allocate(8).putLong(1000).array());
+        digest.update(Files.readAllBytes(file));
+
+        assertEquals(MediaFingerprinter.toHex(digest.digest()), new MediaFingerprinter(null).sampledMd5(file));
+    }
+}
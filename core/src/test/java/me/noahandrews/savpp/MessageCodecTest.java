@@ -0,0 +1,246 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static org.junit.Assert.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class MessageCodecTest {
+    private final ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE);
+
+    private static byte[] protobufBytes(SAVPPMessage message) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        message.writeDelimitedTo(stream);
+        return stream.toByteArray();
+    }
+
+    private byte[] codecBytes() {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static byte[] bytesOf(Frame frame) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        frame.writeTo(stream);
+        return stream.toByteArray();
+    }
+
+    private static DecodedMessage decode(byte[] frame) throws InvalidProtocolBufferException {
+        DelimitedFraming.Decoder decoder = new DelimitedFraming.Decoder(frame.length);
+        decoder.writableBuffer().put(frame);
+        DecodedMessage decoded = new DecodedMessage();
+        assertTrue(decoder.next(decoded));
+        return decoded;
+    }
+
+    @Test
+    public void seekMatchesProtobuf() throws Exception {
+        MessageCodec.writeSeek(buffer, -1, 15, Long.MAX_VALUE);
+        SAVPPMessage expected = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(-1).setDelay(15).setHostTime(Long.MAX_VALUE))
+                .build();
+        assertArrayEquals(protobufBytes(expected), codecBytes());
+
+        DecodedMessage decoded = decode(codecBytes());
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, decoded.getType());
+        assertEquals(-1, decoded.getTimestamp());
+        assertEquals(15, decoded.getDelay());
+        assertEquals(Long.MAX_VALUE, decoded.getHostTime());
+        assertNull(decoded.getMessage());
+    }
+
+    @Test
+    public void commandsWithoutHostTimeMatchProtobuf() throws Exception {
+        MessageCodec.writeSeek(buffer, 4000, 0);
+        assertArrayEquals(protobufBytes(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(4000).setDelay(0))
+                .build()), codecBytes());
+        DecodedMessage seek = decode(codecBytes());
+        assertEquals(4000, seek.getTimestamp());
+        assertFalse(seek.hasHostTime());
+
+        buffer.clear();
+        MessageCodec.writePlay(buffer, 0);
+        assertArrayEquals(protobufBytes(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.PLAY_COMMAND)
+                .setPlayCommand(SAVPPProto.PlayCommand.newBuilder().setDelay(0))
+                .build()), codecBytes());
+        assertFalse(decode(codecBytes()).hasHostTime());
+    }
+
+    @Test
+    public void clockProbeReplyMatchesProtobuf() throws Exception {
+        MessageCodec.writeClockProbeReply(buffer, 1, 2_000_000_000_000L, 3);
+        SAVPPMessage expected = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY)
+                .setClockProbe(SAVPPProto.ClockProbe.newBuilder().setOriginateTime(1).setReceiveTime(2_000_000_000_000L).setTransmitTime(3))
+                .build();
+        assertArrayEquals(protobufBytes(expected), codecBytes());
+
+        DecodedMessage decoded = decode(codecBytes());
+        assertEquals(2_000_000_000_000L, decoded.getReceiveTime());
+    }
+
+    @Test
+    public void pingMatchesProtobuf() throws Exception {
+        MessageCodec.writePing(buffer, 300);
+        SAVPPMessage expected = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.PING)
+                .setPing(SAVPPProto.Ping.newBuilder().setSequence(300))
+                .build();
+        assertArrayEquals(protobufBytes(expected), codecBytes());
+        assertEquals(300, decode(codecBytes()).getSequence());
+    }
+
+    @Test
+    public void positionReportMatchesProtobuf() throws Exception {
+        MessageCodec.writePositionReport(buffer, 5_400_000, 2_000_000_000_000L);
+        SAVPPMessage expected = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.POSITION_REPORT)
+                .setPositionReport(SAVPPProto.PositionReport.newBuilder().setPosition(5_400_000).setHostTime(2_000_000_000_000L))
+                .build();
+        assertArrayEquals(protobufBytes(expected), codecBytes());
+
+        DecodedMessage decoded = decode(codecBytes());
+        assertEquals(5_400_000, decoded.getPosition());
+        assertEquals(2_000_000_000_000L, decoded.getHostTime());
+        assertNull(decoded.getMessage());
+    }
+
+    @Test
+    public void rateAdjustmentMatchesProtobuf() throws Exception {
+        MessageCodec.writeRateAdjustment(buffer, 1.02, 5000);
+        SAVPPMessage expected = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.RATE_ADJUSTMENT)
+                .setRateAdjustment(SAVPPProto.RateAdjustment.newBuilder().setRate(1.02).setDuration(5000))
+                .build();
+        assertArrayEquals(protobufBytes(expected), codecBytes());
+
+        DecodedMessage decoded = decode(codecBytes());
+        assertEquals(1.02, decoded.getRate(), 0);
+        assertEquals(5000, decoded.getDuration());
+        assertNull(decoded.getMessage());
+    }
+
+    @Test
+    public void otherTypesFallBackToProtobuf() throws Exception {
+        SAVPPMessage request = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CONNECTION_REQUEST)
+                .setConnectionRequest(SAVPPProto.ConnectionRequest.newBuilder().setMd5("5a73e7b6df89f85bb34129fcdfd7da12"))
+                .build();
+        DecodedMessage decoded = decode(protobufBytes(request));
+        assertEquals(SAVPPMessage.MessageType.CONNECTION_REQUEST, decoded.getType());
+        assertEquals("5a73e7b6df89f85bb34129fcdfd7da12", decoded.getMessage().getConnectionRequest().getMd5());
+    }
+
+    @Test
+    public void fixedLayoutRoundTrips() throws Exception {
+        FixedLayoutCodec.writeSeek(buffer, -1, 15, Long.MAX_VALUE);
+        DecodedMessage seek = decode(codecBytes());
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, seek.getType());
+        assertEquals(-1, seek.getTimestamp());
+        assertEquals(15, seek.getDelay());
+        assertEquals(Long.MAX_VALUE, seek.getHostTime());
+        assertNull(seek.getMessage());
+
+        buffer.clear();
+        FixedLayoutCodec.writeClockProbeReply(buffer, 1, 2_000_000_000_000L, 3);
+        DecodedMessage reply = decode(codecBytes());
+        assertEquals(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY, reply.getType());
+        assertEquals(1, reply.getOriginateTime());
+        assertEquals(2_000_000_000_000L, reply.getReceiveTime());
+        assertEquals(3, reply.getTransmitTime());
+
+        buffer.clear();
+        FixedLayoutCodec.writePong(buffer, 300);
+        assertEquals(300, decode(codecBytes()).getSequence());
+
+        buffer.clear();
+        FixedLayoutCodec.writePositionReport(buffer, -20, 2_000_000_000_000L);
+        DecodedMessage report = decode(codecBytes());
+        assertEquals(SAVPPMessage.MessageType.POSITION_REPORT, report.getType());
+        assertEquals(-20, report.getPosition());
+        assertEquals(2_000_000_000_000L, report.getHostTime());
+
+        buffer.clear();
+        FixedLayoutCodec.writeRateAdjustment(buffer, 0.98, 5000);
+        DecodedMessage adjustment = decode(codecBytes());
+        assertEquals(SAVPPMessage.MessageType.RATE_ADJUSTMENT, adjustment.getType());
+        assertEquals(0.98, adjustment.getRate(), 0);
+        assertEquals(5000, adjustment.getDuration());
+    }
+
+    @Test
+    public void fixedLayoutFramesMatchProtobufFrames() throws Exception {
+        for(Frame frame: new Frame[]{Frame.play(20, 5_000_000L), Frame.rateAdjustment(1.02, 5000)}) {
+            Frame fixedFrame = frame.inFixedLayout();
+            assertEquals(frame.getType(), fixedFrame.getType());
+            DecodedMessage protobuf = decode(bytesOf(frame));
+            DecodedMessage fixed = decode(bytesOf(fixedFrame));
+            // Lite messages don't implement equals
+            assertArrayEquals(protobuf.toMessage().toByteArray(), fixed.toMessage().toByteArray());
+            // Encoded once, and already in its own layout
+            assertSame(fixedFrame, frame.inFixedLayout());
+            assertSame(fixedFrame, fixedFrame.inFixedLayout());
+        }
+        // A seek without a host time has no fixed layout
+        Frame initialSeek = Frame.of(SAVPPMessage.newBuilder().setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(1000)).build());
+        assertSame(initialSeek, initialSeek.inFixedLayout());
+        Frame error = Frame.of(SAVPPMessage.newBuilder().setType(SAVPPMessage.MessageType.ERROR)
+                .setError(SAVPPProto.Error.newBuilder().setType(SAVPPProto.Error.ErrorType.INVALID_DATA)).build());
+        assertSame(error, error.inFixedLayout());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void fixedLayoutOfTheWrongSizeIsRejected() throws Exception {
+        FixedLayoutCodec.writePing(buffer, 1);
+        byte[] frame = codecBytes();
+        //Claim the frame is a seek, which is longer
+        frame[2] = (byte) SAVPPMessage.MessageType.SEEK_COMMAND.getNumber();
+        decode(frame);
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void missingRequiredFieldIsRejected() throws Exception {
+        SAVPPMessage ping = SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.PING)
+                .setPing(SAVPPProto.Ping.newBuilder().setSequence(1))
+                .build();
+        byte[] frame = protobufBytes(ping);
+        //Drop the ping's only field, leaving an empty Ping body
+        byte[] truncated = {(byte) (frame[0] - 2), frame[1], frame[2], frame[3], 0};
+        decode(truncated);
+    }
+}
@@ -0,0 +1,128 @@
+package me.noahandrews.savpp;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class MetricsTest {
+    @Test
+    public void everyValueFallsInABucketThatContainsIt() {
+        Random random = new Random(1);
+        for(int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = Histogram.indexOf(value);
+            assertTrue(Histogram.lowestValueAt(index) <= value);
+            assertTrue(Histogram.highestValueAt(index) >= value);
+        }
+        assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinThePrecision() {
+        Histogram histogram = new Histogram();
+        for(long value = 1; value <= 1000000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000.5, histogram.getMean(), 0.001);
+        assertEquals(500000, histogram.getPercentile50(), 500000 / 32.0);
+        assertEquals(990000, histogram.getPercentile99(), 990000 / 32.0);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        Histogram histogram = new Histogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> tasks = new ArrayList<>();
+        for(int thread = 0; thread < 4; thread++) {
+            tasks.add(executor.submit(() -> {
+                for(int i = 0; i < 100000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        for(Future<?> task: tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMax());
+    }
+
+    @Test
+    public void metricsAreExportedAndRegisteredWithJmx() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("connections").add(3);
+        registry.registerMBeans("me.noahandrews.savpp.test");
+        registry.histogram("latency").record(42);
+        registry.gauge("guests", () -> 7);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName latency = new ObjectName("me.noahandrews.savpp.test:type=Histogram,name=\"latency\"");
+        try {
+            assertEquals(3L, server.getAttribute(new ObjectName("me.noahandrews.savpp.test:type=Counter,name=\"connections\""), "Count"));
+            assertEquals(42L, server.getAttribute(latency, "Max"));
+            assertEquals(7L, server.getAttribute(new ObjectName("me.noahandrews.savpp.test:type=Gauge,name=\"guests\""), "Value"));
+        } finally {
+            registry.unregisterMBeans();
+        }
+        assertFalse(server.isRegistered(latency));
+
+        StringBuilder exported = new StringBuilder();
+        registry.exportTo(new MetricsExporter() {
+            @Override
+            public void exportCounter(String name, long count) {
+                exported.append(name).append('=').append(count).append(' ');
+            }
+
+            @Override
+            public void exportGauge(String name, long value) {
+                exported.append(name).append('=').append(value).append(' ');
+            }
+
+            @Override
+            public void exportHistogram(String name, Histogram histogram) {
+                exported.append(name).append('=').append(histogram.getCount());
+            }
+        });
+        assertEquals("connections=3 guests=7 latency=1", exported.toString());
+    }
+}
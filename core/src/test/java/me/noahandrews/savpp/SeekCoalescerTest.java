@@ -0,0 +1,88 @@
+package me.noahandrews.savpp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class SeekCoalescerTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Integer> sent = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private void awaitSends(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void scrubBurstBecomesFirstAndLastSeek() throws Exception {
+        SeekCoalescer coalescer = new SeekCoalescer(100, 10, scheduler, sent::add);
+        for(int timestamp = 0; timestamp < 50; timestamp++) {
+            coalescer.submit(timestamp);
+        }
+        awaitSends(2);
+        Thread.sleep(200);
+
+        assertEquals(2, sent.size());
+        assertEquals(0, (int) sent.get(0));
+        assertEquals(49, (int) sent.get(1));
+    }
+
+    @Test
+    public void tokenBucketLimitsSustainedRate() throws Exception {
+        SeekCoalescer coalescer = new SeekCoalescer(0, 2, scheduler, sent::add);
+        for(int timestamp = 0; timestamp < 3; timestamp++) {
+            coalescer.submit(timestamp);
+        }
+        //The burst capacity lets two through at once; the third has to wait for a refill
+        assertEquals(2, sent.size());
+        awaitSends(3);
+        assertEquals(2, (int) sent.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWindowIsRejected() {
+        SeekCoalescer.checkSettings(-1, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveRateIsRejected() {
+        new SeekCoalescer(100, 0, scheduler, sent::add);
+    }
+}
@@ -0,0 +1,353 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Simulates a swarm of guests, each a real {@link SAVPPClient}, against a server to find where it stops keeping up.
+ * Guests join at a fixed rate up to the target count. While they are connected, they probe the host's clock and report
+ * their position at the heartbeat interval, random guests request seeks at the seek rate (the host broadcasts each one
+ * back to everybody), and random guests leave and are replaced at the churn rate.
+ * <p>
+ * It reports handshake latency percentiles, how far apart the guests will execute each broadcast seek, and the
+ * server's CPU and memory use. Unless told to test a server that is already running, it starts its own
+ * {@link SAVPPNioServer} or {@link SAVPPServer} in this process; the CPU and memory figures then include the guests.
+ * <p>
+ * Every guest uses two or three threads and a socket, and an embedded server uses another socket per guest, so the
+ * operating system's thread and file descriptor limits need to allow for that.
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_MD5_HASH = "5a73e7b6df89f85bb34129fcdfd7da12";
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    private final Options options;
+    private final Statistics statistics = new Statistics();
+    private final List<SimulatedGuest> guests = new ArrayList<>();
+    private final AtomicInteger nextSeekTimestamp = new AtomicInteger(1000000);
+    private final AtomicInteger latestSeekTimestamp = new AtomicInteger(0);
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final ExecutorService connector = Executors.newSingleThreadExecutor();
+    private int joined = 0;
+
+    LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(1);
+            return;
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        MediaSynchronizationServer server = options.server.equals("none") ? null : startServer();
+        ProcessStats processStats = options.serverPid > 0 ? ProcessStats.of(options.serverPid)
+                : server != null ? ProcessStats.self() : null;
+        long startCpuNanos = processStats == null ? -1 : processStats.cpuNanos();
+        long startNanos = System.nanoTime();
+
+        schedule(this::join, options.joinRate);
+        schedule(this::seek, options.seekRate);
+        schedule(this::churn, options.churnRate);
+        scheduler.scheduleAtFixedRate(() -> printProgress(startNanos), REPORT_INTERVAL_MILLIS, REPORT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+        scheduler.shutdownNow();
+        connector.shutdownNow();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long endCpuNanos = processStats == null ? -1 : processStats.cpuNanos();
+        long residentBytes = processStats == null ? -1 : processStats.residentBytes();
+        long heapBytes = processStats == null ? -1 : processStats.heapBytes();
+
+        statistics.skew.settleAll();
+        printReport(elapsedNanos);
+        if(processStats != null) {
+            System.out.println("Resources of the " + processStats.describe() + ":");
+            if(startCpuNanos >= 0 && endCpuNanos >= 0) {
+                System.out.printf("  CPU                  %.1f%% of one core%n", 100.0 * (endCpuNanos - startCpuNanos) / elapsedNanos);
+            }
+            if(residentBytes >= 0) {
+                System.out.println("  Resident memory      " + residentBytes / (1024 * 1024) + " MiB");
+            }
+            if(heapBytes >= 0) {
+                System.out.println("  Heap in use          " + heapBytes / (1024 * 1024) + " MiB");
+            }
+        }
+
+        List<SimulatedGuest> remaining;
+        synchronized(guests) {
+            remaining = new ArrayList<>(guests);
+        }
+        for(SimulatedGuest guest: remaining) {
+            guest.disconnect();
+        }
+        if(server != null) {
+            server.tearDown().get();
+        }
+    }
+
+    private MediaSynchronizationServer startServer() throws Exception {
+        MediaSynchronizationServer server = options.server.equals("blocking")
+                ? new SAVPPServer(options.md5Hash) : new SAVPPNioServer(options.md5Hash);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+
+            @Override
+            public void seekRequested(int timestamp) {
+                latestSeekTimestamp.set(timestamp);
+                server.sendSeekCommand(timestamp);
+            }
+
+            @Override
+            public int timestampRequested() {
+                // Where the paused guests are, so that joining guests don't look like they drifted
+                return latestSeekTimestamp.get();
+            }
+        });
+        server.startListening();
+        started.await();
+        return server;
+    }
+
+    /**
+     * Runs a task the given number of times per second, or never if the rate is 0
+     */
+    private void schedule(Runnable task, double perSecond) {
+        if(perSecond <= 0) {
+            return;
+        }
+        long periodNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        scheduler.scheduleAtFixedRate(task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void join() {
+        synchronized(guests) {
+            if(joined >= options.guests) {
+                return;
+            }
+            joined++;
+        }
+        connector.execute(this::addGuest);
+    }
+
+    private void addGuest() {
+        SimulatedGuest guest = new SimulatedGuest(options.host, options.heartbeatMillis, statistics);
+        try {
+            guest.connect(options.md5Hash);
+        } catch (IOException e) {
+            statistics.refused.increment();
+            return;
+        }
+        synchronized(guests) {
+            guests.add(guest);
+        }
+    }
+
+    private void seek() {
+        SimulatedGuest guest = randomConnectedGuest(false);
+        if(guest != null) {
+            statistics.seeksRequested.increment();
+            guest.requestSeek(nextSeekTimestamp.getAndIncrement());
+        }
+    }
+
+    /**
+     * Disconnects a random guest and has a new one join in its place
+     */
+    private void churn() {
+        SimulatedGuest guest = randomConnectedGuest(true);
+        if(guest != null) {
+            guest.disconnect();
+            statistics.churned.increment();
+            connector.execute(this::addGuest);
+        }
+    }
+
+    private SimulatedGuest randomConnectedGuest(boolean remove) {
+        synchronized(guests) {
+            if(guests.isEmpty()) {
+                return null;
+            }
+            int index = ThreadLocalRandom.current().nextInt(guests.size());
+            SimulatedGuest guest = guests.get(index);
+            if(!guest.isConnected()) {
+                return null;
+            }
+            if(remove) {
+                guests.remove(index);
+            }
+            return guest;
+        }
+    }
+
+    private int connectedCount() {
+        synchronized(guests) {
+            int connected = 0;
+            for(SimulatedGuest guest: guests) {
+                if(guest.isConnected()) {
+                    connected++;
+                }
+            }
+            return connected;
+        }
+    }
+
+    private void printProgress(long startNanos) {
+        statistics.skew.settle();
+        System.out.println(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) + "s: "
+                + connectedCount() + " guests connected, handshake p99 " + millis(statistics.handshakeNanos.getPercentile99())
+                + ", skew p99 " + millis(statistics.skew.getSkewNanos().getPercentile99())
+                + ", " + statistics.refused.getCount() + " refused, " + statistics.disconnects.getCount() + " dropped");
+    }
+
+    private void printReport(long elapsedNanos) {
+        Histogram handshake = statistics.handshakeNanos;
+        Histogram skew = statistics.skew.getSkewNanos();
+        System.out.println();
+        System.out.println("Ran for " + TimeUnit.NANOSECONDS.toSeconds(elapsedNanos) + "s against "
+                + (options.server.equals("none") ? options.host : "an embedded " + options.server + " server"));
+        System.out.println("Guests connected     " + connectedCount() + " of " + options.guests);
+        System.out.println("Handshakes           " + handshake.getCount() + ": " + percentiles(handshake));
+        System.out.println("Refused or failed    " + statistics.refused.getCount());
+        System.out.println("Dropped by the host  " + statistics.disconnects.getCount());
+        System.out.println("Churned              " + statistics.churned.getCount());
+        System.out.println("Seeks requested      " + statistics.seeksRequested.getCount() + ", broadcast " + skew.getCount()
+                + " times, delivered " + statistics.skew.getDeliveries() + " times");
+        System.out.println("Broadcast skew       " + percentiles(skew));
+    }
+
+    private static String percentiles(Histogram histogram) {
+        return "p50 " + millis(histogram.getPercentile50()) + ", p90 " + millis(histogram.getPercentile90())
+                + ", p99 " + millis(histogram.getPercentile99()) + ", max " + millis(histogram.getMax());
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    static class Statistics {
+        final Histogram handshakeNanos = new Histogram();
+        final SkewTracker skew = new SkewTracker();
+        final Counter refused = new Counter();
+        final Counter disconnects = new Counter();
+        final Counter churned = new Counter();
+        final Counter seeksRequested = new Counter();
+    }
+
+    static class Options {
+        static final String USAGE = "Usage: LoadGenerator [--guests N] [--join-rate N/s] [--heartbeat-ms N] [--seek-rate N/s]\n"
+                + "                     [--churn-rate N/s] [--duration S] [--server nio|blocking|none] [--host HOST]\n"
+                + "                     [--server-pid PID] [--md5 HASH]";
+
+        int guests = 1000;
+        double joinRate = 100;
+        long heartbeatMillis = SAVPPValues.CLOCK_PROBE_INTERVAL_MILLIS;
+        double seekRate = 1;
+        double churnRate = 0;
+        long durationSeconds = 60;
+        String server = "nio";
+        String host = "localhost";
+        long serverPid = -1;
+        String md5Hash = DEFAULT_MD5_HASH;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for(int i = 0; i < args.length; i += 2) {
+                if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                String value = args[i + 1];
+                try {
+                    switch(args[i]) {
+                        case "--guests":
+                            options.guests = Integer.parseInt(value);
+                            break;
+                        case "--join-rate":
+                            options.joinRate = Double.parseDouble(value);
+                            break;
+                        case "--heartbeat-ms":
+                            options.heartbeatMillis = Long.parseLong(value);
+                            break;
+                        case "--seek-rate":
+                            options.seekRate = Double.parseDouble(value);
+                            break;
+                        case "--churn-rate":
+                            options.churnRate = Double.parseDouble(value);
+                            break;
+                        case "--duration":
+                            options.durationSeconds = Long.parseLong(value);
+                            break;
+                        case "--server":
+                            options.server = value;
+                            break;
+                        case "--host":
+                            options.host = value;
+                            break;
+                        case "--server-pid":
+                            options.serverPid = Long.parseLong(value);
+                            break;
+                        case "--md5":
+                            options.md5Hash = value;
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for " + args[i] + ": " + value);
+                }
+            }
+            if(!options.server.equals("nio") && !options.server.equals("blocking") && !options.server.equals("none")) {
+                throw new IllegalArgumentException("--server must be nio, blocking or none");
+            }
+            if(options.guests < 1 || options.joinRate <= 0 || options.heartbeatMillis < 1 || options.durationSeconds < 1) {
+                throw new IllegalArgumentException("--guests, --join-rate, --heartbeat-ms and --duration must be positive");
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Samples the CPU time and memory of the server being tested. For a server in another process on the same Linux
+ * machine they come from /proc; for one embedded in the load generator they are this process's, guests included.
+ */
+abstract class ProcessStats {
+    // USER_HZ, the unit of the times in /proc/<pid>/stat. It is 100 on every mainstream Linux build.
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    /**
+     * @return The process's CPU time so far, or -1 if it isn't available
+     */
+    abstract long cpuNanos();
+
+    /**
+     * @return The process's resident set size, or -1 if it isn't available
+     */
+    abstract long residentBytes();
+
+    /**
+     * @return The heap in use, or -1 if it isn't available
+     */
+    abstract long heapBytes();
+
+    abstract String describe();
+
+    static ProcessStats self() {
+        return new ProcessStats() {
+            @Override
+            long cpuNanos() {
+                OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+                if(bean instanceof com.sun.management.OperatingSystemMXBean) {
+                    return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+                }
+                return -1;
+            }
+
+            @Override
+            long residentBytes() {
+                return readResidentBytes(Paths.get("/proc/self/status"));
+            }
+
+            @Override
+            long heapBytes() {
+                return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            }
+
+            @Override
+            String describe() {
+                return "load generator process (embedded server and guests)";
+            }
+        };
+    }
+
+    static ProcessStats of(long pid) {
+        Path proc = Paths.get("/proc", Long.toString(pid));
+        return new ProcessStats() {
+            @Override
+            long cpuNanos() {
+                try {
+                    // utime and stime are the 14th and 15th fields, after the command name in parentheses
+                    String stat = new String(Files.readAllBytes(proc.resolve("stat")));
+                    String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                    long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+                    return ticks * (1000000000L / CLOCK_TICKS_PER_SECOND);
+                } catch (IOException | RuntimeException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            long residentBytes() {
+                return readResidentBytes(proc.resolve("status"));
+            }
+
+            @Override
+            long heapBytes() {
+                return -1;
+            }
+
+            @Override
+            String describe() {
+                return "server process " + pid;
+            }
+        };
+    }
+
+    private static long readResidentBytes(Path status) {
+        try {
+            if(!Files.exists(status)) {
+                return -1;
+            }
+            List<String> lines = Files.readAllLines(status);
+            for(String line: lines) {
+                if(line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,108 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * One guest in the swarm: a real {@link SAVPPClient} whose event handler plays along like a paused media player,
+ * reporting the position of the last seek it received, and feeds what it sees into the load generator's statistics
+ */
+class SimulatedGuest {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final SAVPPClient client;
+    private final LoadGenerator.Statistics statistics;
+    private volatile int position = 0;
+    private volatile boolean connected = false;
+
+    SimulatedGuest(String hostname, long heartbeatIntervalMillis, LoadGenerator.Statistics statistics) {
+        this.statistics = statistics;
+        this.client = new SAVPPClient(hostname);
+        client.setHeartbeatIntervals(heartbeatIntervalMillis, heartbeatIntervalMillis);
+        client.setEventHandler(new MediaSynchronizationClient.EventHandler() {
+            @Override
+            public void seekCommandReceived(int timestamp, int delayMillis) {
+                position = timestamp;
+                statistics.skew.delivered(timestamp, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+            }
+
+            @Override
+            public int positionRequested() {
+                return position;
+            }
+
+            @Override
+            public void connectionResumed() {
+                connected = true;
+            }
+
+            @Override
+            public void disconnected() {
+                connected = false;
+                statistics.disconnects.increment();
+            }
+        });
+    }
+
+    /**
+     * Starts connecting. The handshake time is recorded once the host answers.
+     */
+    CompletableFuture<Integer> connect(String md5Hash) throws IOException {
+        long start = System.nanoTime();
+        return client.connect(md5Hash).whenComplete((timestamp, error) -> {
+            if(error == null) {
+                statistics.handshakeNanos.record(System.nanoTime() - start);
+                position = timestamp;
+                connected = true;
+            } else {
+                statistics.refused.increment();
+            }
+        });
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    void requestSeek(int timestamp) {
+        client.requestSeek(timestamp);
+    }
+
+    void disconnect() {
+        connected = false;
+        try {
+            client.tearDown();
+        } catch (ExecutionException | InterruptedException | IOException e) {
+            logger.debug("Failed to tear down guest: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package me.noahandrews.savpp;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Measures broadcast delivery skew: how far apart the guests will execute the same seek command. Every guest that
+ * receives a seek reports when it will carry it out; once no more reports are expected, the spread between the
+ * earliest and latest is recorded. All guests live in this process, so they share one clock.
+ */
+class SkewTracker {
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final Map<Integer, Spread> spreads = new ConcurrentHashMap<>();
+    private final Histogram skewNanos = new Histogram();
+    private final Counter deliveries = new Counter();
+
+    /**
+     * @param timestamp The seek's timestamp, which identifies the broadcast
+     * @param executesAtNanos When the guest will seek
+     */
+    void delivered(int timestamp, long executesAtNanos) {
+        deliveries.increment();
+        spreads.computeIfAbsent(timestamp, t -> new Spread()).add(executesAtNanos);
+    }
+
+    /**
+     * Records the spread of every broadcast that was first delivered long enough ago
+     */
+    void settle() {
+        settle(System.nanoTime() - SETTLE_NANOS);
+    }
+
+    void settleAll() {
+        settle(Long.MAX_VALUE);
+    }
+
+    private void settle(long firstDeliveredBefore) {
+        Iterator<Spread> iterator = spreads.values().iterator();
+        while(iterator.hasNext()) {
+            Spread spread = iterator.next();
+            synchronized(spread) {
+                if(spread.firstDeliveredAtNanos - firstDeliveredBefore < 0) {
+                    if(spread.count > 1) {
+                        skewNanos.record(spread.latest - spread.earliest);
+                    }
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    Histogram getSkewNanos() {
+        return skewNanos;
+    }
+
+    long getDeliveries() {
+        return deliveries.getCount();
+    }
+
+    private static class Spread {
+        private final long firstDeliveredAtNanos = System.nanoTime();
+        private long earliest = Long.MAX_VALUE;
+        private long latest = Long.MIN_VALUE;
+        private int count = 0;
+
+        synchronized void add(long executesAtNanos) {
+            earliest = Math.min(earliest, executesAtNanos);
+            latest = Math.max(latest, executesAtNanos);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.noahandrews.savpp;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static me.noahandrews.savpp.MD5Checker.isHashValid;
+import static me.noahandrews.savpp.SAVPPProto.ConnectionRequest;
+import static me.noahandrews.savpp.SAVPPProto.FingerprintType;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The fingerprints of the host's media file that a server will accept in a {@link ConnectionRequest}, by type.
+ */
+class AcceptedFingerprints {
+    private final Map<FingerprintType, String> fingerprints = new EnumMap<>(FingerprintType.class);
+
+    synchronized void put(FingerprintType type, String fingerprint) {
+        if(!isHashValid(fingerprint)) {
+            throw new IllegalArgumentException("Invalid MD5 hash");
+        }
+        fingerprints.put(type, fingerprint);
+    }
+
+    synchronized Match check(ConnectionRequest request) {
+        String expected = fingerprints.get(request.getFingerprintType());
+        if(expected == null) {
+            return Match.UNSUPPORTED_TYPE;
+        }
+        return expected.equals(request.getMd5()) ? Match.MATCH : Match.MISMATCH;
+    }
+
+    enum Match {
+        MATCH,
+        MISMATCH,
+        UNSUPPORTED_TYPE
+    }
+}
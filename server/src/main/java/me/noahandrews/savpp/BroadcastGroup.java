@@ -0,0 +1,202 @@
+package me.noahandrews.savpp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The set of guests that receive broadcasts. A broadcast serializes its message once and hands the same frame to
+ * every guest's {@link OutboundQueue}; it never writes to a socket itself, so it takes the same time no matter how
+ * slowly any guest is reading.
+ */
+class BroadcastGroup {
+    private final CopyOnWriteArrayList<Guest> members = new CopyOnWriteArrayList<>();
+    private final ServerMetrics metrics;
+    private volatile MulticastSender multicast;
+
+    BroadcastGroup() {
+        this(new ServerMetrics());
+    }
+
+    BroadcastGroup(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param multicast Where commands for guests that joined the multicast group go, or null to send every command
+     * over each guest's own connection
+     */
+    void setMulticast(MulticastSender multicast) {
+        this.multicast = multicast;
+    }
+
+    MulticastSender getMulticast() {
+        return multicast;
+    }
+
+    void add(Guest guest) {
+        members.addIfAbsent(guest);
+    }
+
+    void remove(Guest guest) {
+        members.remove(guest);
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    /**
+     * Removes every guest from the group
+     * @return The guests that were members
+     */
+    List<Guest> clear() {
+        List<Guest> removed = new ArrayList<>(members);
+        members.removeAll(removed);
+        return removed;
+    }
+
+    /**
+     * @return The number of guests the message was queued for
+     */
+    int broadcast(SAVPPMessage message) {
+        long encodeStart = System.nanoTime();
+        Frame frame = Frame.of(message);
+        metrics.encodeNanos.record(System.nanoTime() - encodeStart);
+        return broadcast(frame);
+    }
+
+    int broadcast(Frame frame) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        for(Guest guest: members) {
+            if(offer(guest, frame)) {
+                delivered++;
+            }
+        }
+        metrics.broadcastNanos.record(System.nanoTime() - start);
+        return delivered;
+    }
+
+    /**
+     * Broadcasts a frame that may be lost, over the side channel of the guests that have one
+     */
+    int broadcastUnreliable(Frame frame) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        for(Guest guest: members) {
+            if(guest.sendUnreliable(frame)) {
+                delivered++;
+            }
+        }
+        metrics.broadcastNanos.record(System.nanoTime() - start);
+        return delivered;
+    }
+
+    private boolean offer(Guest guest, Frame frame) {
+        boolean queued = guest.getOutboundQueue().offer(frame);
+        metrics.outboundQueueDepth.record(guest.getOutboundQueue().depth());
+        return queued;
+    }
+
+    /**
+     * Broadcasts a command that every guest should execute at the same moment: the moment the guest with the worst
+     * latency is expected to receive it. Guests with less latency are told to wait for the difference. Guests whose
+     * delays round to the same millisecond share one encoded frame.
+     * <p>
+     * Guests that joined the multicast group all get the same datagram, sent once. Its delay suits their average
+     * latency; guests with a synchronized clock use the host time instead.
+     * @param messageFactory Builds the command for a given delay
+     * @return The number of guests the command was queued or multicast for
+     */
+    int broadcastScheduled(ScheduledMessageFactory messageFactory) {
+        long start = System.nanoTime();
+        long latestArrivalNanos = getLatestArrivalNanos();
+
+        long hostTimeNanos = System.nanoTime() + latestArrivalNanos;
+        Map<Integer, Frame> framesByDelay = new HashMap<>();
+        int delivered = 0;
+        int multicastGuests = 0;
+        long multicastOneWayNanos = 0;
+        for(Guest guest: members) {
+            if(guest.isMulticast()) {
+                multicastGuests++;
+                multicastOneWayNanos += guest.getRttEstimator().getOneWayDelayNanos();
+                continue;
+            }
+            long delayNanos = latestArrivalNanos - guest.getRttEstimator().getOneWayDelayNanos();
+            int delayMillis = (int) TimeUnit.NANOSECONDS.toMillis(delayNanos + TimeUnit.MILLISECONDS.toNanos(1) / 2);
+            metrics.guestSkewNanos.record(delayNanos);
+            Frame frame = framesByDelay.get(delayMillis);
+            if(frame == null) {
+                long encodeStart = System.nanoTime();
+                frame = messageFactory.create(delayMillis, hostTimeNanos);
+                metrics.encodeNanos.record(System.nanoTime() - encodeStart);
+                framesByDelay.put(delayMillis, frame);
+            }
+            if(offer(guest, frame)) {
+                delivered++;
+            }
+        }
+        MulticastSender sender = multicast;
+        if(sender != null && multicastGuests > 0) {
+            long delayNanos = latestArrivalNanos - multicastOneWayNanos / multicastGuests;
+            int delayMillis = (int) TimeUnit.NANOSECONDS.toMillis(delayNanos + TimeUnit.MILLISECONDS.toNanos(1) / 2);
+            long encodeStart = System.nanoTime();
+            Frame frame = messageFactory.create(delayMillis, hostTimeNanos);
+            metrics.encodeNanos.record(System.nanoTime() - encodeStart);
+            sender.send(frame);
+            delivered += multicastGuests;
+        }
+        metrics.broadcastNanos.record(System.nanoTime() - start);
+        return delivered;
+    }
+
+    /**
+     * @return How long after now a command broadcast now would be executed by every guest
+     */
+    long getLatestArrivalNanos() {
+        long latestArrivalNanos = 0;
+        for(Guest guest: members) {
+            latestArrivalNanos = Math.max(latestArrivalNanos, guest.getRttEstimator().getLatestArrivalNanos());
+        }
+        return latestArrivalNanos;
+    }
+
+    interface ScheduledMessageFactory {
+        /**
+         * @param delayMillis How long the receiving guests should wait before executing the command
+         * @param hostTimeNanos The host clock time at which every guest should execute the command
+         */
+        Frame create(int delayMillis, long hostTimeNanos);
+    }
+}
@@ -0,0 +1,139 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Closes a connection that doesn't finish its handshake in time, or that goes quiet for too long. Established guests
+ * answer the host's pings, so a guest that stops sending anything at all is gone.
+ * <p>
+ * Receiving a message only records the time; the idle timeout checks it when it fires and schedules itself again for
+ * whatever is left, so a busy connection costs nothing per message.
+ */
+class ConnectionTimeouts {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final HashedWheelTimer timer;
+    private final long handshakeTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final Runnable expired;
+
+    private volatile long lastReceivedNanos = System.nanoTime();
+    private volatile boolean hasExpired = false;
+    private HashedWheelTimer.Timeout handshakeTimeout;
+    private HashedWheelTimer.Timeout idleTimeout;
+    private boolean cancelled = false;
+
+    /**
+     * @param handshakeTimeoutMillis How long a connection has to be established, or 0 to wait forever
+     * @param idleTimeoutMillis How long a connection may go without receiving anything, or 0 to wait forever
+     * @param expired Closes the connection. Runs on the timer's thread, so it must not block.
+     */
+    ConnectionTimeouts(HashedWheelTimer timer, long handshakeTimeoutMillis, long idleTimeoutMillis, Runnable expired) {
+        this.timer = timer;
+        this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.expired = expired;
+    }
+
+    synchronized void start() {
+        if(cancelled) {
+            return;
+        }
+        if(handshakeTimeoutNanos > 0) {
+            handshakeTimeout = schedule(() -> expire("did not finish its handshake"), handshakeTimeoutNanos);
+        }
+        if(idleTimeoutNanos > 0) {
+            idleTimeout = schedule(this::checkIdle, idleTimeoutNanos);
+        }
+    }
+
+    void received() {
+        lastReceivedNanos = System.nanoTime();
+    }
+
+    synchronized void established() {
+        if(handshakeTimeout != null) {
+            handshakeTimeout.cancel();
+            handshakeTimeout = null;
+        }
+    }
+
+    /**
+     * Stops both timeouts once the connection has closed
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        if(handshakeTimeout != null) {
+            handshakeTimeout.cancel();
+        }
+        if(idleTimeout != null) {
+            idleTimeout.cancel();
+        }
+    }
+
+    /**
+     * @return Whether the connection was closed because it timed out
+     */
+    boolean hasExpired() {
+        return hasExpired;
+    }
+
+    private void checkIdle() {
+        long remainingNanos = lastReceivedNanos + idleTimeoutNanos - System.nanoTime();
+        if(remainingNanos <= 0) {
+            expire("went quiet");
+            return;
+        }
+        synchronized(this) {
+            if(!cancelled) {
+                idleTimeout = schedule(this::checkIdle, remainingNanos);
+            }
+        }
+    }
+
+    private HashedWheelTimer.Timeout schedule(Runnable task, long delayNanos) {
+        try {
+            return timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            return null; //The server has shut down
+        }
+    }
+
+    private void expire(String reason) {
+        synchronized(this) {
+            if(cancelled || hasExpired) {
+                return;
+            }
+            hasExpired = true;
+        }
+        logger.debug("Closing a connection that " + reason);
+        expired.run();
+    }
+}
@@ -0,0 +1,98 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Keeps guests in sync after they join by comparing their position reports with the host's playback. Small drift
+ * is corrected by having the guest play slightly faster or slower for a while, which is invisible to viewers; only
+ * drift beyond the seek threshold, or any drift while paused, gets a seek.
+ */
+class DriftCorrector {
+    /** Reports to average before acting, so that one badly timed report is not acted on */
+    static final int MIN_SAMPLES = 3;
+
+    private final PlaybackState playback;
+    private final ServerMetrics metrics;
+
+    private volatile int toleranceMillis = SAVPPValues.DRIFT_TOLERANCE_MILLIS;
+    private volatile int seekThresholdMillis = SAVPPValues.DRIFT_SEEK_THRESHOLD_MILLIS;
+    private volatile double maxRateAdjustment = SAVPPValues.MAX_RATE_ADJUSTMENT;
+
+    DriftCorrector(PlaybackState playback, ServerMetrics metrics) {
+        this.playback = playback;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setDriftCorrection(int, int, double)
+     */
+    void configure(int toleranceMillis, int seekThresholdMillis, double maxRateAdjustment) {
+        if(toleranceMillis < 0 || seekThresholdMillis <= toleranceMillis) {
+            throw new IllegalArgumentException("The seek threshold must be above the tolerance");
+        }
+        if(maxRateAdjustment <= 0 || maxRateAdjustment >= 1) {
+            throw new IllegalArgumentException("The rate adjustment must be between 0 and 1");
+        }
+        this.toleranceMillis = toleranceMillis;
+        this.seekThresholdMillis = seekThresholdMillis;
+        this.maxRateAdjustment = maxRateAdjustment;
+    }
+
+    /**
+     * @param position Where the guest was, in milliseconds since the beginning of the file
+     * @param hostTimeNanos When the guest was there, on the host's clock
+     * @return The correction to send the guest, or null if it is in sync
+     */
+    Frame positionReported(Guest guest, int position, long hostTimeNanos) {
+        long now = System.nanoTime();
+        DriftEstimator estimator = guest.getDriftEstimator();
+        if(estimator.isCorrecting(now)) {
+            return null;
+        }
+        int driftMillis = position - playback.positionAt(hostTimeNanos);
+        metrics.guestDriftMillis.record(Math.abs(driftMillis));
+        double smoothedDrift = estimator.addSample(driftMillis);
+        if(estimator.getSampleCount() < MIN_SAMPLES || Math.abs(smoothedDrift) <= toleranceMillis) {
+            return null;
+        }
+
+        RttEstimator rttEstimator = guest.getRttEstimator();
+        if(Math.abs(smoothedDrift) >= seekThresholdMillis || !playback.isPlaying()) {
+            //Give the guest's decoder time to seek and a couple of reports to come in from the new position
+            estimator.correcting(now + rttEstimator.getSmoothedRttNanos()
+                    + TimeUnit.MILLISECONDS.toNanos(2 * SAVPPValues.POSITION_REPORT_INTERVAL_MILLIS));
+            metrics.seekCorrections.increment();
+            return Frame.seek(playback.positionAt(now + rttEstimator.getOneWayDelayNanos()), 0);
+        }
+
+        double rate = 1 - Math.signum(smoothedDrift) * maxRateAdjustment;
+        int durationMillis = (int) Math.round(Math.abs(smoothedDrift) / maxRateAdjustment);
+        estimator.correcting(now + rttEstimator.getOneWayDelayNanos() + TimeUnit.MILLISECONDS.toNanos(durationMillis));
+        metrics.rateCorrections.increment();
+        return Frame.rateAdjustment(rate, durationMillis);
+    }
+}
@@ -0,0 +1,74 @@
+package me.noahandrews.savpp;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Smooths the drift measured from one guest's position reports, so that a single late report doesn't trigger a
+ * correction.
+ */
+class DriftEstimator {
+    private double smoothedDriftMillis = 0;
+    private int sampleCount = 0;
+    private long correctingUntilNanos = Long.MIN_VALUE;
+    private boolean correcting = false;
+
+    /**
+     * @param driftMillis How far ahead of the host the guest was; negative if it was behind
+     * @return The smoothed drift
+     */
+    synchronized double addSample(int driftMillis) {
+        if(sampleCount == 0) {
+            smoothedDriftMillis = driftMillis;
+        } else {
+            smoothedDriftMillis += (driftMillis - smoothedDriftMillis) / 4;
+        }
+        sampleCount++;
+        return smoothedDriftMillis;
+    }
+
+    synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return Whether a correction is still being applied, during which reports don't say anything useful
+     */
+    synchronized boolean isCorrecting(long nowNanos) {
+        if(correcting && nowNanos - correctingUntilNanos >= 0) {
+            correcting = false;
+        }
+        return correcting;
+    }
+
+    /**
+     * Starts over once a correction has been sent, ignoring reports until it has taken effect
+     */
+    synchronized void correcting(long untilNanos) {
+        correctingUntilNanos = untilNanos;
+        correcting = true;
+        smoothedDriftMillis = 0;
+        sampleCount = 0;
+    }
+}
@@ -0,0 +1,137 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntConsumer;
+
+import static me.noahandrews.savpp.MediaSynchronizationServer.EventHandler;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Calls the application's {@link MediaSynchronizationServer.EventHandler} on threads of its own, so that a slow
+ * handler never holds up a connection's I/O. Events are delivered through lanes: events in the same lane are
+ * delivered one at a time in the order they were dispatched, and events in different lanes may run concurrently.
+ * Each guest has its own lane.
+ */
+class EventDispatcher {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ExecutorService executor;
+
+    EventDispatcher(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    Lane newLane() {
+        return new Lane();
+    }
+
+    /**
+     * Tells the handler that a guest has joined and asks it where the guest should start, on the guest's lane
+     * @param handler The handler to tell, or null to start the guest at 0 right away
+     * @param admit Given the timestamp once the handler has answered, or 0 if it failed. It runs on whichever thread
+     *              answered, which is never an I/O thread unless there is no handler.
+     */
+    void guestJoined(Lane lane, EventHandler handler, IntConsumer admit) {
+        if(handler == null) {
+            admit.accept(0);
+            return;
+        }
+        lane.execute(() -> {
+            CompletionStage<Integer> timestamp;
+            try {
+                handler.connectionEstablished();
+                timestamp = handler.timestampRequestedAsync();
+            } catch (RuntimeException e) {
+                CompletableFuture<Integer> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                timestamp = failed;
+            }
+            timestamp.whenComplete((answer, e) -> {
+                if(e != null || answer == null) {
+                    logger.error("Event handler failed to provide a timestamp; starting the guest at 0", e);
+                    admit.accept(0);
+                } else {
+                    admit.accept(answer);
+                }
+            });
+        });
+    }
+
+    class Lane implements Executor {
+        private final ArrayDeque<Runnable> events = new ArrayDeque<>();
+        private boolean draining = false;
+
+        @Override
+        public void execute(Runnable event) {
+            synchronized(this) {
+                events.add(event);
+                if(draining) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // The server has shut down, so there is nobody left to tell
+                synchronized(this) {
+                    events.clear();
+                    draining = false;
+                }
+            }
+        }
+
+        private void drain() {
+            while(true) {
+                Runnable event;
+                synchronized(this) {
+                    event = events.poll();
+                    if(event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    logger.error("Event handler threw an exception", e);
+                }
+            }
+        }
+    }
+}
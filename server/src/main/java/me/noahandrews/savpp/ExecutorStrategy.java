@@ -0,0 +1,75 @@
+package me.noahandrews.savpp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Decides which threads {@link SAVPPServer} runs its connection listener and per-guest connection handlers on. Each
+ * guest occupies a thread for as long as it is connected, so this determines what an idle guest costs.
+ */
+public interface ExecutorStrategy {
+    /**
+     * @return A new executor. The server shuts it down when it is torn down.
+     */
+    ExecutorService newExecutor();
+
+    /**
+     * One platform thread per connection, reused between connections. Works on every JDK, but each connected guest
+     * holds a full thread stack.
+     */
+    static ExecutorStrategy platformThreads() {
+        return Executors::newCachedThreadPool;
+    }
+
+    /**
+     * One virtual thread per connection. Parked guests cost a few kilobytes of heap instead of a thread stack, which
+     * makes thousands of idle guests cheap. Requires JDK 21 or newer at runtime.
+     * @throws UnsupportedOperationException If the running JDK does not have virtual threads
+     */
+    static ExecutorStrategy virtualThreads() {
+        Method factory = VirtualThreads.executorFactory();
+        if(factory == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer");
+        }
+        return () -> {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Could not create a virtual thread executor", e);
+            }
+        };
+    }
+
+    /**
+     * @return Whether {@link #virtualThreads()} can be used on the running JDK
+     */
+    static boolean isVirtualThreadSupported() {
+        return VirtualThreads.executorFactory() != null;
+    }
+}
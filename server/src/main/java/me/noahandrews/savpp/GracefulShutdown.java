@@ -0,0 +1,143 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Shuts a server down in two bounded phases on a thread of its own, so that tearDown never blocks or spins. The drain
+ * phase sends every guest a final notice and gives it until the drain timeout to receive whatever is still queued.
+ * The release phase closes what is left and waits until the join timeout for the server's threads to finish, then
+ * interrupts any that haven't. The future completes when both phases are done.
+ */
+class GracefulShutdown {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    private volatile long drainTimeoutMillis = SAVPPValues.SHUTDOWN_DRAIN_TIMEOUT_MILLIS;
+    private volatile long joinTimeoutMillis = SAVPPValues.SHUTDOWN_JOIN_TIMEOUT_MILLIS;
+
+    /**
+     * @see MediaSynchronizationServer#setShutdownTimeouts(long, long)
+     */
+    void setTimeouts(long drainTimeoutMillis, long joinTimeoutMillis) {
+        if(drainTimeoutMillis < 0 || joinTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Shutdown timeouts can't be negative");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.joinTimeoutMillis = joinTimeoutMillis;
+    }
+
+    /**
+     * @return A future that completes once the server has shut down, whether or not it has started to
+     */
+    CompletableFuture<Void> getFuture() {
+        return terminated;
+    }
+
+    /**
+     * Runs the phases on a new thread
+     * @return The same future as {@link #getFuture()}
+     */
+    CompletableFuture<Void> start(String name, Phase drain, Phase release) {
+        Thread thread = new Thread(() -> {
+            try {
+                drain.run(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis));
+                release.run(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(joinTimeoutMillis));
+                terminated.complete(null);
+            } catch (Throwable e) {
+                terminated.completeExceptionally(e);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return terminated;
+    }
+
+    /**
+     * Stops an executor from taking new tasks and waits until the deadline for the ones it has, then interrupts them
+     * @return Whether everything finished in time
+     */
+    static boolean awaitTermination(ExecutorService executor, long deadlineNanos) throws InterruptedException {
+        if(executor == null) {
+            return true;
+        }
+        executor.shutdown();
+        if(executor.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            return true;
+        }
+        logger.debug("Threads did not finish in time; interrupting them");
+        executor.shutdownNow();
+        return false;
+    }
+
+    interface Phase {
+        /**
+         * @param deadlineNanos When the phase should give up waiting, on the {@link System#nanoTime()} clock
+         */
+        void run(long deadlineNanos) throws Exception;
+    }
+
+    /**
+     * The connections a server has open, which the drain phase waits on without polling
+     */
+    static class OpenConnections<T> {
+        private final Set<T> connections = new HashSet<>();
+
+        synchronized void add(T connection) {
+            connections.add(connection);
+        }
+
+        synchronized void remove(T connection) {
+            if(connections.remove(connection) && connections.isEmpty()) {
+                notifyAll();
+            }
+        }
+
+        synchronized List<T> snapshot() {
+            return new ArrayList<>(connections);
+        }
+
+        /**
+         * @return Whether every connection closed before the deadline
+         */
+        synchronized boolean awaitEmpty(long deadlineNanos) throws InterruptedException {
+            long remaining;
+            while(!connections.isEmpty() && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return connections.isEmpty();
+        }
+    }
+}
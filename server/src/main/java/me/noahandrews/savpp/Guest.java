@@ -0,0 +1,93 @@
+package me.noahandrews.savpp;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Everything the server tracks about one connected guest, independent of how its socket is serviced.
+ */
+class Guest {
+    private final OutboundQueue outboundQueue;
+    private final RttEstimator rttEstimator = new RttEstimator();
+    private final DriftEstimator driftEstimator = new DriftEstimator();
+    private final Runnable disconnector;
+    private volatile SideChannel.Endpoint sideChannel;
+    private volatile boolean multicast = false;
+
+    Guest(OutboundQueue outboundQueue) {
+        this(outboundQueue, () -> {});
+    }
+
+    /**
+     * @param disconnector Closes the guest's connection. May be called from any thread.
+     */
+    Guest(OutboundQueue outboundQueue, Runnable disconnector) {
+        this.outboundQueue = outboundQueue;
+        this.disconnector = disconnector;
+    }
+
+    void disconnect() {
+        disconnector.run();
+    }
+
+    void setSideChannel(SideChannel.Endpoint sideChannel) {
+        this.sideChannel = sideChannel;
+    }
+
+    /**
+     * Marks the guest as receiving commands from the session's multicast group instead of its own connection
+     */
+    void setMulticast(boolean multicast) {
+        this.multicast = multicast;
+    }
+
+    boolean isMulticast() {
+        return multicast;
+    }
+
+    /**
+     * Sends a message that may be lost, like a ping, over the side channel if the guest has one, and otherwise
+     * queues it like a broadcast
+     * @return Whether the frame was sent or queued
+     */
+    boolean sendUnreliable(Frame frame) {
+        SideChannel.Endpoint endpoint = sideChannel;
+        if(endpoint != null && endpoint.isActive() && endpoint.send(frame)) {
+            return true;
+        }
+        return outboundQueue.offer(frame);
+    }
+
+    OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    DriftEstimator getDriftEstimator() {
+        return driftEstimator;
+    }
+}
@@ -0,0 +1,77 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The handshake state of a single guest connection. Transitions are compare-and-set operations, so connections never
+ * need a shared lock to move through their handshakes, and a transition that loses a race simply returns false.
+ * <pre>
+ * AWAITING_REQUEST -> VERIFYING -> ESTABLISHED
+ *        |                |            |
+ *        +----------------+------------+--> CLOSED
+ * </pre>
+ */
+class Handshake {
+    enum State {
+        /** Connected, but no connection request has been received yet */
+        AWAITING_REQUEST,
+        /** A connection request is being checked */
+        VERIFYING,
+        /** The guest has been accepted and receives broadcasts */
+        ESTABLISHED,
+        /** The connection was rejected or has ended */
+        CLOSED
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.AWAITING_REQUEST);
+
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return false if a connection request was already received on this connection, or it was closed
+     */
+    boolean beginVerifying() {
+        return state.compareAndSet(State.AWAITING_REQUEST, State.VERIFYING);
+    }
+
+    /**
+     * @return false if the connection was closed while its request was being checked
+     */
+    boolean establish() {
+        return state.compareAndSet(State.VERIFYING, State.ESTABLISHED);
+    }
+
+    /**
+     * Moves to {@link State#CLOSED} from any state
+     * @return The state the connection was in before, so the caller knows whether an established guest went away
+     */
+    State close() {
+        return state.getAndSet(State.CLOSED);
+    }
+}
@@ -0,0 +1,102 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Periodically pings every guest in a broadcast group and feeds the replies into each guest's {@link RttEstimator}.
+ * Every guest receives the same ping frame, so a round of pings costs one encode no matter how many guests there are.
+ */
+class LatencyMonitor {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int PING_HISTORY_SIZE = 32;
+
+    private final BroadcastGroup broadcastGroup;
+    private final ServerMetrics metrics;
+    private final int[] sentSequences = new int[PING_HISTORY_SIZE];
+    private final long[] sentTimesNanos = new long[PING_HISTORY_SIZE];
+    private int nextSequence = 0;
+
+    private ScheduledFuture<?> pingTask;
+
+    LatencyMonitor(BroadcastGroup broadcastGroup, ServerMetrics metrics) {
+        this.broadcastGroup = broadcastGroup;
+        this.metrics = metrics;
+    }
+
+    synchronized void start(ScheduledExecutorService scheduler, long intervalMillis) {
+        if(pingTask != null) {
+            return;
+        }
+        pingTask = scheduler.scheduleAtFixedRate(this::sendPing, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if(pingTask != null) {
+            pingTask.cancel(false);
+            pingTask = null;
+        }
+    }
+
+    void sendPing() {
+        if(broadcastGroup.size() == 0) {
+            return;
+        }
+        int sequence;
+        synchronized(this) {
+            sequence = nextSequence++;
+            int slot = slot(sequence);
+            sentSequences[slot] = sequence;
+            sentTimesNanos[slot] = System.nanoTime();
+        }
+        broadcastGroup.broadcastUnreliable(Frame.ping(sequence));
+    }
+
+    void pongReceived(Guest guest, int sequence, long receivedAtNanos) {
+        long sentAtNanos;
+        synchronized(this) {
+            int slot = slot(sequence);
+            if(sentSequences[slot] != sequence || sequence >= nextSequence) {
+                logger.debug("Ignoring pong for unknown or expired ping " + sequence);
+                return;
+            }
+            sentAtNanos = sentTimesNanos[slot];
+        }
+        long rttNanos = receivedAtNanos - sentAtNanos;
+        guest.getRttEstimator().addSample(rttNanos);
+        metrics.guestRttNanos.record(rttNanos);
+    }
+
+    private static int slot(int sequence) {
+        return Math.floorMod(sequence, PING_HISTORY_SIZE);
+    }
+}
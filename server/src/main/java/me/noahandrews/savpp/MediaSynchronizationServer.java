@@ -1,6 +1,8 @@
 package me.noahandrews.savpp;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * MIT License
@@ -31,6 +33,100 @@ public interface MediaSynchronizationServer extends MediaSynchronizer{
 
     void startListening() throws IOException;
 
+    /**
+     * Sets how broadcasts treat guests that are not keeping up. Applies to guests that connect afterward.
+     * @param policy What to do when a guest's outbound queue is full
+     * @param queueCapacity How many messages may be waiting for a single guest
+     */
+    void setSlowConsumerPolicy(SlowConsumerPolicy policy, int queueCapacity);
+
+    /**
+     * Sets how bursts of {@link #sendSeekCommand(int)} calls, such as those caused by scrubbing, are collapsed.
+     * Must be called before {@link #startListening()}.
+     * @param windowMillis Seeks closer together than this are merged, and only the latest is sent
+     * @param maxSeeksPerSecond The sustained number of seeks guests receive per second
+     * @throws IllegalArgumentException If the window is negative or the rate isn't positive
+     */
+    void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond);
+
+    /**
+     * Also accepts guests that identify the file with a fingerprint of the given type. The hash passed to the
+     * constructor is always accepted as the {@link SAVPPProto.FingerprintType#FULL_MD5} fingerprint. Guests that
+     * send a type the server has no fingerprint for are refused with a FINGERPRINT_TYPE_NOT_SUPPORTED error.
+     * @param type The kind of fingerprint, for example {@link SAVPPProto.FingerprintType#SAMPLED_MD5}
+     * @param fingerprint The fingerprint of the host's file, as 32 hex digits
+     */
+    void addFingerprint(SAVPPProto.FingerprintType type, String fingerprint);
+
+    /**
+     * Tells every connected guest to seek to the given timestamp. Each guest is told how long to wait before
+     * seeking, based on its measured latency, so that all guests seek at about the same moment.
+     * @param timestamp Milliseconds since the beginning of the file
+     */
+    void sendSeekCommand(int timestamp);
+
+    /**
+     * Tells every connected guest to start playing, scheduled the same way as {@link #sendSeekCommand(int)}.
+     */
+    void sendPlayCommand();
+
+    /**
+     * Configures how guests are kept in sync once they have joined. Guests report their position every second; a
+     * guest that drifts more than the tolerance is told to play slightly faster or slower until it has caught up, and
+     * one that drifts past the seek threshold is told to seek.
+     * @param toleranceMillis Drift that is left alone
+     * @param seekThresholdMillis Drift at which a seek is sent instead of a rate adjustment
+     * @param maxRateAdjustment How far from normal speed a guest is asked to play, e.g. 0.02 for 98% to 102%
+     */
+    void setDriftCorrection(int toleranceMillis, int seekThresholdMillis, double maxRateAdjustment);
+
+    /**
+     * Bounds how long {@link #tearDown()} takes. Guests are given the drain timeout to receive what is still queued
+     * for them along with a final SERVER_SHUTTING_DOWN error, then the server's threads are given the join timeout
+     * to finish before they are interrupted.
+     * @param drainTimeoutMillis How long guests have to hang up
+     * @param joinTimeoutMillis How long the server's threads have to stop once the guests are gone
+     */
+    void setShutdownTimeouts(long drainTimeoutMillis, long joinTimeoutMillis);
+
+    /**
+     * Sets how guests reach the server, such as a Unix domain socket for guests on the same machine. Guests on other
+     * machines can't reach a server that isn't using TCP. Must be called before {@link #startListening()}.
+     * @param transport The default is TCP on the standard SAVPP port
+     */
+    void setTransport(Transport transport);
+
+    /**
+     * Sets when the server gives up on a guest. Established guests answer the server's pings every second, so one
+     * that sends nothing for the idle timeout is assumed to be gone. Applies to guests that connect afterward.
+     * @param handshakeTimeoutMillis How long a guest has to send a matching connection request, or 0 for no limit
+     * @param idleTimeoutMillis How long a guest may go without sending anything, or 0 for no limit
+     */
+    void setConnectionTimeouts(long handshakeTimeoutMillis, long idleTimeoutMillis);
+
+    /**
+     * Sets how frames queued for a guest are written. Whatever is already queued when a guest's socket is written goes
+     * out in one write, up to the batch limit, so a broadcast never waits for more frames to arrive. Applies to guests
+     * that connect afterward.
+     * @param maxBatchBytes The most bytes to write at once; a frame larger than this is still written whole. 1 writes
+     *                      every frame on its own
+     * @param tcpNoDelay Whether to disable Nagle's algorithm, which is the default. Leaving it enabled lets the OS
+     *                   merge small writes further at the cost of delaying commands by up to a round trip
+     */
+    void setWriteBatching(int maxBatchBytes, boolean tcpNoDelay);
+
+    /**
+     * @return The server's metrics: handshake, encode, decode and broadcast times, guest round trip times and
+     * outbound queue depths. Register them with JMX through {@link MetricsRegistry#registerMBeans(String)}, or send
+     * them elsewhere with a {@link MetricsExporter}.
+     */
+    MetricsRegistry getMetrics();
+
+    /**
+     * Receives the server's events. Events are delivered on threads that belong to the server but never on the
+     * threads that read from or write to guests, so a handler may take its time. Events about the same guest arrive
+     * one at a time and in order.
+     */
     abstract class EventHandler {
         public void serverStarted() {}
 
@@ -44,6 +140,22 @@ public interface MediaSynchronizationServer extends MediaSynchronizer{
             return 0;
         }
 
+        /**
+         * Asks where a guest that has just joined should start. Override this instead of
+         * {@link #timestampRequested()} when finding out takes a while, such as when the media player has to be
+         * asked; the guest's other messages are still handled in the meantime, and it joins once the stage completes.
+         * @return The current position in milliseconds. A guest whose stage fails starts at 0.
+         */
+        public CompletionStage<Integer> timestampRequestedAsync() {
+            return CompletableFuture.completedFuture(timestampRequested());
+        }
+
         public void incorrectMD5HashReceived(String receivedHash) {}
+
+        /**
+         * Called when a guest asks for everyone to seek. The host decides whether to call
+         * {@link #sendSeekCommand(int)}.
+         */
+        public void seekRequested(int timestamp) {}
     }
 }
@@ -0,0 +1,120 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Sends one session's commands to a multicast group, numbering each one and keeping the most recent ones so that
+ * guests that missed a datagram can ask for it over TCP. Several sessions can share a channel and group; each has
+ * its own key.
+ */
+class MulticastSender {
+    private static final Logger logger = LogManager.getLogger();
+    private static final SecureRandom random = new SecureRandom();
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final ServerMetrics metrics;
+    private final long key = random.nextLong();
+    private final Frame[] history = new Frame[SAVPPValues.MULTICAST_HISTORY_SIZE];
+    private final ByteBuffer heartbeat = ByteBuffer.allocate(SideChannelCodec.HEADER_SIZE);
+    private int nextSequence = 0;
+
+    MulticastSender(DatagramChannel channel, InetSocketAddress group, ServerMetrics metrics) {
+        this.channel = channel;
+        this.group = group;
+        this.metrics = metrics;
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    InetSocketAddress getGroup() {
+        return group;
+    }
+
+    /**
+     * @return The sequence number the next command will be sent with
+     */
+    synchronized int getNextSequence() {
+        return nextSequence;
+    }
+
+    synchronized void send(Frame frame) {
+        int sequence = nextSequence++;
+        history[Math.floorMod(sequence, history.length)] = frame;
+        try {
+            channel.send(SideChannelCodec.encode(key, sequence, frame), group);
+            metrics.multicastDatagrams.increment();
+        } catch (IOException e) {
+            // Guests will notice the gap and ask for the command over TCP
+            logger.debug("Failed to send multicast datagram: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a datagram with only a header, so that guests that missed the latest command find out
+     */
+    synchronized void sendHeartbeat() {
+        if(nextSequence == 0) {
+            return;
+        }
+        heartbeat.clear();
+        SideChannelCodec.writeHeader(heartbeat, key, nextSequence - 1);
+        heartbeat.flip();
+        try {
+            channel.send(heartbeat, group);
+        } catch (IOException e) {
+            logger.debug("Failed to send multicast heartbeat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The commands numbered from to to, inclusive, or null if the range hasn't been sent or some of it is
+     * too old to still be kept
+     */
+    synchronized List<Frame> history(int from, int to) {
+        if(SideChannelCodec.isNewer(from, to) || !SideChannelCodec.isNewer(nextSequence, to)
+                || nextSequence - from > history.length) {
+            return null;
+        }
+        List<Frame> frames = new ArrayList<>(to - from + 1);
+        for(int sequence = from; sequence != to + 1; sequence++) {
+            frames.add(history[Math.floorMod(sequence, history.length)]);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,194 @@
+package me.noahandrews.savpp;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A bounded queue of frames waiting to be written to one guest. Each guest has its own lock, so a slow guest never
+ * holds up a broadcast to the others.
+ */
+class OutboundQueue {
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    /** Frames queued with {@link #add(Frame)}, which coalescing must leave alone */
+    private final Set<Frame> mustDeliver = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int capacity;
+    private SlowConsumerPolicy policy;
+    private final Listener listener;
+    /** Mirrors frames.size() so that metrics can sample it without taking the lock */
+    private volatile int depth = 0;
+
+    OutboundQueue(int capacity, SlowConsumerPolicy policy, Listener listener) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    /**
+     * Changes the slow consumer policy for frames offered from now on
+     */
+    synchronized void configure(int capacity, SlowConsumerPolicy policy) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a broadcast frame, applying the slow consumer policy if the queue is full.
+     * @return Whether the frame will be delivered
+     */
+    boolean offer(Frame frame) {
+        boolean becameReady = false;
+        boolean overflowed = false;
+        synchronized(this) {
+            if(policy == SlowConsumerPolicy.COALESCE && frame.getType() == SAVPPMessage.MessageType.SEEK_COMMAND
+                    && replaceLastFrameIfSeek(frame)) {
+                return true; //A seek the guest has not received yet is already obsolete
+            } else if(frames.size() < capacity) {
+                becameReady = frames.isEmpty();
+                frames.add(frame);
+                depth = frames.size();
+            } else if(policy == SlowConsumerPolicy.COALESCE) {
+                return replacePendingFrameOfSameType(frame);
+            } else if(policy == SlowConsumerPolicy.DISCONNECT) {
+                overflowed = true;
+            } else {
+                return false;
+            }
+        }
+        if(overflowed) {
+            listener.overflowed();
+            return false;
+        }
+        if(becameReady) {
+            listener.framesAvailable();
+        }
+        return true;
+    }
+
+    /**
+     * Queues a frame that must not be dropped, such as a handshake reply, regardless of capacity.
+     */
+    void add(Frame frame) {
+        boolean becameReady;
+        synchronized(this) {
+            becameReady = frames.isEmpty();
+            frames.add(frame);
+            mustDeliver.add(frame);
+            depth = frames.size();
+        }
+        if(becameReady) {
+            listener.framesAvailable();
+        }
+    }
+
+    synchronized Frame poll() {
+        Frame frame = frames.poll();
+        if(frame != null && !mustDeliver.isEmpty()) {
+            mustDeliver.remove(frame);
+        }
+        depth = frames.size();
+        return frame;
+    }
+
+    synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    synchronized int size() {
+        return frames.size();
+    }
+
+    synchronized void clear() {
+        frames.clear();
+        mustDeliver.clear();
+        depth = 0;
+    }
+
+    /**
+     * @return The number of queued frames, read without locking, so it may be slightly out of date
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Replaces a pending seek with a newer one, but only if nothing has been queued behind it, so that the guest
+     * never sees a seek moved past a play
+     */
+    private boolean replaceLastFrameIfSeek(Frame frame) {
+        Frame last = frames.peekLast();
+        if(last == null || last.getType() != SAVPPMessage.MessageType.SEEK_COMMAND || mustDeliver.contains(last)) {
+            return false;
+        }
+        frames.pollLast();
+        frames.add(frame);
+        return true;
+    }
+
+    /**
+     * Swaps the newest pending frame of the same type for this one, where it stands in the queue, so that the guest
+     * still receives commands in the order they were given
+     */
+    private boolean replacePendingFrameOfSameType(Frame frame) {
+        ArrayDeque<Frame> newer = new ArrayDeque<>();
+        boolean replaced = false;
+        while(!frames.isEmpty()) {
+            Frame pending = frames.pollLast();
+            if(pending.getType() == frame.getType() && !mustDeliver.contains(pending)) {
+                frames.add(frame);
+                replaced = true;
+                break;
+            }
+            newer.push(pending);
+        }
+        while(!newer.isEmpty()) {
+            frames.add(newer.pop());
+        }
+        return replaced;
+    }
+
+    interface Listener {
+        /**
+         * Called outside the queue's lock when the queue goes from empty to non-empty.
+         */
+        void framesAvailable();
+
+        /**
+         * Called when a frame could not be queued under {@link SlowConsumerPolicy#DISCONNECT}.
+         */
+        void overflowed();
+    }
+}
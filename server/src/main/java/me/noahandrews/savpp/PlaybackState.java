@@ -0,0 +1,81 @@
+package me.noahandrews.savpp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Where the host's playback is, worked out from the commands it has sent. Every seek or play bumps a version, so
+ * that a guest that was away can tell whether it missed anything.
+ */
+class PlaybackState {
+    private long version = 0;
+    private int positionTimestamp = 0;
+    private long positionNanos = System.nanoTime();
+    private boolean playing = false;
+
+    /**
+     * @param executesAtNanos When the guests will carry out the seek, on the host's clock
+     */
+    synchronized void seeked(int timestamp, long executesAtNanos) {
+        version++;
+        positionTimestamp = timestamp;
+        positionNanos = executesAtNanos;
+    }
+
+    synchronized void played(long executesAtNanos) {
+        positionTimestamp = positionAt(executesAtNanos);
+        positionNanos = executesAtNanos;
+        playing = true;
+        version++;
+    }
+
+    /**
+     * Records the position the event handler reported for a joining guest, which is where playback is if no command
+     * has been sent since
+     */
+    synchronized void positionReported(int timestamp) {
+        positionTimestamp = timestamp;
+        positionNanos = System.nanoTime();
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * @return Where in the file playback is at the given time on the host's clock, in milliseconds
+     */
+    synchronized int positionAt(long nanos) {
+        if(!playing || nanos <= positionNanos) {
+            return positionTimestamp;
+        }
+        return positionTimestamp + (int) TimeUnit.NANOSECONDS.toMillis(nanos - positionNanos);
+    }
+}
@@ -0,0 +1,160 @@
+package me.noahandrews.savpp;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Remembers guests that lost their connection so that they can rejoin their session within a grace period without
+ * a full handshake.
+ */
+class ResumeRegistry {
+    private static final int TOKEN_BYTES = 16;
+
+    private final Map<String, Snapshot> detachedGuests = new ConcurrentHashMap<>();
+    private final Map<String, Guest> attachedGuests = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile long gracePeriodNanos = TimeUnit.MILLISECONDS.toNanos(SAVPPValues.RESUME_GRACE_PERIOD_MILLIS);
+    private volatile boolean closed = false;
+
+    void setGracePeriod(long millis) {
+        this.gracePeriodNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    long getGracePeriodMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(gracePeriodNanos);
+    }
+
+    String issueToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for(byte b: bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Called when a token is issued to a guest
+     */
+    void attached(String token, Guest guest) {
+        attachedGuests.put(token, guest);
+    }
+
+    /**
+     * Called when a resumable guest's connection ends. Does nothing if another connection has already taken the token
+     * over.
+     * @param commandVersion The session's command version when the guest left, so that only the commands it missed
+     *                       are replayed
+     */
+    void detached(String token, Guest guest, long commandVersion) {
+        if(!attachedGuests.remove(token, guest) || closed) {
+            return;
+        }
+        detachedGuests.put(token, new Snapshot(token, commandVersion, System.nanoTime() + gracePeriodNanos, null));
+    }
+
+    /**
+     * Hands a token to the guest presenting it. The guest may be resuming after its old connection was seen to close,
+     * or before, in which case the snapshot names the guest it takes over from.
+     * @return The guest's snapshot, or null if the token is unknown or its grace period is over
+     */
+    Snapshot resume(String token, Guest guest) {
+        while(true) {
+            Snapshot snapshot = detachedGuests.remove(token);
+            if(snapshot != null) {
+                if(snapshot.isExpired(System.nanoTime())) {
+                    return null;
+                }
+                attachedGuests.put(token, guest);
+                return snapshot;
+            }
+            Guest previous = attachedGuests.get(token);
+            if(previous == null || previous == guest) {
+                return null;
+            }
+            if(attachedGuests.replace(token, previous, guest)) {
+                return new Snapshot(token, 0, 0, previous);
+            }
+            // The old connection closed in the meantime, so its snapshot is on its way
+        }
+    }
+
+    void expire() {
+        long now = System.nanoTime();
+        detachedGuests.values().removeIf(snapshot -> snapshot.isExpired(now));
+    }
+
+    int size() {
+        return detachedGuests.size();
+    }
+
+    /**
+     * Forgets every guest and stops remembering new ones
+     */
+    void close() {
+        closed = true;
+        detachedGuests.clear();
+        attachedGuests.clear();
+    }
+
+    static final class Snapshot {
+        private final String token;
+        private final long commandVersion;
+        private final long expiresAtNanos;
+        private final Guest previousGuest;
+
+        Snapshot(String token, long commandVersion, long expiresAtNanos, Guest previousGuest) {
+            this.token = token;
+            this.commandVersion = commandVersion;
+            this.expiresAtNanos = expiresAtNanos;
+            this.previousGuest = previousGuest;
+        }
+
+        String getToken() {
+            return token;
+        }
+
+        long getCommandVersion() {
+            return commandVersion;
+        }
+
+        /**
+         * @return The guest whose connection was still open when the token was resumed, or null if it had already
+         * closed
+         */
+        Guest getPreviousGuest() {
+            return previousGuest;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+}
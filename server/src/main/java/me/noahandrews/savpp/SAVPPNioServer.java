@@ -0,0 +1,106 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A {@link MediaSynchronizationServer} that multiplexes all guests over a small, fixed number of selector-driven
+ * event loop threads instead of dedicating a blocking thread to each guest. It speaks exactly the same protocol as
+ * {@link SAVPPServer}. It is a {@link SessionRouter} with a single session, which guests join without a room id;
+ * more sessions can be opened on it with {@link #openSession(String, String)}.
+ */
+public class SAVPPNioServer extends SessionRouter implements MediaSynchronizationServer {
+    private final Session session;
+
+    /**
+     * Creates a SAVPPNioServer with a single event loop thread
+     * @param md5Hash The MD5 hash to expect from connecting clients
+     */
+    public SAVPPNioServer(String md5Hash) {
+        this(md5Hash, 1);
+    }
+
+    /**
+     * Creates a SAVPPNioServer for a file with a given MD5 hash
+     * @param md5Hash The MD5 hash to expect from connecting clients
+     * @param eventLoopCount The number of threads that guest connections are spread across
+     */
+    public SAVPPNioServer(String md5Hash, int eventLoopCount) {
+        super(eventLoopCount);
+        this.session = openSession(md5Hash);
+    }
+
+    @Override
+    public void setEventHandler(EventHandler handler) {
+        session.setEventHandler(handler);
+    }
+
+    @Override
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy, int queueCapacity) {
+        session.setSlowConsumerPolicy(policy, queueCapacity);
+    }
+
+    @Override
+    public void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond) {
+        session.setSeekCoalescing(windowMillis, maxSeeksPerSecond);
+    }
+
+    @Override
+    public void setDriftCorrection(int toleranceMillis, int seekThresholdMillis, double maxRateAdjustment) {
+        session.setDriftCorrection(toleranceMillis, seekThresholdMillis, maxRateAdjustment);
+    }
+
+    /**
+     * @see Session#setResumeGracePeriod(long)
+     */
+    public void setResumeGracePeriod(long millis) {
+        session.setResumeGracePeriod(millis);
+    }
+
+    @Override
+    public void addFingerprint(SAVPPProto.FingerprintType type, String fingerprint) {
+        session.addFingerprint(type, fingerprint);
+    }
+
+    @Override
+    public void sendSeekCommand(int timestamp) {
+        session.sendSeekCommand(timestamp);
+    }
+
+    @Override
+    public void sendPlayCommand() {
+        session.sendPlayCommand();
+    }
+
+    @Override
+    public synchronized void startListening() throws IOException {
+        super.startListening();
+        EventHandler handler = session.getEventHandler();
+        if(handler != null) {
+            handler.serverStarted();
+        }
+    }
+}
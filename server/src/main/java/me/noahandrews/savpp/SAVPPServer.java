@@ -4,17 +4,15 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static me.noahandrews.savpp.MD5Checker.isHashValid;
 import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
 import static me.noahandrews.savpp.SAVPPServer.State.*;
 
@@ -45,56 +43,166 @@ import static me.noahandrews.savpp.SAVPPServer.State.*;
 public class SAVPPServer implements MediaSynchronizationServer {
     private static final Logger logger = LogManager.getLogger();
 
-    private State state = DORMANT;
+    private final ServerLifecycle lifecycle = new ServerLifecycle();
+    private final ServerMetrics metrics = new ServerMetrics();
 
+    private final ExecutorStrategy executorStrategy;
     private ExecutorService connectionHandlerExecutor;
-    private List<FutureTask<?>> connectionHandlerTasks;
-    private FutureTask<?> connectionListenerTask;
-
-    private List<Socket> connectedSockets;
+    private ExecutorService connectionListenerExecutor;
+    private final EventDispatcher dispatcher;
+    private final EventDispatcher.Lane serverEvents;
+
+    private final GracefulShutdown shutdown = new GracefulShutdown();
+    private final HashedWheelTimer timer = new HashedWheelTimer("SAVPPServer timer");
+    private volatile long handshakeTimeoutMillis = SAVPPValues.HANDSHAKE_TIMEOUT_MILLIS;
+    private volatile long idleTimeoutMillis = SAVPPValues.IDLE_TIMEOUT_MILLIS;
+    private volatile Transport transport = Transport.tcp(SAVPPValues.PORT_NUMBER);
+    private volatile int writeBatchMaxBytes = SAVPPValues.WRITE_BATCH_MAX_BYTES;
+    private volatile boolean tcpNoDelay = true;
+    private final GracefulShutdown.OpenConnections<ConnectionHandler> openConnections = new GracefulShutdown.OpenConnections<>();
+    private final BroadcastGroup broadcastGroup = new BroadcastGroup(metrics);
+    private final LatencyMonitor latencyMonitor = new LatencyMonitor(broadcastGroup, metrics);
+    private final PlaybackState playback = new PlaybackState();
+    private final DriftCorrector driftCorrector = new DriftCorrector(playback, metrics);
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private volatile int outboundQueueCapacity = 64;
+    private long seekCoalescingWindowMillis = SAVPPValues.SEEK_COALESCING_WINDOW_MILLIS;
+    private int maxSeeksPerSecond = SAVPPValues.MAX_SEEKS_PER_SECOND;
+    private ScheduledExecutorService scheduler;
+    private SeekCoalescer seekCoalescer;
 
     private ServerSocket serverSocket;
 
-    private EventHandler eventHandler;
+    private volatile EventHandler eventHandler;
 
-    private final String md5Hash;
+    private final AcceptedFingerprints acceptedFingerprints = new AcceptedFingerprints();
 
     /**
-     * Creates a SAVPPServer for a file with a given MD5 hash
+     * Creates a SAVPPServer for a file with a given MD5 hash, handling each guest on a platform thread
      * @param md5Hash The MD5 hash to expect from connecting clients
      */
     public SAVPPServer(String md5Hash) {
+        this(md5Hash, ExecutorStrategy.platformThreads());
+    }
+
+    /**
+     * Creates a SAVPPServer for a file with a given MD5 hash
+     * @param md5Hash The MD5 hash to expect from connecting clients
+     * @param executorStrategy Provides the threads that the connection listener and connection handlers run on
+     */
+    public SAVPPServer(String md5Hash, ExecutorStrategy executorStrategy) {
         logger.traceEntry();
-        if(!isHashValid(md5Hash)) {
-            throw new IllegalArgumentException("Invalid MD5 hash");
-        }
-        this.md5Hash = md5Hash;
+        acceptedFingerprints.put(SAVPPProto.FingerprintType.FULL_MD5, md5Hash);
 
-        connectionHandlerExecutor = Executors.newCachedThreadPool();
-        connectionHandlerTasks = Collections.synchronizedList(new ArrayList<>(1));
+        this.executorStrategy = executorStrategy;
+        connectionHandlerExecutor = executorStrategy.newExecutor();
+        dispatcher = new EventDispatcher(executorStrategy.newExecutor());
+        serverEvents = dispatcher.newLane();
 
-        connectedSockets = Collections.synchronizedList(new ArrayList<>(1));
+        metrics.registry.gauge("guests.established", lifecycle::getEstablishedGuestCount);
 
         logger.traceExit();
     }
 
     @Override
-    public synchronized void setEventHandler(EventHandler handler) {
+    public void setEventHandler(EventHandler handler) {
         this.eventHandler = handler;
     }
 
-    private synchronized EventHandler getEventHandler() {
+    private EventHandler getEventHandler() {
         return eventHandler;
     }
 
+    @Override
+    public synchronized void setSlowConsumerPolicy(SlowConsumerPolicy policy, int queueCapacity) {
+        if(queueCapacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.slowConsumerPolicy = policy;
+        this.outboundQueueCapacity = queueCapacity;
+    }
+
+    @Override
+    public synchronized void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond) {
+        SeekCoalescer.checkSettings(windowMillis, maxSeeksPerSecond);
+        this.seekCoalescingWindowMillis = windowMillis;
+        this.maxSeeksPerSecond = maxSeeksPerSecond;
+    }
+
+    @Override
+    public void setShutdownTimeouts(long drainTimeoutMillis, long joinTimeoutMillis) {
+        shutdown.setTimeouts(drainTimeoutMillis, joinTimeoutMillis);
+    }
+
+    @Override
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public void setConnectionTimeouts(long handshakeTimeoutMillis, long idleTimeoutMillis) {
+        if(handshakeTimeoutMillis < 0 || idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Connection timeouts can't be negative");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @Override
+    public void setWriteBatching(int maxBatchBytes, boolean tcpNoDelay) {
+        if(maxBatchBytes < 1) {
+            throw new IllegalArgumentException("The write batch limit must be at least one byte");
+        }
+        this.writeBatchMaxBytes = maxBatchBytes;
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    @Override
+    public void addFingerprint(SAVPPProto.FingerprintType type, String fingerprint) {
+        acceptedFingerprints.put(type, fingerprint);
+    }
+
+    @Override
+    public void setDriftCorrection(int toleranceMillis, int seekThresholdMillis, double maxRateAdjustment) {
+        driftCorrector.configure(toleranceMillis, seekThresholdMillis, maxRateAdjustment);
+    }
+
+    @Override
+    public MetricsRegistry getMetrics() {
+        return metrics.registry;
+    }
+
+    @Override
+    public void sendSeekCommand(int timestamp) {
+        SeekCoalescer coalescer;
+        synchronized(this) {
+            coalescer = seekCoalescer;
+        }
+        if(coalescer != null) {
+            coalescer.submit(timestamp);
+        } else {
+            broadcastSeek(timestamp);
+        }
+    }
+
+    private void broadcastSeek(int timestamp) {
+        playback.seeked(timestamp, System.nanoTime() + broadcastGroup.getLatestArrivalNanos());
+        broadcastGroup.broadcastScheduled((delay, hostTime) -> Frame.seek(timestamp, delay, hostTime));
+    }
+
+    @Override
+    public void sendPlayCommand() {
+        playback.played(System.nanoTime() + broadcastGroup.getLatestArrivalNanos());
+        broadcastGroup.broadcastScheduled(Frame::play);
+    }
+
     @Override
     public synchronized void startListening() throws IOException {
         logger.traceEntry();
-        ExecutorService connectionListenerExecutor = Executors.newSingleThreadExecutor();
         if(getState() != DORMANT) {
             String message;
-            if(getState() == LISTENING){
-                message = "Only one guest is currently allowed.";
+            if(getState() == LISTENING || getState() == CONNECTED){
+                message = "The server is already listening.";
             } else {
                 message = "startListening() can only be called from the dormant state.";
             }
@@ -103,102 +211,118 @@ public class SAVPPServer implements MediaSynchronizationServer {
             throw exception;
         }
         logger.debug("Starting connection listener.");
-        connectionListenerTask = (FutureTask)connectionListenerExecutor.submit(new ConnectionListener());
+        connectionListenerExecutor = executorStrategy.newExecutor();
+        connectionListenerExecutor.execute(new ConnectionListener());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        seekCoalescer = new SeekCoalescer(seekCoalescingWindowMillis, maxSeeksPerSecond, scheduler, this::broadcastSeek);
+        latencyMonitor.start(scheduler, SAVPPValues.PING_INTERVAL_MILLIS);
         logger.traceExit();
     }
 
     protected synchronized ServerSocket createServerSocket() throws IOException {
-        return new ServerSocket(SAVPPValues.PORT_NUMBER);
-    }
-
-    public synchronized State getState() {
-        return state;
+        return transport.openServerSocket();
     }
 
-    private synchronized void setState(State newState) {
-        State formerState = getState();
-        if(formerState == DESTROYED) {
-            throw new IllegalStateException("State cannot be changed after destruction.");
-        }
-        logger.debug("Changing state from " + formerState + " to " + newState);
-        this.state = newState;
+    /**
+     * @return The server's lifecycle state. Handshakes are tracked per connection, so this is {@code CONNECTED}
+     * whenever the server is listening and at least one guest is connected.
+     */
+    public State getState() {
+        return lifecycle.getState();
     }
 
     private synchronized ServerSocket getServerSocket() {
         return serverSocket;
     }
 
-    private synchronized void sendMessageToAllConnectedClients(SAVPPMessage message) throws IOException {
-        for(Socket socket: connectedSockets) {
-            message.writeDelimitedTo(socket.getOutputStream());
-        }
+    private void sendMessageToAllConnectedClients(SAVPPMessage message) {
+        broadcastGroup.broadcast(message);
     }
 
-    private synchronized void sendMessage(OutputStream stream, SAVPPMessage message) throws IOException {
-        message.writeDelimitedTo(stream);
+    private void sendMessage(OutputStream stream, SAVPPMessage message) throws IOException {
+        // Encoded up front so that the message goes out in a single write
+        Frame frame = Frame.of(message);
+        synchronized(stream) {
+            frame.writeTo(stream);
+        }
     }
 
     private synchronized void setServerSocket(ServerSocket serverSocket) {
         this.serverSocket = serverSocket;
     }
 
+    /**
+     * Stops accepting guests right away, then sends every connected guest a SERVER_SHUTTING_DOWN error after
+     * whatever it still has queued, and gives them until the drain timeout to receive it and hang up. Connections
+     * still open after that are closed, and the server's threads are given until the join timeout to finish.
+     */
     @Override
-    public void tearDown() throws ExecutionException, InterruptedException, IOException {
-        if(state == DESTROYED || state == DESTROYING) {
-            return;
+    public CompletableFuture<Void> tearDown() throws ExecutionException, InterruptedException, IOException {
+        if(!lifecycle.beginDestroying()) {
+            return shutdown.getFuture();
         }
 
-        setState(DESTROYING);
-
-        for(Socket socket: connectedSockets) {
-            socket.close();
+        latencyMonitor.stop();
+        ScheduledExecutorService scheduler;
+        ServerSocket serverSocket;
+        synchronized(this) {
+            scheduler = this.scheduler;
+            serverSocket = this.serverSocket;
         }
-
-        int initialNumberOfRunningHandlers = ((ThreadPoolExecutor)connectionHandlerExecutor).getActiveCount();
-        boolean wasConnectionListenerInitiallyRunning;
-        if(connectionListenerTask == null || connectionListenerTask.isDone()) {
-            wasConnectionListenerInitiallyRunning = false;
-        } else {
-            wasConnectionListenerInitiallyRunning = true;
-        }
-
-        for(FutureTask task: connectionHandlerTasks) {
-            task.cancel(true);
+        if(scheduler != null) {
+            scheduler.shutdownNow();
         }
-
         if(serverSocket != null) {
             serverSocket.close();
         }
 
-        int newNumberOfRunningHandlers = ((ThreadPoolExecutor)connectionHandlerExecutor).getActiveCount();
-        boolean isConnectionListenerRunning;
-
-        while(!connectionListenerTask.isDone()) {}
+        return shutdown.start("SAVPPServer shutdown", this::drain, this::release);
+    }
 
-        if(connectionListenerTask == null || connectionListenerTask.isDone()) {
-            isConnectionListenerRunning = false;
-        } else {
-            isConnectionListenerRunning = true;
+    private void drain(long deadlineNanos) throws InterruptedException {
+        broadcastGroup.clear();
+        Frame notice = Frame.of(SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.ERROR)
+                .setError(SAVPPProto.Error.newBuilder().setType(SAVPPProto.Error.ErrorType.SERVER_SHUTTING_DOWN))
+                .build());
+        for(ConnectionHandler handler: openConnections.snapshot()) {
+            if(handler.guestWriter != null) {
+                handler.guestWriter.finish(notice);
+            } else {
+                handler.close();
+            }
         }
+        if(!openConnections.awaitEmpty(deadlineNanos)) {
+            logger.debug("Guests did not hang up in time; closing their connections");
+        }
+    }
 
-        if(wasConnectionListenerInitiallyRunning && !isConnectionListenerRunning) {
-            logger.debug("Connection listener killed.");
-        } else if(!wasConnectionListenerInitiallyRunning) {
-            logger.debug("Connection listener was not running upon tearDown() call.");
+    private void release(long deadlineNanos) throws InterruptedException {
+        for(ConnectionHandler handler: openConnections.snapshot()) {
+            handler.close();
         }
-        else {
-            logger.debug("Connection listener was and still is running.");
+        ExecutorService listenerExecutor;
+        synchronized(this) {
+            listenerExecutor = connectionListenerExecutor;
         }
+        GracefulShutdown.awaitTermination(listenerExecutor, deadlineNanos);
+        GracefulShutdown.awaitTermination(connectionHandlerExecutor, deadlineNanos);
+        GracefulShutdown.awaitTermination(dispatcher.getExecutor(), deadlineNanos);
+        timer.stop();
 
-        logger.debug("Went from " + initialNumberOfRunningHandlers + " to " + newNumberOfRunningHandlers + " running connection handlers.");
-
-        setState(DESTROYED);
+        metrics.registry.unregisterMBeans();
+        lifecycle.transition(DESTROYING, DESTROYED);
     }
 
     public enum State {
         DORMANT,
         LISTENING,
+        /**
+         * @deprecated Handshakes are tracked per connection, so the server no longer reports this state
+         */
+        @Deprecated
         WAITING_FOR_HASH,
+        /** Listening, with at least one guest connected */
         CONNECTED,
         DESTROYING,
         DESTROYED
@@ -212,9 +336,13 @@ public class SAVPPServer implements MediaSynchronizationServer {
             try {
                 serverSocket = createServerSocket();
                 setServerSocket(serverSocket);
-                setState(LISTENING);
-                if (getEventHandler() != null) {
-                    getEventHandler().serverStarted();
+                if(!lifecycle.transition(DORMANT, LISTENING)) {
+                    serverSocket.close();
+                    return;
+                }
+                EventHandler eventHandler = getEventHandler();
+                if (eventHandler != null) {
+                    serverEvents.execute(eventHandler::serverStarted);
                 }
                 while (!serverSocket.isClosed()) {
                     Socket socket = null;
@@ -230,8 +358,15 @@ public class SAVPPServer implements MediaSynchronizationServer {
                     if(socket == null) {
                         continue; //Prevent an extra handler from being started during SAVPPServer shutdown.
                     }
+                    try {
+                        socket.setTcpNoDelay(tcpNoDelay);
+                    } catch (SocketException e) {
+                        logger.debug("Couldn't set TCP_NODELAY: " + e.getMessage());
+                    }
                     logger.debug("Starting connection handler");
-                    connectionHandlerTasks.add((FutureTask) connectionHandlerExecutor.submit(new ConnectionHandler(socket)));
+                    ConnectionHandler handler = new ConnectionHandler(socket);
+                    openConnections.add(handler);
+                    connectionHandlerExecutor.execute(handler);
                 }
                 logger.debug("Connection listener shutting down.");
                 logger.traceExit();
@@ -245,75 +380,157 @@ public class SAVPPServer implements MediaSynchronizationServer {
 
     private class ConnectionHandler implements Runnable {
         Socket socket;
+        volatile GuestWriter guestWriter;
+        final Handshake handshake = new Handshake();
+        final EventDispatcher.Lane events = dispatcher.newLane();
+        final long acceptedAtNanos = System.nanoTime();
+        final ConnectionTimeouts timeouts;
 
         ConnectionHandler(Socket socket) {
             this.socket = socket;
+            // Closing the socket is what wakes up a handler that is waiting for the guest
+            this.timeouts = new ConnectionTimeouts(timer, handshakeTimeoutMillis, idleTimeoutMillis, () -> {
+                metrics.connectionsTimedOut.increment();
+                close();
+            });
+            metrics.connectionsAccepted.increment();
         }
 
         @Override
         public void run() {
             logger.traceEntry();
 
-            if (getState() == CONNECTED) {
+            if(!lifecycle.isListening()) {
                 sendErrorMessage(SAVPPProto.Error.ErrorType.NOT_ACCEPTING_CONNECTIONS);
-                try {
-                    socket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                close();
+                openConnections.remove(this);
                 return;
             }
 
-            setState(WAITING_FOR_HASH);
-
+            timeouts.start();
             SAVPPMessage message;
             try {
                 do {
                     message = SAVPPMessage.parseDelimitedFrom(socket.getInputStream());
+                    long receivedAtNanos = System.nanoTime();
 
-                    if (message.getType() != SAVPPMessage.MessageType.CONNECTION_REQUEST) {
-                    } else if(getState() != WAITING_FOR_HASH) {
-                       sendErrorMessage(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED);
+                    if(message == null) {
+                        break; //The guest closed the connection
+                    }
+                    metrics.messagesReceived.increment();
+                    timeouts.received();
+                    if(message.getType() == SAVPPMessage.MessageType.CLOCK_PROBE) {
+                        sendMessage(socket.getOutputStream(), ClockSynchronizer.createProbeReply(message.getClockProbe(), receivedAtNanos));
+                    } else if(message.getType() == SAVPPMessage.MessageType.SEEK_COMMAND) {
+                        EventHandler handler = getEventHandler();
+                        if(guestWriter != null && handler != null) {
+                            int timestamp = message.getSeekCommand().getTimestamp();
+                            events.execute(() -> handler.seekRequested(timestamp));
+                        }
+                    } else if(message.getType() == SAVPPMessage.MessageType.POSITION_REPORT) {
+                        if(guestWriter != null) {
+                            SAVPPProto.PositionReport report = message.getPositionReport();
+                            Frame correction = driftCorrector.positionReported(guestWriter.guest, report.getPosition(), report.getHostTime());
+                            if(correction != null) {
+                                guestWriter.queue.offer(correction);
+                            }
+                        }
+                    } else if(message.getType() == SAVPPMessage.MessageType.PONG) {
+                        if(guestWriter != null) {
+                            latencyMonitor.pongReceived(guestWriter.guest, message.getPong().getSequence(), receivedAtNanos);
+                        }
+                    } else if (message.getType() != SAVPPMessage.MessageType.CONNECTION_REQUEST) {
+                    } else if(!handshake.beginVerifying()) {
+                        sendErrorMessage(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED);
                         socket.close();
                     } else {
                         logger.debug("Connection request received");
-                        String receivedHash = message.getConnectionRequest().getMd5();
-                        if (receivedHash.equals(md5Hash)) {
-                            setState(CONNECTED);
-                            getEventHandler().connectionEstablished();
-                            connectedSockets.add(socket);
-                            int timestamp;
-                            if(getEventHandler() != null) {
-                                timestamp = getEventHandler().timestampRequested();
-                            } else {
-                                timestamp = 0;
-                            }
-
-                            SAVPPMessage seekMessage = SAVPPMessage.newBuilder()
-                                    .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
-                                    .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(timestamp))
-                                    .build();
-                            sendMessage(socket.getOutputStream(), seekMessage);
-                        } else {
-                            logger.debug("Incorrect hash received");
-                            setState(LISTENING);
-                            getEventHandler().incorrectMD5HashReceived(receivedHash);
-                            socket.close();
-                            return;
-                        }
+                        verify(message.getConnectionRequest());
                     }
                 } while (!socket.isClosed());
             } catch (InvalidProtocolBufferException e) {
-                logger.debug("Invalid data received.");
-                sendErrorMessage(SAVPPProto.Error.ErrorType.INVALID_DATA);
+                if(!timeouts.hasExpired()) {
+                    logger.debug("Invalid data received.");
+                    sendErrorMessage(SAVPPProto.Error.ErrorType.INVALID_DATA);
+                }
             } catch (IOException e) {
-                e.printStackTrace();
+                if(getState() != DESTROYING && !timeouts.hasExpired()) {
+                    e.printStackTrace();
+                }
                 //TODO: handle this somehow
             }
+            if(guestWriter != null) {
+                broadcastGroup.remove(guestWriter.guest);
+            }
+            timeouts.cancel();
+            close();
+            if(handshake.close() == Handshake.State.ESTABLISHED) {
+                lifecycle.guestClosed();
+            }
+            openConnections.remove(this);
             logger.debug("Connection handler shutting down.");
             logger.traceExit();
         }
 
+        /**
+         * Finishes the handshake once a connection request has moved this connection to VERIFYING
+         */
+        private void verify(SAVPPProto.ConnectionRequest request) throws IOException {
+            EventHandler handler = getEventHandler();
+            AcceptedFingerprints.Match match = acceptedFingerprints.check(request);
+            if(match != AcceptedFingerprints.Match.MATCH) {
+                metrics.connectionsRefused.increment();
+            }
+            if(match == AcceptedFingerprints.Match.UNSUPPORTED_TYPE) {
+                logger.debug("Unsupported fingerprint type received");
+                sendErrorMessage(SAVPPProto.Error.ErrorType.FINGERPRINT_TYPE_NOT_SUPPORTED);
+                socket.close();
+            } else if(match == AcceptedFingerprints.Match.MISMATCH) {
+                logger.debug("Incorrect hash received");
+                if(handler != null) {
+                    events.execute(() -> handler.incorrectMD5HashReceived(request.getMd5()));
+                }
+                socket.close();
+            } else if(handshake.establish()) {
+                timeouts.established();
+                lifecycle.guestEstablished();
+                dispatcher.guestJoined(events, handler, this::admit);
+            }
+        }
+
+        /**
+         * Starts sending broadcasts to the guest once the event handler has said where it should start
+         */
+        private void admit(int timestamp) {
+            if(socket.isClosed()) {
+                return; //The guest left, or the server started shutting down, while the handler was answering
+            }
+            SAVPPMessage seekMessage = SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                    .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(timestamp))
+                    .build();
+
+            //Queue the initial seek before joining the group, so that it always reaches the guest before broadcasts,
+            //but hold off writing it until the guest is in the group, so that no broadcast sent after it is missed
+            GuestWriter writer = new GuestWriter(socket);
+            playback.positionReported(timestamp);
+            writer.scheduled.set(true);
+            writer.queue.add(Frame.of(seekMessage));
+            guestWriter = writer;
+            broadcastGroup.add(writer.guest);
+            writer.scheduled.set(false);
+            writer.framesAvailable();
+            metrics.handshakeNanos.record(System.nanoTime() - acceptedAtNanos);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         private void sendErrorMessage(SAVPPProto.Error.ErrorType errorType) {
             try {
                 SAVPPMessage errorMessage = SAVPPMessage.newBuilder()
@@ -328,6 +545,112 @@ public class SAVPPServer implements MediaSynchronizationServer {
         }
     }
 
+    /**
+     * Drains a guest's outbound queue on the handler executor, so broadcasts never block on the guest's socket.
+     */
+    private class GuestWriter implements OutboundQueue.Listener, Runnable {
+        private final Socket socket;
+        private final OutboundQueue queue;
+        private final Guest guest;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile Frame finalFrame;
+        private final int maxBatchBytes = writeBatchMaxBytes;
+        // Only touched by whichever thread is running the writer
+        private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+
+        GuestWriter(Socket socket) {
+            this.socket = socket;
+            this.queue = new OutboundQueue(outboundQueueCapacity, slowConsumerPolicy, this);
+            this.guest = new Guest(queue);
+        }
+
+        @Override
+        public void framesAvailable() {
+            if(scheduled.compareAndSet(false, true)) {
+                try {
+                    connectionHandlerExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // The server has shut down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * Queues a last frame behind everything already waiting, and closes the guest's side of the connection once
+         * it has been written, so the guest reads the frame and then the end of the stream
+         */
+        void finish(Frame frame) {
+            finalFrame = frame;
+            queue.add(frame);
+        }
+
+        @Override
+        public void overflowed() {
+            logger.debug("Disconnecting guest that is not keeping up with broadcasts");
+            metrics.slowGuestsDisconnected.increment();
+            broadcastGroup.remove(guest);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream stream = socket.getOutputStream();
+                do {
+                    Frame last;
+                    while((last = writeBatch(stream)) != null) {
+                        if(last == finalFrame) {
+                            socket.shutdownOutput();
+                        }
+                    }
+                    scheduled.set(false);
+                } while(!queue.isEmpty() && scheduled.compareAndSet(false, true));
+            } catch (IOException e) {
+                logger.debug("Failed to write to guest: " + e.getMessage());
+                broadcastGroup.remove(guest);
+                queue.clear();
+                scheduled.set(false);
+            }
+        }
+
+        /**
+         * Writes whatever is queued, up to the batch limits, in one write to the socket. Never waits for more frames,
+         * so a lone command is written as soon as it's queued.
+         * A batch ends at the final frame, so nothing is written after it.
+         * @return The last frame written, or null if nothing was queued
+         */
+        private Frame writeBatch(OutputStream stream) throws IOException {
+            batch.reset();
+            int frames = 0;
+            Frame last = null;
+            Frame frame;
+            while(frames < SAVPPValues.WRITE_BATCH_MAX_FRAMES && batch.size() < maxBatchBytes) {
+                if((frame = queue.poll()) == null) {
+                    break;
+                }
+                frame.writeTo(batch);
+                frames++;
+                last = frame;
+                if(frame == finalFrame) {
+                    break;
+                }
+            }
+            if(last == null) {
+                return null;
+            }
+            metrics.writeBatchFrames.record(frames);
+            synchronized(stream) {
+                batch.writeTo(stream);
+            }
+            return last;
+        }
+    }
+
     //TODO: ConnectionHandler should be its own class. Furthermore, it should consist of little more than a looping switch,
     //TODO: that defers to other classes to handle the different types of messages.
 }
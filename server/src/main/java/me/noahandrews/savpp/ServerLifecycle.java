@@ -0,0 +1,97 @@
+package me.noahandrews.savpp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static me.noahandrews.savpp.SAVPPServer.State;
+import static me.noahandrews.savpp.SAVPPServer.State.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The lifecycle state of a server, kept apart from the handshake state of its connections, which each have their own
+ * {@link Handshake}. Only {@code DORMANT}, {@code LISTENING}, {@code DESTROYING} and {@code DESTROYED} are stored.
+ * {@code CONNECTED} is reported while the server is listening and at least one guest is established.
+ */
+class ServerLifecycle {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final AtomicReference<State> state = new AtomicReference<>(DORMANT);
+    private final AtomicInteger establishedGuests = new AtomicInteger();
+
+    State getState() {
+        State current = state.get();
+        if(current == LISTENING && establishedGuests.get() > 0) {
+            return CONNECTED;
+        }
+        return current;
+    }
+
+    boolean isListening() {
+        return state.get() == LISTENING;
+    }
+
+    /**
+     * @return false if the server was not in the expected state
+     */
+    boolean transition(State from, State to) {
+        if(state.compareAndSet(from, to)) {
+            logger.debug("Changing state from " + from + " to " + to);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to {@code DESTROYING} unless the server is already being or has been destroyed
+     * @return Whether this call started the destruction
+     */
+    boolean beginDestroying() {
+        State current;
+        do {
+            current = state.get();
+            if(current == DESTROYING || current == DESTROYED) {
+                return false;
+            }
+        } while(!state.compareAndSet(current, DESTROYING));
+        logger.debug("Changing state from " + current + " to " + DESTROYING);
+        return true;
+    }
+
+    void guestEstablished() {
+        establishedGuests.incrementAndGet();
+    }
+
+    void guestClosed() {
+        establishedGuests.decrementAndGet();
+    }
+
+    int getEstablishedGuestCount() {
+        return establishedGuests.get();
+    }
+}
@@ -0,0 +1,91 @@
+package me.noahandrews.savpp;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The metrics a server records, looked up once so that recording never touches the registry's maps
+ */
+class ServerMetrics {
+    final MetricsRegistry registry;
+
+    /** From accepting a connection to the guest being established */
+    final Histogram handshakeNanos;
+    /** Time to decode one incoming message */
+    final Histogram decodeNanos;
+    /** Time to encode one outgoing broadcast frame */
+    final Histogram encodeNanos;
+    /** Time to queue one broadcast for every guest in a group */
+    final Histogram broadcastNanos;
+    final Histogram guestRttNanos;
+    /** How long each guest is told to wait so that it executes a command together with the slowest guest */
+    final Histogram guestSkewNanos;
+    /** A guest's outbound queue length, sampled whenever a broadcast is queued for it */
+    final Histogram outboundQueueDepth;
+    /** How far each position report was from the host's playback */
+    final Histogram guestDriftMillis;
+    /** How many queued frames went out in each write to a guest's socket */
+    final Histogram writeBatchFrames;
+
+    final Counter connectionsAccepted;
+    final Counter connectionsRefused;
+    final Counter messagesReceived;
+    final Counter slowGuestsDisconnected;
+    final Counter rateCorrections;
+    final Counter seekCorrections;
+    /** Side channel datagrams dropped because a later one had already arrived */
+    final Counter staleDatagrams;
+    final Counter multicastDatagrams;
+    /** Multicast commands a guest missed and asked for again over TCP */
+    final Counter multicastRepairs;
+    /** Connections closed because they didn't finish their handshake in time or went quiet */
+    final Counter connectionsTimedOut;
+
+    ServerMetrics() {
+        this(new MetricsRegistry());
+    }
+
+    ServerMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        handshakeNanos = registry.histogram("handshake.nanos");
+        decodeNanos = registry.histogram("decode.nanos");
+        encodeNanos = registry.histogram("encode.nanos");
+        broadcastNanos = registry.histogram("broadcast.nanos");
+        guestRttNanos = registry.histogram("guest.rtt.nanos");
+        guestSkewNanos = registry.histogram("guest.skew.nanos");
+        outboundQueueDepth = registry.histogram("outbound.queue.depth");
+        guestDriftMillis = registry.histogram("guest.drift.millis");
+        writeBatchFrames = registry.histogram("write.batch.frames");
+        connectionsAccepted = registry.counter("connections.accepted");
+        connectionsRefused = registry.counter("connections.refused");
+        messagesReceived = registry.counter("messages.received");
+        slowGuestsDisconnected = registry.counter("guests.disconnected.slow");
+        rateCorrections = registry.counter("corrections.rate");
+        seekCorrections = registry.counter("corrections.seek");
+        staleDatagrams = registry.counter("sidechannel.datagrams.stale");
+        multicastDatagrams = registry.counter("multicast.datagrams");
+        multicastRepairs = registry.counter("multicast.repairs");
+        connectionsTimedOut = registry.counter("connections.timedout");
+    }
+}
@@ -0,0 +1,310 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.MediaSynchronizationServer.EventHandler;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * One watch room hosted by a {@link SessionRouter}. Each session has its own guests, broadcasts, latency measurements
+ * and event handler, while the event loop threads and scheduler belong to the router and are shared by every session.
+ * Guests are routed to a session by the fingerprint of the file they have open and, optionally, a room id.
+ */
+public class Session {
+    private final SessionRouter router;
+    private final String roomId;
+
+    final AcceptedFingerprints acceptedFingerprints = new AcceptedFingerprints();
+    final BroadcastGroup broadcastGroup;
+    final LatencyMonitor latencyMonitor;
+    final ResumeRegistry resumeRegistry = new ResumeRegistry();
+
+    private volatile EventHandler eventHandler;
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private volatile int outboundQueueCapacity = 64;
+    private long seekCoalescingWindowMillis = SAVPPValues.SEEK_COALESCING_WINDOW_MILLIS;
+    private int maxSeeksPerSecond = SAVPPValues.MAX_SEEKS_PER_SECOND;
+    private SeekCoalescer seekCoalescer;
+    private ScheduledFuture<?> resumeExpiry;
+    private ScheduledFuture<?> multicastHeartbeat;
+
+    /*
+     * Held while broadcasting a command and updating the playback state to match, so that a resuming guest is either
+     * readmitted before a command or caught up on it, never neither
+     */
+    private final Object commandLock = new Object();
+    final PlaybackState playback = new PlaybackState();
+    final DriftCorrector driftCorrector;
+
+    Session(SessionRouter router, String roomId) {
+        this.router = router;
+        this.roomId = roomId;
+        this.broadcastGroup = new BroadcastGroup(router.metrics);
+        this.latencyMonitor = new LatencyMonitor(broadcastGroup, router.metrics);
+        this.driftCorrector = new DriftCorrector(playback, router.metrics);
+    }
+
+    /**
+     * @return The room id guests must send to join this session, or an empty string if they don't need one
+     */
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public void setEventHandler(EventHandler handler) {
+        this.eventHandler = handler;
+    }
+
+    EventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setSlowConsumerPolicy(SlowConsumerPolicy, int)
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy, int queueCapacity) {
+        if(queueCapacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.slowConsumerPolicy = policy;
+        this.outboundQueueCapacity = queueCapacity;
+    }
+
+    void configure(OutboundQueue queue) {
+        queue.configure(outboundQueueCapacity, slowConsumerPolicy);
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setSeekCoalescing(long, int)
+     */
+    public synchronized void setSeekCoalescing(long windowMillis, int maxSeeksPerSecond) {
+        SeekCoalescer.checkSettings(windowMillis, maxSeeksPerSecond);
+        this.seekCoalescingWindowMillis = windowMillis;
+        this.maxSeeksPerSecond = maxSeeksPerSecond;
+    }
+
+    /**
+     * Sets how long the session remembers a guest whose connection dropped. A guest that reconnects within this time
+     * skips the handshake and only receives the commands it missed.
+     */
+    public void setResumeGracePeriod(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("The grace period can't be negative");
+        }
+        resumeRegistry.setGracePeriod(millis);
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setDriftCorrection(int, int, double)
+     */
+    public void setDriftCorrection(int toleranceMillis, int seekThresholdMillis, double maxRateAdjustment) {
+        driftCorrector.configure(toleranceMillis, seekThresholdMillis, maxRateAdjustment);
+    }
+
+    /**
+     * @see MediaSynchronizationServer#addFingerprint(SAVPPProto.FingerprintType, String)
+     */
+    public void addFingerprint(SAVPPProto.FingerprintType type, String fingerprint) {
+        if(!MD5Checker.isHashValid(fingerprint)) {
+            throw new IllegalArgumentException("Invalid MD5 hash");
+        }
+        router.addRoute(this, type, fingerprint);
+        acceptedFingerprints.put(type, fingerprint);
+    }
+
+    /**
+     * @see MediaSynchronizationServer#sendSeekCommand(int)
+     */
+    public void sendSeekCommand(int timestamp) {
+        SeekCoalescer coalescer;
+        synchronized(this) {
+            coalescer = seekCoalescer;
+        }
+        if(coalescer != null) {
+            coalescer.submit(timestamp);
+        } else {
+            broadcastSeek(timestamp);
+        }
+    }
+
+    private void broadcastSeek(int timestamp) {
+        synchronized(commandLock) {
+            playback.seeked(timestamp, System.nanoTime() + broadcastGroup.getLatestArrivalNanos());
+            broadcastGroup.broadcastScheduled((delay, hostTime) -> Frame.seek(timestamp, delay, hostTime));
+        }
+    }
+
+    /**
+     * @see MediaSynchronizationServer#sendPlayCommand()
+     */
+    public void sendPlayCommand() {
+        synchronized(commandLock) {
+            playback.played(System.nanoTime() + broadcastGroup.getLatestArrivalNanos());
+            broadcastGroup.broadcastScheduled(Frame::play);
+        }
+    }
+
+    /**
+     * Adds a resuming guest back to the broadcast group after queueing the commands it missed. Holding the command
+     * lock keeps a concurrent broadcast from landing between the two.
+     */
+    void readmit(Guest guest, long commandVersionWhenDetached) {
+        synchronized(commandLock) {
+            if(playback.getVersion() != commandVersionWhenDetached) {
+                for(Frame frame: catchUpFrames()) {
+                    guest.getOutboundQueue().add(frame);
+                }
+            }
+            broadcastGroup.add(guest);
+        }
+    }
+
+    /**
+     * Moves a resuming guest into the place of its old connection, which hasn't been seen to close yet, and then
+     * closes that connection. The old connection was receiving every command, so the new one is only caught up on
+     * those it still had queued.
+     */
+    void takeOver(Guest previous, Guest guest) {
+        synchronized(commandLock) {
+            broadcastGroup.remove(previous);
+            if(!previous.getOutboundQueue().isEmpty()) {
+                for(Frame frame: catchUpFrames()) {
+                    guest.getOutboundQueue().add(frame);
+                }
+            }
+            broadcastGroup.add(guest);
+        }
+        previous.disconnect();
+    }
+
+    /**
+     * @return A seek to where playback is now, followed by a play if it is playing. Callers must hold the command
+     * lock.
+     */
+    private List<Frame> catchUpFrames() {
+        List<Frame> frames = new ArrayList<>(2);
+        frames.add(Frame.seek(playback.positionAt(System.nanoTime()), 0));
+        if(playback.isPlaying()) {
+            frames.add(Frame.play(0));
+        }
+        return frames;
+    }
+
+    /**
+     * Switches a guest that joined the multicast group over to it. The confirmation is queued under the command lock,
+     * so every command numbered before the sequence it carries has already been queued on the guest's connection.
+     */
+    void joinMulticast(Guest guest, long key) {
+        MulticastSender sender = broadcastGroup.getMulticast();
+        if(sender == null || sender.getKey() != key) {
+            return;
+        }
+        synchronized(commandLock) {
+            guest.getOutboundQueue().add(Frame.of(SAVPPProto.SAVPPMessage.newBuilder()
+                    .setType(SAVPPProto.SAVPPMessage.MessageType.MULTICAST_JOIN)
+                    .setMulticastGroup(SAVPPProto.MulticastGroup.newBuilder()
+                            .setKey(key)
+                            .setSequence(sender.getNextSequence()))
+                    .build()));
+            guest.setMulticast(true);
+        }
+    }
+
+    /**
+     * Answers a guest that missed multicast commands with the commands themselves, or with a seek and play that
+     * catch it up if they are too old to still be kept
+     * @return The repair, or null if the range hasn't been sent
+     */
+    Frame repairMulticast(int from, int to) {
+        MulticastSender sender = broadcastGroup.getMulticast();
+        if(sender == null || !SideChannelCodec.isNewer(sender.getNextSequence(), to)) {
+            return null;
+        }
+        SAVPPProto.MulticastRepair.Builder repair = SAVPPProto.MulticastRepair.newBuilder().setFrom(from).setTo(to);
+        synchronized(commandLock) {
+            List<Frame> frames = sender.history(from, to);
+            if(frames == null) {
+                frames = catchUpFrames();
+            }
+            for(Frame frame: frames) {
+                repair.addFrame(ByteString.copyFrom(frame.buffer()));
+            }
+            router.metrics.multicastRepairs.add(frames.size());
+        }
+        return Frame.of(SAVPPProto.SAVPPMessage.newBuilder()
+                .setType(SAVPPProto.SAVPPMessage.MessageType.MULTICAST_REPAIR)
+                .setMulticastRepair(repair)
+                .build());
+    }
+
+    /**
+     * @return The number of guests currently in this session
+     */
+    public int getGuestCount() {
+        return broadcastGroup.size();
+    }
+
+    /**
+     * Disconnects this session's guests and stops routing new guests to it
+     */
+    public void close() {
+        router.closeSession(this);
+    }
+
+    synchronized void start(ScheduledExecutorService scheduler) {
+        seekCoalescer = new SeekCoalescer(seekCoalescingWindowMillis, maxSeeksPerSecond, scheduler, this::broadcastSeek);
+        latencyMonitor.start(scheduler, SAVPPValues.PING_INTERVAL_MILLIS);
+        long expiryInterval = Math.max(1, resumeRegistry.getGracePeriodMillis());
+        resumeExpiry = scheduler.scheduleAtFixedRate(resumeRegistry::expire, expiryInterval, expiryInterval, TimeUnit.MILLISECONDS);
+        MulticastSender sender = router.createMulticastSender();
+        if(sender != null) {
+            broadcastGroup.setMulticast(sender);
+            multicastHeartbeat = scheduler.scheduleAtFixedRate(sender::sendHeartbeat, SAVPPValues.MULTICAST_HEARTBEAT_INTERVAL_MILLIS,
+                    SAVPPValues.MULTICAST_HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        latencyMonitor.stop();
+        seekCoalescer = null;
+        if(resumeExpiry != null) {
+            resumeExpiry.cancel(false);
+        }
+        if(multicastHeartbeat != null) {
+            multicastHeartbeat.cancel(false);
+        }
+        resumeRegistry.close();
+        for(Guest guest: broadcastGroup.clear()) {
+            guest.disconnect();
+        }
+    }
+}
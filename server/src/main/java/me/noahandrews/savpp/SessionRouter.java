@@ -0,0 +1,1007 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.noahandrews.savpp.MediaSynchronizationServer.EventHandler;
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static me.noahandrews.savpp.SAVPPServer.State;
+import static me.noahandrews.savpp.SAVPPServer.State.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Hosts any number of {@link Session}s on one listening port. Every guest is accepted by the same listener, and its
+ * connection request is routed to the session whose file has the fingerprint it sent, within the room id it sent, if
+ * any. Guests of all sessions are multiplexed over a small, fixed number of selector-driven event loop threads, so
+ * thousands of small rooms cost little more than thousands of guests of a single room.
+ */
+public class SessionRouter implements MediaSynchronizer {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int READ_BUFFER_SIZE = 512;
+
+    private final ServerLifecycle lifecycle = new ServerLifecycle();
+    final ServerMetrics metrics = new ServerMetrics();
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    private final Map<Route, Session> routes = new ConcurrentHashMap<>();
+    private final Map<String, Set<Session>> sessionsByRoomId = new ConcurrentHashMap<>();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService eventLoopExecutor;
+    private ServerSocketChannel serverChannel;
+    private ScheduledExecutorService scheduler;
+    private int sideChannelPort = -1;
+    private SideChannel sideChannel;
+    private int boundSideChannelPort = -1;
+    private InetSocketAddress multicastGroup;
+    private NetworkInterface multicastInterface;
+    private DatagramChannel multicastChannel;
+
+    private final GracefulShutdown shutdown = new GracefulShutdown();
+    private final EventDispatcher dispatcher = new EventDispatcher(Executors.newCachedThreadPool());
+    private final HashedWheelTimer timer = new HashedWheelTimer("SessionRouter timer");
+    private volatile long handshakeTimeoutMillis = SAVPPValues.HANDSHAKE_TIMEOUT_MILLIS;
+    private volatile long idleTimeoutMillis = SAVPPValues.IDLE_TIMEOUT_MILLIS;
+    private volatile Transport transport = Transport.tcp(SAVPPValues.PORT_NUMBER);
+    private volatile int writeBatchMaxBytes = SAVPPValues.WRITE_BATCH_MAX_BYTES;
+    private volatile boolean tcpNoDelay = true;
+    private final GracefulShutdown.OpenConnections<Connection> openConnections = new GracefulShutdown.OpenConnections<>();
+
+    /**
+     * @param eventLoopCount The number of threads that guest connections are spread across
+     */
+    public SessionRouter(int eventLoopCount) {
+        if(eventLoopCount < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        this.eventLoops = new EventLoop[eventLoopCount];
+        metrics.registry.gauge("guests.established", lifecycle::getEstablishedGuestCount);
+        metrics.registry.gauge("sessions", sessions::size);
+    }
+
+    /**
+     * Opens a session that guests join without a room id
+     * @param md5Hash The MD5 hash of the session's file
+     */
+    public Session openSession(String md5Hash) {
+        return openSession(md5Hash, "");
+    }
+
+    /**
+     * @param md5Hash The MD5 hash of the session's file
+     * @param roomId The room id guests must send to join, which lets several sessions watch the same file
+     * @throws IllegalArgumentException If a session for the same file is already open with the same room id
+     */
+    public synchronized Session openSession(String md5Hash, String roomId) {
+        Session session = new Session(this, roomId == null ? "" : roomId);
+        session.addFingerprint(SAVPPProto.FingerprintType.FULL_MD5, md5Hash);
+        sessions.add(session);
+        sessionsByRoomId.computeIfAbsent(session.getRoomId(), id -> ConcurrentHashMap.newKeySet()).add(session);
+        if(scheduler != null) {
+            session.start(scheduler);
+        }
+        return session;
+    }
+
+    synchronized void closeSession(Session session) {
+        if(!sessions.remove(session)) {
+            return;
+        }
+        routes.values().removeIf(routed -> routed == session);
+        Set<Session> room = sessionsByRoomId.get(session.getRoomId());
+        room.remove(session);
+        if(room.isEmpty()) {
+            sessionsByRoomId.remove(session.getRoomId());
+        }
+        session.stop();
+    }
+
+    void addRoute(Session session, SAVPPProto.FingerprintType type, String fingerprint) {
+        Session existing = routes.putIfAbsent(new Route(session.getRoomId(), type, fingerprint), session);
+        if(existing != null && existing != session) {
+            throw new IllegalArgumentException("A session for this file is already open in room \"" + session.getRoomId() + "\"");
+        }
+    }
+
+    /**
+     * @see MediaSynchronizationServer#getMetrics()
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics.registry;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Offers guests that ask for it a UDP side channel for pings, clock probes and position reports, so that they
+     * aren't held up behind TCP retransmits. Commands always stay on TCP.
+     * @param port The UDP port to use, or 0 for any free port
+     */
+    public synchronized void enableSideChannel(int port) {
+        if(lifecycle.getState() != DORMANT) {
+            throw new IllegalStateException("The side channel must be enabled before listening.");
+        }
+        this.sideChannelPort = port;
+    }
+
+    /**
+     * @return The UDP port of the side channel, or -1 if it isn't enabled or the router isn't listening
+     */
+    public synchronized int getSideChannelPort() {
+        return boundSideChannelPort;
+    }
+
+    /**
+     * Sends seek and play commands once to a multicast group instead of once per guest, for guests on the same LAN
+     * that ask for it. Guests ask for commands they missed over their TCP connection. Only IPv4 groups are supported.
+     * @param networkInterface The interface to send from, or null to let the operating system choose
+     */
+    public synchronized void enableMulticast(InetSocketAddress group, NetworkInterface networkInterface) {
+        if(lifecycle.getState() != DORMANT) {
+            throw new IllegalStateException("Multicast must be enabled before listening.");
+        }
+        if(!group.getAddress().isMulticastAddress()) {
+            throw new IllegalArgumentException(group.getAddress() + " is not a multicast address");
+        }
+        this.multicastGroup = group;
+        this.multicastInterface = networkInterface;
+    }
+
+    /**
+     * @return A sender for a new session, or null if multicast isn't enabled
+     */
+    synchronized MulticastSender createMulticastSender() {
+        return multicastChannel == null ? null : new MulticastSender(multicastChannel, multicastGroup, metrics);
+    }
+
+    public synchronized void startListening() throws IOException {
+        logger.traceEntry();
+        if(lifecycle.getState() != DORMANT) {
+            throw new IllegalStateException("startListening() can only be called from the dormant state.");
+        }
+
+        serverChannel = createServerSocketChannel();
+        serverChannel.configureBlocking(false);
+
+        eventLoopExecutor = Executors.newFixedThreadPool(eventLoops.length);
+        for(int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+        }
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+        if(sideChannelPort >= 0) {
+            DatagramChannel datagramChannel = createDatagramChannel(sideChannelPort);
+            datagramChannel.configureBlocking(false);
+            sideChannel = new SideChannel(datagramChannel, metrics);
+            boundSideChannelPort = sideChannel.getPort();
+            datagramChannel.register(eventLoops[0].selector, SelectionKey.OP_READ, sideChannel);
+        }
+        if(multicastGroup != null) {
+            multicastChannel = createMulticastChannel(multicastInterface);
+        }
+
+        lifecycle.transition(DORMANT, LISTENING);
+        for(EventLoop eventLoop: eventLoops) {
+            eventLoopExecutor.execute(eventLoop);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        for(Session session: sessions) {
+            session.start(scheduler);
+        }
+        logger.traceExit();
+    }
+
+    protected ServerSocketChannel createServerSocketChannel() throws IOException {
+        return transport.openServerChannel();
+    }
+
+    /**
+     * Prepares a newly accepted channel before it is handed to an event loop. If this throws, only that channel is
+     * closed.
+     */
+    protected void configureAcceptedChannel(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        if(channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        }
+    }
+
+    protected DatagramChannel createDatagramChannel(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        return channel;
+    }
+
+    protected DatagramChannel createMulticastChannel(NetworkInterface networkInterface) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        if(networkInterface != null) {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        }
+        return channel;
+    }
+
+    /**
+     * @return The router's lifecycle state. This is {@code CONNECTED} whenever the router is listening and at least
+     * one guest of any session is connected.
+     */
+    public State getState() {
+        return lifecycle.getState();
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setShutdownTimeouts(long, long)
+     */
+    public void setShutdownTimeouts(long drainTimeoutMillis, long joinTimeoutMillis) {
+        shutdown.setTimeouts(drainTimeoutMillis, joinTimeoutMillis);
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setTransport(Transport)
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setConnectionTimeouts(long, long)
+     */
+    public void setConnectionTimeouts(long handshakeTimeoutMillis, long idleTimeoutMillis) {
+        if(handshakeTimeoutMillis < 0 || idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Connection timeouts can't be negative");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @see MediaSynchronizationServer#setWriteBatching(int, boolean)
+     */
+    public void setWriteBatching(int maxBatchBytes, boolean tcpNoDelay) {
+        if(maxBatchBytes < 1) {
+            throw new IllegalArgumentException("The write batch limit must be at least one byte");
+        }
+        this.writeBatchMaxBytes = maxBatchBytes;
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Stops accepting guests right away, then sends every guest a SERVER_SHUTTING_DOWN error after whatever it still
+     * has queued. Connections close as soon as they are flushed; those that haven't by the drain timeout are closed
+     * anyway, and the event loops are given until the join timeout to stop.
+     */
+    @Override
+    public CompletableFuture<Void> tearDown() throws ExecutionException, InterruptedException, IOException {
+        if(!lifecycle.beginDestroying()) {
+            return shutdown.getFuture();
+        }
+
+        synchronized(this) {
+            if(serverChannel != null) {
+                serverChannel.close();
+                // The port is only released once the accepting event loop deregisters the channel
+                eventLoops[0].selector.wakeup();
+            }
+            if(scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+
+        return shutdown.start("SessionRouter shutdown", this::drain, this::release);
+    }
+
+    private void drain(long deadlineNanos) throws InterruptedException {
+        synchronized(this) {
+            for(Session session: sessions) {
+                session.broadcastGroup.clear();
+            }
+        }
+        for(Connection connection: openConnections.snapshot()) {
+            connection.eventLoop.execute(connection::finish);
+        }
+        if(!openConnections.awaitEmpty(deadlineNanos)) {
+            logger.debug("Guests were not flushed in time; closing their connections");
+        }
+    }
+
+    private void release(long deadlineNanos) throws InterruptedException, IOException {
+        synchronized(this) {
+            for(Session session: sessions) {
+                session.stop();
+            }
+        }
+        for(EventLoop eventLoop: eventLoops) {
+            if(eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+        if(!GracefulShutdown.awaitTermination(eventLoopExecutor, deadlineNanos)) {
+            logger.debug("Event loops did not stop in time.");
+        }
+        GracefulShutdown.awaitTermination(dispatcher.getExecutor(), deadlineNanos);
+        timer.stop();
+
+        if(multicastChannel != null) {
+            multicastChannel.close();
+        }
+        metrics.registry.unregisterMBeans();
+        lifecycle.transition(DESTROYING, DESTROYED);
+    }
+
+    private EventLoop nextEventLoop() {
+        return eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+    }
+
+    /**
+     * The session a guest is trying to join when no session matches its request exactly. This is only known when
+     * there is a single session with the requested room id, which is always the case for a {@link SAVPPNioServer}.
+     */
+    private Session soleSessionInRoom(String roomId) {
+        Set<Session> room = sessionsByRoomId.get(roomId);
+        if(room == null || room.size() != 1) {
+            return null;
+        }
+        Iterator<Session> iterator = room.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static final class Route {
+        private final String roomId;
+        private final SAVPPProto.FingerprintType type;
+        private final String fingerprint;
+
+        Route(String roomId, SAVPPProto.FingerprintType type, String fingerprint) {
+            this.roomId = roomId;
+            this.type = type;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Route)) {
+                return false;
+            }
+            Route route = (Route) o;
+            return roomId.equals(route.roomId) && type == route.type && fingerprint.equals(route.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(roomId, type, fingerprint);
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            logger.traceEntry("EventLoop.run()");
+            try {
+                while(running) {
+                    selector.select();
+                    Runnable task;
+                    while((task = pendingTasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            logger.error("Event loop task failed", e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while(keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if(!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            handle(key);
+                        } catch (RuntimeException e) {
+                            // Only this key's channel is affected; everyone else on the loop carries on
+                            logger.error("Failed to handle a selected channel; closing it", e);
+                            closeChannel(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Selector failed; closing every channel on this event loop", e);
+                //TODO: notify the API consumer that something went wrong
+            } finally {
+                for(SelectionKey key: selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+            }
+            logger.debug("Event loop shutting down.");
+            logger.traceExit();
+        }
+
+        private void handle(SelectionKey key) {
+            if(key.isAcceptable()) {
+                accept();
+            } else if(key.attachment() instanceof SideChannel) {
+                readSideChannel((SideChannel) key.attachment());
+            } else {
+                Connection connection = (Connection) key.attachment();
+                if(key.isReadable()) {
+                    connection.read();
+                }
+                if(key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+        }
+
+        private void closeChannel(SelectionKey key) {
+            if(key.attachment() instanceof Connection) {
+                try {
+                    ((Connection) key.attachment()).close();
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Failed to close a connection cleanly", e);
+                }
+            }
+            if(key.channel() != serverChannel) {
+                key.cancel();
+                closeQuietly(key.channel());
+            }
+        }
+
+        private void readSideChannel(SideChannel channel) {
+            try {
+                channel.read();
+            } catch (IOException e) {
+                logger.debug("Side channel read failed: " + e.getMessage());
+            }
+        }
+
+        private void accept() {
+            while(true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    // Most likely out of file descriptors; the key stays selected, so we'll try again next time round
+                    logger.error("Failed to accept a connection", e);
+                    return;
+                }
+                if(channel == null) {
+                    return;
+                }
+                logger.debug("Accepted connection");
+                try {
+                    configureAcceptedChannel(channel);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to set up an accepted connection; closing it", e);
+                    closeQuietly(channel);
+                    continue;
+                }
+                EventLoop owner = nextEventLoop();
+                owner.execute(() -> owner.register(channel));
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                Connection connection = new Connection(this, key);
+                key.attach(connection);
+                openConnections.add(connection);
+                connection.opened();
+            } catch (IOException e) {
+                logger.error("Failed to register an accepted connection; closing it", e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private class Connection implements OutboundQueue.Listener, SideChannel.Handler {
+        private final EventLoop eventLoop;
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final DelimitedFraming.Decoder decoder = new DelimitedFraming.Decoder(READ_BUFFER_SIZE);
+        private final DecodedMessage message = new DecodedMessage();
+        private final OutboundQueue outbound;
+        private final Guest guest;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        // Frames taken off the outbound queue that haven't been completely written, from writeBatchStart on
+        private final ByteBuffer[] writeBatch = new ByteBuffer[SAVPPValues.WRITE_BATCH_MAX_FRAMES];
+        private final int maxBatchBytes = writeBatchMaxBytes;
+        private int writeBatchStart = 0;
+        private int writeBatchEnd = 0;
+        // Whether the guest negotiated the fixed layout for high-frequency messages
+        private boolean fixedLayout = false;
+        private boolean closeAfterFlush = false;
+        private final Handshake handshake = new Handshake();
+        private final EventDispatcher.Lane events = dispatcher.newLane();
+        private final ConnectionTimeouts timeouts;
+        private Session session;
+        private String resumeToken;
+        private final long openedAtNanos = System.nanoTime();
+        private SideChannel.Endpoint sideChannelEndpoint;
+
+        Connection(EventLoop eventLoop, SelectionKey key) {
+            this.eventLoop = eventLoop;
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+            this.outbound = new OutboundQueue(64, SlowConsumerPolicy.COALESCE, this);
+            this.guest = new Guest(outbound, () -> eventLoop.execute(this::close));
+            this.timeouts = new ConnectionTimeouts(timer, handshakeTimeoutMillis, idleTimeoutMillis, () -> eventLoop.execute(() -> {
+                metrics.connectionsTimedOut.increment();
+                close();
+            }));
+            metrics.connectionsAccepted.increment();
+        }
+
+        @Override
+        public void framesAvailable() {
+            if(flushScheduled.compareAndSet(false, true)) {
+                eventLoop.execute(() -> {
+                    flushScheduled.set(false);
+                    if(key.isValid()) {
+                        flush();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void overflowed() {
+            eventLoop.execute(() -> {
+                logger.debug("Disconnecting guest that is not keeping up with broadcasts");
+                metrics.slowGuestsDisconnected.increment();
+                close();
+            });
+        }
+
+        void opened() {
+            if(!lifecycle.isListening()) {
+                sendErrorMessage(SAVPPProto.Error.ErrorType.NOT_ACCEPTING_CONNECTIONS);
+                closeAfterFlush();
+                return;
+            }
+            timeouts.start();
+        }
+
+        void read() {
+            try {
+                int read = channel.read(decoder.writableBuffer());
+                if(read < 0) {
+                    close();
+                    return;
+                }
+                long receivedAtNanos = System.nanoTime();
+                long decodeStart = receivedAtNanos;
+                timeouts.received();
+                while(!closeAfterFlush && key.isValid() && decoder.next(message)) {
+                    metrics.decodeNanos.record(System.nanoTime() - decodeStart);
+                    metrics.messagesReceived.increment();
+                    handle(message, receivedAtNanos);
+                    decodeStart = System.nanoTime();
+                }
+            } catch (InvalidProtocolBufferException e) {
+                logger.debug("Invalid data received.");
+                sendErrorMessage(SAVPPProto.Error.ErrorType.INVALID_DATA);
+                closeAfterFlush();
+            } catch (IOException e) {
+                logger.debug("Connection lost: " + e.getMessage());
+                close();
+            }
+        }
+
+        private void handle(DecodedMessage message, long receivedAtNanos) {
+            if(message.getType() == SAVPPMessage.MessageType.PONG) {
+                if(isEstablished()) {
+                    session.latencyMonitor.pongReceived(guest, message.getSequence(), receivedAtNanos);
+                }
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.SEEK_COMMAND) {
+                EventHandler handler = isEstablished() ? session.getEventHandler() : null;
+                if(handler != null) {
+                    int timestamp = message.getTimestamp();
+                    events.execute(() -> handler.seekRequested(timestamp));
+                }
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.POSITION_REPORT) {
+                positionReported(message.getPosition(), message.getHostTime());
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.SIDE_CHANNEL_ACCEPT) {
+                SideChannel.Endpoint endpoint = sideChannelEndpoint;
+                if(isEstablished() && endpoint != null && endpoint.getKey() == message.getMessage().getSideChannel().getKey()) {
+                    logger.debug("Side channel established");
+                    endpoint.activate();
+                    guest.setSideChannel(endpoint);
+                }
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.MULTICAST_JOIN) {
+                if(isEstablished()) {
+                    logger.debug("Guest joined the multicast group");
+                    session.joinMulticast(guest, message.getMessage().getMulticastGroup().getKey());
+                }
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.NACK) {
+                SAVPPProto.Nack nack = message.getMessage().getNack();
+                Frame repair = isEstablished() && guest.isMulticast() ? session.repairMulticast(nack.getFrom(), nack.getTo()) : null;
+                if(repair != null) {
+                    outbound.add(repair);
+                }
+                return;
+            } else if(message.getType() == SAVPPMessage.MessageType.CLOCK_PROBE) {
+                outbound.add(Frame.clockProbeReply(message.getOriginateTime(), receivedAtNanos, System.nanoTime()));
+                return;
+            } else if(message.getType() != SAVPPMessage.MessageType.CONNECTION_REQUEST) {
+                return;
+            }
+            if(!handshake.beginVerifying()) {
+                sendErrorMessage(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED);
+                closeAfterFlush();
+                return;
+            }
+            logger.debug("Connection request received");
+            SAVPPProto.ConnectionRequest request = message.getMessage().getConnectionRequest();
+            Session target = routes.get(new Route(request.getRoomId(), request.getFingerprintType(), request.getMd5()));
+            if(target != null) {
+                acceptCapabilities(request);
+                ResumeRegistry.Snapshot snapshot = request.getResumeToken().isEmpty() ? null
+                        : target.resumeRegistry.resume(request.getResumeToken(), guest);
+                if(snapshot != null) {
+                    resume(target, snapshot);
+                    offerTransports(request);
+                } else {
+                    join(target, request);
+                }
+                return;
+            }
+
+            metrics.connectionsRefused.increment();
+            Session intended = soleSessionInRoom(request.getRoomId());
+            if(intended == null) {
+                logger.debug("No session matches the connection request");
+                sendErrorMessage(SAVPPProto.Error.ErrorType.NO_MATCHING_SESSION);
+                closeAfterFlush();
+            } else if(intended.acceptedFingerprints.check(request) == AcceptedFingerprints.Match.UNSUPPORTED_TYPE) {
+                logger.debug("Unsupported fingerprint type received");
+                sendErrorMessage(SAVPPProto.Error.ErrorType.FINGERPRINT_TYPE_NOT_SUPPORTED);
+                closeAfterFlush();
+            } else {
+                logger.debug("Incorrect hash received");
+                EventHandler handler = intended.getEventHandler();
+                if(handler != null) {
+                    String md5 = request.getMd5();
+                    events.execute(() -> handler.incorrectMD5HashReceived(md5));
+                }
+                close();
+            }
+        }
+
+        /**
+         * Answers a guest that listed optional protocol features with the ones both sides will use, which is all of
+         * those this server knows about
+         */
+        private void acceptCapabilities(SAVPPProto.ConnectionRequest request) {
+            if(!request.hasCapabilities()) {
+                return;
+            }
+            fixedLayout = request.getCapabilities().getFixedLayout();
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.CAPABILITIES)
+                    .setCapabilities(SAVPPProto.Capabilities.newBuilder().setFixedLayout(fixedLayout))
+                    .build());
+        }
+
+        private void join(Session target, SAVPPProto.ConnectionRequest request) {
+            session = target;
+            target.configure(outbound);
+            handshake.establish();
+            timeouts.established();
+            lifecycle.guestEstablished();
+            EventHandler handler = target.getEventHandler();
+            if(handler == null) {
+                admit(target, request, 0);
+            } else {
+                dispatcher.guestJoined(events, handler, timestamp -> eventLoop.execute(() -> admit(target, request, timestamp)));
+            }
+        }
+
+        /**
+         * Starts sending broadcasts to a guest once the event handler has said where it should start. Only called
+         * from this connection's event loop.
+         */
+        private void admit(Session target, SAVPPProto.ConnectionRequest request, int timestamp) {
+            if(!key.isValid() || closeAfterFlush) {
+                return; //The guest left, or the server started shutting down, while the handler was answering
+            }
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SEEK_COMMAND)
+                    .setSeekCommand(SAVPPProto.SeekCommand.newBuilder().setTimestamp(timestamp))
+                    .build());
+            target.playback.positionReported(timestamp);
+            if(request.getResumable()) {
+                resumeToken = target.resumeRegistry.issueToken();
+                target.resumeRegistry.attached(resumeToken, guest);
+                sendSessionToken(false);
+            }
+            target.broadcastGroup.add(guest);
+            metrics.handshakeNanos.record(System.nanoTime() - openedAtNanos);
+            offerTransports(request);
+        }
+
+        private void offerTransports(SAVPPProto.ConnectionRequest request) {
+            if(request.getSideChannel()) {
+                offerSideChannel();
+            }
+            if(request.getMulticast()) {
+                offerMulticast();
+            }
+        }
+
+        private void offerMulticast() {
+            MulticastSender sender = session.broadcastGroup.getMulticast();
+            if(sender == null) {
+                return;
+            }
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.MULTICAST_OFFER)
+                    .setMulticastGroup(SAVPPProto.MulticastGroup.newBuilder()
+                            .setKey(sender.getKey())
+                            .setAddress(sender.getGroup().getAddress().getHostAddress())
+                            .setPort(sender.getGroup().getPort()))
+                    .build());
+        }
+
+        /**
+         * Rejoins a guest that reconnected within the grace period, closing its old connection if that is still open.
+         * The event handler isn't involved: the guest keeps its token and only receives the commands it missed.
+         */
+        private void resume(Session target, ResumeRegistry.Snapshot snapshot) {
+            logger.debug("Resuming guest");
+            session = target;
+            target.configure(outbound);
+            handshake.establish();
+            timeouts.established();
+            lifecycle.guestEstablished();
+            resumeToken = snapshot.getToken();
+            sendSessionToken(true);
+            if(snapshot.getPreviousGuest() != null) {
+                target.takeOver(snapshot.getPreviousGuest(), guest);
+            } else {
+                target.readmit(guest, snapshot.getCommandVersion());
+            }
+            metrics.handshakeNanos.record(System.nanoTime() - openedAtNanos);
+        }
+
+        private void offerSideChannel() {
+            if(sideChannel == null) {
+                return;
+            }
+            sideChannelEndpoint = sideChannel.open(this);
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SIDE_CHANNEL_OFFER)
+                    .setSideChannel(SAVPPProto.SideChannel.newBuilder()
+                            .setKey(sideChannelEndpoint.getKey())
+                            .setPort(boundSideChannelPort))
+                    .build());
+        }
+
+        /**
+         * Handles a datagram from this guest's side channel. Runs on the event loop that reads the side channel,
+         * which may not be this connection's.
+         */
+        @Override
+        public void received(SideChannel.Endpoint endpoint, DecodedMessage message, long receivedAtNanos) {
+            timeouts.received();
+            switch(message.getType()) {
+                case PONG:
+                    if(isEstablished()) {
+                        session.latencyMonitor.pongReceived(guest, message.getSequence(), receivedAtNanos);
+                    }
+                    break;
+                case CLOCK_PROBE:
+                    endpoint.send(Frame.clockProbeReply(message.getOriginateTime(), receivedAtNanos, System.nanoTime()));
+                    break;
+                case POSITION_REPORT:
+                    positionReported(message.getPosition(), message.getHostTime());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void positionReported(int position, long hostTime) {
+            if(!isEstablished()) {
+                return;
+            }
+            Frame correction = session.driftCorrector.positionReported(guest, position, hostTime);
+            if(correction != null) {
+                outbound.offer(correction);
+            }
+        }
+
+        private void sendSessionToken(boolean resumed) {
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SESSION_TOKEN)
+                    .setSessionToken(SAVPPProto.SessionToken.newBuilder()
+                            .setToken(resumeToken)
+                            .setResumed(resumed))
+                    .build());
+        }
+
+        private boolean isEstablished() {
+            return handshake.getState() == Handshake.State.ESTABLISHED;
+        }
+
+        /**
+         * Queues a message that must reach the guest. Only called from this connection's event loop.
+         */
+        void send(SAVPPMessage message) {
+            outbound.add(Frame.of(message));
+        }
+
+        void flush() {
+            try {
+                while(true) {
+                    if(writeBatchStart == writeBatchEnd && !fillWriteBatch()) {
+                        break;
+                    }
+                    channel.write(writeBatch, writeBatchStart, writeBatchEnd - writeBatchStart);
+                    while(writeBatchStart < writeBatchEnd && !writeBatch[writeBatchStart].hasRemaining()) {
+                        writeBatch[writeBatchStart++] = null;
+                    }
+                    if(writeBatchStart < writeBatchEnd) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                if(key.isValid()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                if(closeAfterFlush) {
+                    close();
+                }
+            } catch (IOException e) {
+                logger.debug("Connection lost: " + e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * Takes whatever is queued, up to the batch limits, so that it can go out in one gathering write. Never waits
+         * for more frames, so a lone command is written as soon as it's queued.
+         * @return false if nothing was queued
+         */
+        private boolean fillWriteBatch() {
+            writeBatchStart = 0;
+            writeBatchEnd = 0;
+            int bytes = 0;
+            Frame frame;
+            while(writeBatchEnd < writeBatch.length && bytes < maxBatchBytes) {
+                if((frame = outbound.poll()) == null) {
+                    break;
+                }
+                if(fixedLayout) {
+                    frame = frame.inFixedLayout();
+                }
+                writeBatch[writeBatchEnd++] = frame.buffer();
+                bytes += frame.size();
+            }
+            if(writeBatchEnd == 0) {
+                return false;
+            }
+            metrics.writeBatchFrames.record(writeBatchEnd);
+            return true;
+        }
+
+        private void closeAfterFlush() {
+            closeAfterFlush = true;
+            if(outbound.isEmpty() && writeBatchStart == writeBatchEnd) {
+                close();
+            } else if(key.isValid()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void close() {
+            timeouts.cancel();
+            if(session != null) {
+                session.broadcastGroup.remove(guest);
+            }
+            outbound.clear();
+            if(sideChannelEndpoint != null) {
+                sideChannel.close(sideChannelEndpoint);
+            }
+            key.cancel();
+            closeQuietly(channel);
+            if(handshake.close() == Handshake.State.ESTABLISHED) {
+                lifecycle.guestClosed();
+                if(resumeToken != null) {
+                    session.resumeRegistry.detached(resumeToken, guest, session.playback.getVersion());
+                }
+            }
+            openConnections.remove(this);
+        }
+
+        /**
+         * Sends the guest a final notice behind whatever is still queued, then closes the connection once it has all
+         * been written
+         */
+        void finish() {
+            if(key.isValid() && !closeAfterFlush) {
+                sendErrorMessage(SAVPPProto.Error.ErrorType.SERVER_SHUTTING_DOWN);
+                closeAfterFlush();
+            }
+        }
+
+        private void sendErrorMessage(SAVPPProto.Error.ErrorType errorType) {
+            logger.debug("Sending error message of type " + errorType);
+            send(SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.ERROR)
+                    .setError(SAVPPProto.Error.newBuilder().setType(errorType))
+                    .build());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
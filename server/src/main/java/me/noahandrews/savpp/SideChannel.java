@@ -0,0 +1,184 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * The host's end of the UDP side channel: one datagram socket shared by every guest, which tells guests apart by the
+ * key each was offered over TCP. Reading happens on an event loop; sending may happen from any thread.
+ */
+class SideChannel {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final DatagramChannel channel;
+    private final ServerMetrics metrics;
+    private final Map<Long, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+    private final DecodedMessage message = new DecodedMessage();
+
+    /**
+     * @param channel A bound, non-blocking channel
+     */
+    SideChannel(DatagramChannel channel, ServerMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    Endpoint open(Handler handler) {
+        while(true) {
+            Endpoint endpoint = new Endpoint(random.nextLong(), handler);
+            if(endpoints.putIfAbsent(endpoint.key, endpoint) == null) {
+                return endpoint;
+            }
+        }
+    }
+
+    void close(Endpoint endpoint) {
+        endpoints.remove(endpoint.key);
+    }
+
+    /**
+     * Handles every datagram that has arrived. Called by the event loop when the channel is readable.
+     */
+    void read() throws IOException {
+        SocketAddress sender;
+        receiveBuffer.clear();
+        while((sender = channel.receive(receiveBuffer)) != null) {
+            long receivedAtNanos = System.nanoTime();
+            receiveBuffer.flip();
+            received(sender, receivedAtNanos);
+            receiveBuffer.clear();
+        }
+    }
+
+    private void received(SocketAddress sender, long receivedAtNanos) {
+        if(receiveBuffer.remaining() < SideChannelCodec.HEADER_SIZE) {
+            return;
+        }
+        Endpoint endpoint = endpoints.get(SideChannelCodec.readKey(receiveBuffer));
+        if(endpoint == null) {
+            return; //Not a guest we know, or one that has left
+        }
+        int sequence = SideChannelCodec.readSequence(receiveBuffer);
+        if(endpoint.hasReceived && !SideChannelCodec.isNewer(sequence, endpoint.latestSequence)) {
+            metrics.staleDatagrams.increment();
+            return;
+        }
+        try {
+            SideChannelCodec.decode(receiveBuffer, message);
+        } catch (InvalidProtocolBufferException e) {
+            logger.debug("Invalid side channel datagram: " + e.getMessage());
+            return;
+        }
+        endpoint.hasReceived = true;
+        endpoint.latestSequence = sequence;
+        endpoint.address = sender; //Follow the guest if its NAT gives it a new port
+        if(message.getType() == SAVPPMessage.MessageType.SIDE_CHANNEL_HELLO) {
+            endpoint.send(Frame.of(SAVPPMessage.newBuilder().setType(SAVPPMessage.MessageType.SIDE_CHANNEL_HELLO).build()));
+        } else {
+            endpoint.handler.received(endpoint, message, receivedAtNanos);
+        }
+    }
+
+    class Endpoint {
+        private final long key;
+        private final Handler handler;
+        private final AtomicInteger nextSequence = new AtomicInteger();
+        private volatile SocketAddress address;
+        private volatile boolean active = false;
+        //Only touched by the event loop that reads the channel
+        private boolean hasReceived = false;
+        private int latestSequence;
+
+        Endpoint(long key, Handler handler) {
+            this.key = key;
+            this.handler = handler;
+        }
+
+        long getKey() {
+            return key;
+        }
+
+        /**
+         * Marks the channel as working in both directions, once the guest has confirmed it over TCP
+         */
+        void activate() {
+            active = true;
+        }
+
+        boolean isActive() {
+            return active;
+        }
+
+        /**
+         * Sends a frame without waiting. Datagrams that don't fit in the socket buffer are dropped, like any other
+         * lost datagram.
+         * @return False if the guest hasn't sent a datagram yet, so there is nowhere to send to
+         */
+        boolean send(Frame frame) {
+            SocketAddress target = address;
+            if(target == null) {
+                return false;
+            }
+            try {
+                channel.send(SideChannelCodec.encode(key, nextSequence.getAndIncrement(), frame), target);
+            } catch (IOException e) {
+                logger.debug("Failed to send datagram: " + e.getMessage());
+            }
+            return true;
+        }
+    }
+
+    interface Handler {
+        /**
+         * Called on the event loop for every fresh datagram except hellos, which the side channel answers itself
+         */
+        void received(Endpoint endpoint, DecodedMessage message, long receivedAtNanos);
+    }
+}
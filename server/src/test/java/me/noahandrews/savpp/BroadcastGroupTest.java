@@ -0,0 +1,92 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class BroadcastGroupTest {
+    private static final OutboundQueue.Listener NO_OP_LISTENER = new OutboundQueue.Listener() {
+        @Override
+        public void framesAvailable() {}
+
+        @Override
+        public void overflowed() {}
+    };
+
+    private static Guest guestWithRtt(long rttMillis) {
+        Guest guest = new Guest(new OutboundQueue(8, SlowConsumerPolicy.DROP, NO_OP_LISTENER));
+        guest.getRttEstimator().addSample(TimeUnit.MILLISECONDS.toNanos(rttMillis));
+        return guest;
+    }
+
+    private static SAVPPMessage receivedMessage(Guest guest) throws InvalidProtocolBufferException {
+        ByteBuffer frame = guest.getOutboundQueue().poll().buffer();
+        DelimitedFraming.Decoder decoder = new DelimitedFraming.Decoder(frame.remaining());
+        decoder.writableBuffer().put(frame);
+        return decoder.next();
+    }
+
+    @Test
+    public void broadcastEncodesOnce() throws Exception {
+        BroadcastGroup group = new BroadcastGroup();
+        Guest first = guestWithRtt(10);
+        Guest second = guestWithRtt(10);
+        group.add(first);
+        group.add(second);
+
+        AtomicInteger encodes = new AtomicInteger();
+        group.broadcastScheduled((delay, hostTime) -> {
+            encodes.incrementAndGet();
+            return Frame.play(delay, hostTime);
+        });
+
+        assertEquals(1, encodes.get());
+        assertSame(first.getOutboundQueue().poll(), second.getOutboundQueue().poll());
+    }
+
+    @Test
+    public void closerGuestsWaitLonger() throws Exception {
+        BroadcastGroup group = new BroadcastGroup();
+        Guest distant = guestWithRtt(100);
+        Guest near = guestWithRtt(20);
+        group.add(distant);
+        group.add(near);
+
+        group.broadcastScheduled((delay, hostTime) -> Frame.seek(42, delay, hostTime));
+
+        int distantDelay = receivedMessage(distant).getSeekCommand().getDelay();
+        int nearDelay = receivedMessage(near).getSeekCommand().getDelay();
+        assertEquals(40, nearDelay - distantDelay);
+    }
+}
@@ -1,20 +1,27 @@
 package me.noahandrews.savpp;
 
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
 
 import java.io.InputStream;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
 import static me.noahandrews.savpp.SAVPPServer.State.CONNECTED;
+import static me.noahandrews.savpp.SAVPPServer.State.DESTROYED;
 import static me.noahandrews.savpp.SAVPPServer.State.LISTENING;
 import static me.noahandrews.savpp.TestUtils.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * MIT License
@@ -47,6 +54,9 @@ public class ConnectionTests {
     @Rule
     public Timeout timeout = new Timeout(1000000, TimeUnit.MILLISECONDS);
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Rule
     public ServerConnector serverConnector = new ServerConnector(MD5_HASH);
 
@@ -69,7 +79,32 @@ public class ConnectionTests {
 
         latch.await();
         assertEquals(LISTENING, savppServer.getState());
-        savppServer.tearDown();
+        savppServer.tearDown().get();
+    }
+
+    @Test @SkipServerSetup
+    public void virtualThreadConnection() throws Exception {
+        printTestHeader("virtual thread connection test");
+        Assume.assumeTrue(ExecutorStrategy.isVirtualThreadSupported());
+
+        SAVPPServer savppServer = new SAVPPServer(MD5_HASH, ExecutorStrategy.virtualThreads());
+        CountDownLatch started = new CountDownLatch(1);
+        savppServer.setEventHandler(new SAVPPServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        savppServer.startListening();
+        started.await();
+
+        try(Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendConnectionRequest(socket, MD5_HASH);
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(socket.getInputStream()).getType());
+            assertEquals(CONNECTED, savppServer.getState());
+        } finally {
+            savppServer.tearDown().get();
+        }
     }
 
     @Test
@@ -100,7 +135,7 @@ public class ConnectionTests {
 
         assertEquals(CONNECTED, serverConnector.getServer().getState());
 
-        SAVPPMessage message = SAVPPMessage.parseDelimitedFrom(serverConnector.getSocket().getInputStream());
+        SAVPPMessage message = readMessage(serverConnector.getSocket().getInputStream());
         assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, message.getType());
         assertEquals(message.getSeekCommand().getTimestamp(), 0);
     }
@@ -113,6 +148,14 @@ public class ConnectionTests {
         new SAVPPServer("1234567890abcdef");
     }
 
+    @Test @SkipServerSetup
+    public void invalidSeekCoalescingIsRejected() throws Exception {
+        printTestHeader("invalid seek coalescing test");
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("The seek coalescing window can't be negative");
+        new SAVPPServer(MD5_HASH).setSeekCoalescing(-1, 10);
+    }
+
     @Test
     public void invalidData() throws Exception {
         printTestHeader("invalid data test");
@@ -122,7 +165,7 @@ public class ConnectionTests {
         serverConnector.getSocket().getOutputStream().write("This is not a SAVPP Message".getBytes());
 
         InputStream inputStream = serverConnector.getSocket().getInputStream();
-        SAVPPMessage message = SAVPPMessage.parseDelimitedFrom(inputStream);
+        SAVPPMessage message = readMessage(inputStream);
 
         assertEquals(SAVPPProto.Error.ErrorType.INVALID_DATA, message.getError().getType());
     }
@@ -131,29 +174,159 @@ public class ConnectionTests {
     public void twoConnectionRequests() throws Exception {
         printTestHeader("double connection request test");
         testUtils.connectToServer();
-        SAVPPMessage message1 = SAVPPMessage.parseDelimitedFrom(serverConnector.getSocket().getInputStream());
+        SAVPPMessage message1 = readMessage(serverConnector.getSocket().getInputStream());
         assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, message1.getType());
 
         logger.debug("Submitting second connection request");
         testUtils.submitConnectionRequest();
 
         InputStream inputStream = serverConnector.getSocket().getInputStream();
-        SAVPPMessage message = SAVPPMessage.parseDelimitedFrom(inputStream);
+        SAVPPMessage message = readMessage(inputStream);
         assertEquals(SAVPPMessage.MessageType.ERROR, message.getType());
         assertEquals(SAVPPProto.Error.ErrorType.ALREADY_CONNECTED, message.getError().getType());
     }
 
     @Test
     public void twoSocketConnections() throws Exception {
-        printTestHeader("double connection request test");
+        printTestHeader("double socket connection test");
         testUtils.connectToServer();
+        InputStream firstStream = serverConnector.getSocket().getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(firstStream).getType());
+
+        try(Socket secondSocket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendConnectionRequest(secondSocket, MD5_HASH);
+            InputStream secondStream = secondSocket.getInputStream();
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(secondStream).getType());
+
+            serverConnector.getServer().sendSeekCommand(5000);
+            assertEquals(5000, readMessage(firstStream).getSeekCommand().getTimestamp());
+            assertEquals(5000, readMessage(secondStream).getSeekCommand().getTimestamp());
+        }
+    }
+
+    @Test @SkipServerSetup
+    public void unixDomainSocketTransport() throws Exception {
+        printTestHeader("Unix domain socket test");
+        Assume.assumeTrue(Transport.isUnixDomainSupported());
+        Transport transport = Transport.unixDomain(temporaryFolder.getRoot().toPath().resolve("savpp.sock"));
+        SAVPPServer server = new SAVPPServer(MD5_HASH);
+        server.setTransport(transport);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new SAVPPServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        server.startListening();
+        started.await();
+
+        try(Socket socket = transport.openSocket()) {
+            sendConnectionRequest(socket, MD5_HASH);
+            InputStream stream = socket.getInputStream();
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(stream).getType());
+            server.sendSeekCommand(5000);
+            assertEquals(5000, readMessage(stream).getSeekCommand().getTimestamp());
+        } finally {
+            server.tearDown().get();
+        }
+    }
 
-        Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+    @Test @SkipServerSetup
+    public void handshakeTimesOut() throws Exception {
+        printTestHeader("handshake timeout test");
+        SAVPPServer server = new SAVPPServer(MD5_HASH);
+        server.setConnectionTimeouts(200, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new SAVPPServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        server.startListening();
+        started.await();
+
+        try(Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            // The guest never sends a connection request, so the host hangs up instead of waiting forever
+            assertNull(readMessage(socket.getInputStream()));
+            assertEquals(1, server.getMetrics().counter("connections.timedout").getCount());
+        } finally {
+            server.tearDown().get();
+        }
+    }
 
-        SAVPPMessage message = SAVPPMessage.parseDelimitedFrom(socket.getInputStream());
+    @Test @SkipServerSetup
+    public void writeBatching() throws Exception {
+        printTestHeader("write batching test");
+        // Commands queued while the guest's writer is held up go out together, unless batching is off
+        assertTrue(countWrites(SAVPPValues.WRITE_BATCH_MAX_BYTES, 20) < 10);
+        assertTrue(countWrites(1, 20) >= 20);
+    }
+
+    /**
+     * Holds up a guest's writer while broadcasting play commands
+     * @return How many writes it took to send them
+     */
+    private int countWrites(int maxBatchBytes, int commands) throws Exception {
+        CountingTransport transport = new CountingTransport();
+        SAVPPServer server = new SAVPPServer(MD5_HASH);
+        server.setTransport(transport);
+        server.setWriteBatching(maxBatchBytes, true);
+        CountDownLatch started = new CountDownLatch(1);
+        server.setEventHandler(new SAVPPServer.EventHandler() {
+            @Override
+            public void serverStarted() {
+                started.countDown();
+            }
+        });
+        try {
+            server.startListening();
+            started.await();
+            try(Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+                sendConnectionRequest(socket, MD5_HASH);
+                InputStream stream = socket.getInputStream();
+                assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(stream).getType());
+                CountingTransport.CountingOutputStream guestStream = transport.nextAcceptedStream();
+                int writesBefore;
+                synchronized(guestStream) {
+                    writesBefore = guestStream.getWrites();
+                    for(int i = 0; i < commands; i++) {
+                        server.sendPlayCommand();
+                    }
+                }
+                for(int i = 0; i < commands; i++) {
+                    assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, readMessage(stream).getType());
+                }
+                return guestStream.getWrites() - writesBefore;
+            }
+        } finally {
+            server.tearDown().get();
+        }
+    }
 
-        assertEquals(SAVPPProto.Error.ErrorType.NOT_ACCEPTING_CONNECTIONS, message.getError().getType());
-        assertEquals(-1, socket.getInputStream().read());
+    @Test
+    public void tearDownDrainsGuests() throws Exception {
+        printTestHeader("graceful shutdown test");
+        testUtils.connectToServer();
+        InputStream stream = serverConnector.getSocket().getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(stream).getType());
+
+        SAVPPServer server = serverConnector.getServer();
+        server.sendSeekCommand(5000);
+        CompletableFuture<Void> terminated = server.tearDown();
+
+        // Frames that were already queued arrive ahead of the notice, and the host hangs up after it
+        assertEquals(5000, readMessage(stream).getSeekCommand().getTimestamp());
+        SAVPPMessage notice = readMessage(stream);
+        assertEquals(SAVPPMessage.MessageType.ERROR, notice.getType());
+        assertEquals(SAVPPProto.Error.ErrorType.SERVER_SHUTTING_DOWN, notice.getError().getType());
+        assertNull(readMessage(stream));
+        serverConnector.getSocket().close();
+
+        terminated.get(5, TimeUnit.SECONDS);
+        assertEquals(DESTROYED, server.getState());
+        assertSame(terminated, server.tearDown());
     }
 
     //TODO: Test that when something other than a SAVPPMessage is sent, other messages can be sent successfully afterward
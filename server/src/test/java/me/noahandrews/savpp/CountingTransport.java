@@ -0,0 +1,122 @@
+package me.noahandrews.savpp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * TCP on the standard port, except that the blocking server's accepted sockets count the writes made to them. The
+ * server synchronizes on a socket's output stream while writing to it, so a test can hold the stream's lock to keep
+ * frames queueing up.
+ */
+class CountingTransport implements Transport {
+    private final Transport tcp = Transport.tcp(SAVPPValues.PORT_NUMBER);
+    private final BlockingQueue<CountingOutputStream> acceptedStreams = new LinkedBlockingQueue<>();
+
+    @Override
+    public ServerSocketChannel openServerChannel() throws IOException {
+        return tcp.openServerChannel();
+    }
+
+    @Override
+    public ServerSocket openServerSocket() throws IOException {
+        return new ServerSocket(SAVPPValues.PORT_NUMBER) {
+            @Override
+            public Socket accept() throws IOException {
+                CountingSocket socket = new CountingSocket();
+                implAccept(socket);
+                acceptedStreams.add(socket.stream);
+                return socket;
+            }
+        };
+    }
+
+    @Override
+    public Socket openSocket() throws IOException {
+        return tcp.openSocket();
+    }
+
+    /**
+     * @return The output stream of the next socket the server accepts, waiting for it if necessary
+     */
+    CountingOutputStream nextAcceptedStream() throws InterruptedException {
+        return acceptedStreams.take();
+    }
+
+    private static class CountingSocket extends Socket {
+        private final CountingOutputStream stream = new CountingOutputStream(this);
+
+        @Override
+        public OutputStream getOutputStream() {
+            return stream;
+        }
+
+        private OutputStream socketOutputStream() throws IOException {
+            return super.getOutputStream();
+        }
+    }
+
+    static class CountingOutputStream extends OutputStream {
+        private final CountingSocket socket;
+        private final AtomicInteger writes = new AtomicInteger();
+
+        private CountingOutputStream(CountingSocket socket) {
+            this.socket = socket;
+        }
+
+        int getWrites() {
+            return writes.get();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writes.incrementAndGet();
+            socket.socketOutputStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes.incrementAndGet();
+            socket.socketOutputStream().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            socket.socketOutputStream().flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package me.noahandrews.savpp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class DriftCorrectorTest {
+    private static final OutboundQueue.Listener NO_OP_LISTENER = new OutboundQueue.Listener() {
+        @Override
+        public void framesAvailable() {}
+
+        @Override
+        public void overflowed() {}
+    };
+
+    private final PlaybackState playback = new PlaybackState();
+    private final DriftCorrector corrector = new DriftCorrector(playback, new ServerMetrics());
+    private final Guest guest = new Guest(new OutboundQueue(8, SlowConsumerPolicy.DROP, NO_OP_LISTENER));
+
+    private static SAVPPMessage decode(Frame frame) throws InvalidProtocolBufferException {
+        ByteBuffer buffer = frame.buffer();
+        DelimitedFraming.Decoder decoder = new DelimitedFraming.Decoder(buffer.remaining());
+        decoder.writableBuffer().put(buffer);
+        return decoder.next();
+    }
+
+    /**
+     * Sends the reports a guest that is the given distance ahead of the host would send, until it gets a correction
+     */
+    private Frame reportDrift(int driftMillis) {
+        Frame correction = null;
+        for(int i = 0; i < DriftCorrector.MIN_SAMPLES; i++) {
+            assertNull(correction);
+            long now = System.nanoTime();
+            correction = corrector.positionReported(guest, playback.positionAt(now) + driftMillis, now);
+        }
+        return correction;
+    }
+
+    private void startPlayingAt(int timestamp) {
+        playback.seeked(timestamp, System.nanoTime());
+        playback.played(System.nanoTime());
+    }
+
+    @Test
+    public void driftWithinToleranceIsLeftAlone() {
+        startPlayingAt(60000);
+        assertNull(reportDrift(SAVPPValues.DRIFT_TOLERANCE_MILLIS / 2));
+    }
+
+    @Test
+    public void smallDriftIsCorrectedWithARateNudge() throws Exception {
+        startPlayingAt(60000);
+        SAVPPMessage message = decode(reportDrift(100));
+
+        assertEquals(SAVPPMessage.MessageType.RATE_ADJUSTMENT, message.getType());
+        assertEquals(1 - SAVPPValues.MAX_RATE_ADJUSTMENT, message.getRateAdjustment().getRate(), 1e-9);
+        assertEquals(100 / SAVPPValues.MAX_RATE_ADJUSTMENT, message.getRateAdjustment().getDuration(), 50);
+
+        //Reports are ignored while the nudge is being applied
+        long now = System.nanoTime();
+        assertNull(corrector.positionReported(guest, playback.positionAt(now) + 100, now));
+    }
+
+    @Test
+    public void guestThatIsBehindIsSpedUp() throws Exception {
+        startPlayingAt(60000);
+        SAVPPMessage message = decode(reportDrift(-100));
+        assertTrue(message.getRateAdjustment().getRate() > 1);
+    }
+
+    @Test
+    public void largeDriftIsCorrectedWithASeek() throws Exception {
+        startPlayingAt(60000);
+        SAVPPMessage message = decode(reportDrift(2 * SAVPPValues.DRIFT_SEEK_THRESHOLD_MILLIS));
+
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, message.getType());
+        assertEquals(playback.positionAt(System.nanoTime()), message.getSeekCommand().getTimestamp(), 50);
+    }
+
+    @Test
+    public void pausedGuestIsSeeked() throws Exception {
+        playback.seeked(60000, System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        SAVPPMessage message = decode(reportDrift(100));
+
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, message.getType());
+        assertEquals(60000, message.getSeekCommand().getTimestamp());
+    }
+}
@@ -0,0 +1,117 @@
+package me.noahandrews.savpp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class EventDispatcherTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final EventDispatcher dispatcher = new EventDispatcher(executor);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void laneDeliversEventsInOrder() throws Exception {
+        EventDispatcher.Lane lane = dispatcher.newLane();
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        for(int i = 0; i < 1000; i++) {
+            int event = i;
+            lane.execute(() -> delivered.add(event));
+        }
+        lane.execute(done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) delivered.get(i));
+        }
+    }
+
+    @Test
+    public void slowLaneDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDelivered = new CountDownLatch(1);
+        dispatcher.newLane().execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.newLane().execute(otherDelivered::countDown);
+
+        assertTrue(otherDelivered.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void failingHandlerDoesNotStopLane() throws Exception {
+        EventDispatcher.Lane lane = dispatcher.newLane();
+        CountDownLatch delivered = new CountDownLatch(1);
+        lane.execute(() -> {
+            throw new IllegalStateException("Handler failure");
+        });
+        lane.execute(delivered::countDown);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void guestStartsAtZeroWhenTimestampFails() throws Exception {
+        AtomicInteger admitted = new AtomicInteger(-1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.guestJoined(dispatcher.newLane(), new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public CompletionStage<Integer> timestampRequestedAsync() {
+                CompletableFuture<Integer> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("Player is not responding"));
+                return failed;
+            }
+        }, timestamp -> {
+            admitted.set(timestamp);
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, admitted.get());
+    }
+}
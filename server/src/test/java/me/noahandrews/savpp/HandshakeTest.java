@@ -0,0 +1,86 @@
+package me.noahandrews.savpp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class HandshakeTest {
+    @Test
+    public void onlyOneConnectionRequestIsVerified() throws Exception {
+        Handshake handshake = new Handshake();
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for(int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(handshake.beginVerifying()) {
+                    winners.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for(Thread thread: threads) {
+            thread.join();
+        }
+
+        assertEquals(1, winners.get());
+        assertEquals(Handshake.State.VERIFYING, handshake.getState());
+    }
+
+    @Test
+    public void closingDuringVerificationPreventsEstablishing() {
+        Handshake handshake = new Handshake();
+        assertTrue(handshake.beginVerifying());
+
+        assertEquals(Handshake.State.VERIFYING, handshake.close());
+        assertFalse(handshake.establish());
+        assertEquals(Handshake.State.CLOSED, handshake.getState());
+    }
+
+    @Test
+    public void serverReportsConnectedWhileAnyGuestIsEstablished() {
+        ServerLifecycle lifecycle = new ServerLifecycle();
+        assertTrue(lifecycle.transition(SAVPPServer.State.DORMANT, SAVPPServer.State.LISTENING));
+
+        lifecycle.guestEstablished();
+        lifecycle.guestEstablished();
+        lifecycle.guestClosed();
+        assertEquals(SAVPPServer.State.CONNECTED, lifecycle.getState());
+
+        lifecycle.guestClosed();
+        assertEquals(SAVPPServer.State.LISTENING, lifecycle.getState());
+    }
+}
@@ -0,0 +1,632 @@
+package me.noahandrews.savpp;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static me.noahandrews.savpp.SAVPPServer.State.CONNECTED;
+import static me.noahandrews.savpp.SAVPPServer.State.DESTROYED;
+import static me.noahandrews.savpp.SAVPPServer.State.LISTENING;
+import static me.noahandrews.savpp.TestUtils.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class NioConnectionTests {
+    @Rule
+    public Timeout timeout = new Timeout(10000, TimeUnit.MILLISECONDS);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SAVPPNioServer server;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SAVPPNioServer(MD5_HASH, 2);
+        server.startListening();
+        socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        socket.close();
+        server.tearDown().get();
+    }
+
+    @Test
+    public void testConnection() throws Exception {
+        printTestHeader("NIO connection test");
+        CountDownLatch latch = new CountDownLatch(1);
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void connectionEstablished() {
+                latch.countDown();
+            }
+
+            @Override
+            public int timestampRequested() {
+                return 1234;
+            }
+        });
+        sendConnectionRequest(socket, MD5_HASH);
+        latch.await();
+
+        assertEquals(CONNECTED, server.getState());
+        SAVPPMessage message = readMessage(socket.getInputStream());
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, message.getType());
+        assertEquals(1234, message.getSeekCommand().getTimestamp());
+        assertEquals(1, server.getMetrics().histogram("handshake.nanos").getCount());
+        assertEquals(1, server.getMetrics().counter("connections.accepted").getCount());
+    }
+
+    @Test
+    public void seekBroadcast() throws Exception {
+        printTestHeader("NIO seek broadcast test");
+        sendConnectionRequest(socket, MD5_HASH);
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(0, readMessage(inputStream).getSeekCommand().getTimestamp());
+
+        server.sendSeekCommand(5000);
+        server.sendSeekCommand(6000);
+
+        assertEquals(5000, readMessage(inputStream).getSeekCommand().getTimestamp());
+        assertEquals(6000, readMessage(inputStream).getSeekCommand().getTimestamp());
+    }
+
+    @Test
+    public void incorrectHash() throws Exception {
+        printTestHeader("NIO incorrect hash test");
+        CountDownLatch latch = new CountDownLatch(1);
+        final String[] hash = new String[1];
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public void incorrectMD5HashReceived(String receivedHash) {
+                hash[0] = receivedHash;
+                latch.countDown();
+            }
+        });
+        sendConnectionRequest(socket, MD5_HASH_2);
+        latch.await();
+
+        assertEquals(MD5_HASH_2, hash[0]);
+        assertEquals(LISTENING, server.getState());
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+    @Test
+    public void sampledFingerprint() throws Exception {
+        printTestHeader("NIO sampled fingerprint test");
+        server.addFingerprint(SAVPPProto.FingerprintType.SAMPLED_MD5, MD5_HASH_2);
+        sendConnectionRequest(socket, SAVPPProto.FingerprintType.SAMPLED_MD5, MD5_HASH_2);
+
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(socket.getInputStream()).getType());
+        assertEquals(CONNECTED, server.getState());
+    }
+
+    @Test
+    public void unsupportedFingerprintType() throws Exception {
+        printTestHeader("NIO unsupported fingerprint type test");
+        sendConnectionRequest(socket, SAVPPProto.FingerprintType.SAMPLED_MD5, MD5_HASH);
+
+        InputStream inputStream = socket.getInputStream();
+        SAVPPMessage message = readMessage(inputStream);
+
+        assertEquals(SAVPPProto.Error.ErrorType.FINGERPRINT_TYPE_NOT_SUPPORTED, message.getError().getType());
+        assertEquals(-1, inputStream.read());
+        assertEquals(LISTENING, server.getState());
+    }
+
+    @Test
+    public void invalidData() throws Exception {
+        printTestHeader("NIO invalid data test");
+        socket.getOutputStream().write(new byte[]{5, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+
+        InputStream inputStream = socket.getInputStream();
+        SAVPPMessage message = readMessage(inputStream);
+
+        assertEquals(SAVPPProto.Error.ErrorType.INVALID_DATA, message.getError().getType());
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void twoSocketConnections() throws Exception {
+        printTestHeader("NIO double socket connection test");
+        sendConnectionRequest(socket, MD5_HASH);
+        readMessage(socket.getInputStream());
+
+        try(Socket secondSocket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendConnectionRequest(secondSocket, MD5_HASH);
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(secondSocket.getInputStream()).getType());
+            assertEquals(CONNECTED, server.getState());
+        }
+    }
+
+    @Test
+    public void failedAcceptOnlyClosesThatConnection() throws Exception {
+        printTestHeader("NIO failed accept test");
+        socket.close();
+        server.tearDown().get();
+        AtomicInteger accepted = new AtomicInteger();
+        server = new SAVPPNioServer(MD5_HASH, 2) {
+            @Override
+            protected void configureAcceptedChannel(SocketChannel channel) throws IOException {
+                if(accepted.incrementAndGet() == 1) {
+                    throw new IOException("Simulated failure");
+                }
+                super.configureAcceptedChannel(channel);
+            }
+        };
+        server.startListening();
+
+        try(Socket rejected = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            assertEquals(-1, rejected.getInputStream().read());
+        }
+
+        // The event loop is still running, so the next guest gets in
+        socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+        sendConnectionRequest(socket, MD5_HASH);
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(socket.getInputStream()).getType());
+        assertEquals(CONNECTED, server.getState());
+    }
+
+    @Test
+    public void resumeReplaysMissedCommands() throws Exception {
+        printTestHeader("NIO resume test");
+        AtomicInteger timestampRequests = new AtomicInteger();
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public int timestampRequested() {
+                timestampRequests.incrementAndGet();
+                return 1000;
+            }
+        });
+        sendResumableConnectionRequest(socket, MD5_HASH, "");
+        assertEquals(1000, readMessage(socket.getInputStream()).getSeekCommand().getTimestamp());
+        SAVPPProto.SessionToken token = readMessage(socket.getInputStream()).getSessionToken();
+        assertFalse(token.getResumed());
+
+        socket.close();
+        awaitState(LISTENING);
+        server.sendSeekCommand(7000);
+        Thread.sleep(2 * SAVPPValues.SEEK_COALESCING_WINDOW_MILLIS);
+
+        try(Socket resumedSocket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendResumableConnectionRequest(resumedSocket, MD5_HASH, token.getToken());
+            SAVPPMessage answer = readMessage(resumedSocket.getInputStream());
+            assertEquals(SAVPPMessage.MessageType.SESSION_TOKEN, answer.getType());
+            assertTrue(answer.getSessionToken().getResumed());
+            assertEquals(token.getToken(), answer.getSessionToken().getToken());
+            assertEquals(7000, readMessage(resumedSocket.getInputStream()).getSeekCommand().getTimestamp());
+            assertEquals(CONNECTED, server.getState());
+            assertEquals(1, timestampRequests.get());
+        }
+    }
+
+    @Test
+    public void resumeTakesOverOpenConnection() throws Exception {
+        printTestHeader("NIO resume over open connection test");
+        sendResumableConnectionRequest(socket, MD5_HASH, "");
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(socket.getInputStream()).getType());
+        String token = readMessage(socket.getInputStream()).getSessionToken().getToken();
+
+        // The guest gave up on its connection before the server noticed anything wrong with it
+        try(Socket resumedSocket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendResumableConnectionRequest(resumedSocket, MD5_HASH, token);
+            SAVPPMessage answer = readMessage(resumedSocket.getInputStream());
+            assertEquals(SAVPPMessage.MessageType.SESSION_TOKEN, answer.getType());
+            assertTrue(answer.getSessionToken().getResumed());
+            assertNull(readMessage(socket.getInputStream()));
+
+            server.sendSeekCommand(7000);
+            assertEquals(7000, readMessage(resumedSocket.getInputStream()).getSeekCommand().getTimestamp());
+            assertEquals(CONNECTED, server.getState());
+        }
+        awaitState(LISTENING);
+    }
+
+    @Test
+    public void expiredResumeTokenFallsBackToHandshake() throws Exception {
+        printTestHeader("NIO expired resume token test");
+        server.setResumeGracePeriod(0);
+        sendResumableConnectionRequest(socket, MD5_HASH, "");
+        readMessage(socket.getInputStream());
+        String token = readMessage(socket.getInputStream()).getSessionToken().getToken();
+
+        socket.close();
+        awaitState(LISTENING);
+
+        try(Socket secondSocket = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendResumableConnectionRequest(secondSocket, MD5_HASH, token);
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(secondSocket.getInputStream()).getType());
+            SAVPPProto.SessionToken newToken = readMessage(secondSocket.getInputStream()).getSessionToken();
+            assertFalse(newToken.getResumed());
+            assertFalse(token.equals(newToken.getToken()));
+        }
+    }
+
+    @Test
+    public void driftingGuestIsNudged() throws Exception {
+        printTestHeader("NIO drift correction test");
+        sendConnectionRequest(socket, MD5_HASH);
+        InputStream inputStream = socket.getInputStream();
+        readMessage(inputStream);
+        server.sendPlayCommand();
+        long playStartedAt = System.nanoTime();
+        assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, readMessage(inputStream).getType());
+
+        for(int i = 0; i < DriftCorrector.MIN_SAMPLES; i++) {
+            long now = System.nanoTime();
+            SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.POSITION_REPORT)
+                    .setPositionReport(SAVPPProto.PositionReport.newBuilder()
+                            .setPosition((int) TimeUnit.NANOSECONDS.toMillis(now - playStartedAt) - 200)
+                            .setHostTime(now))
+                    .build()
+                    .writeDelimitedTo(socket.getOutputStream());
+        }
+
+        SAVPPMessage correction = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.RATE_ADJUSTMENT, correction.getType());
+        assertTrue(correction.getRateAdjustment().getRate() > 1);
+        assertEquals(1, server.getMetrics().counter("corrections.rate").getCount());
+    }
+
+    @Test
+    public void unixDomainSocketTransport() throws Exception {
+        printTestHeader("NIO Unix domain socket test");
+        Assume.assumeTrue(Transport.isUnixDomainSupported());
+        Transport transport = Transport.unixDomain(temporaryFolder.getRoot().toPath().resolve("savpp.sock"));
+        socket.close();
+        server.tearDown().get();
+        server = new SAVPPNioServer(MD5_HASH, 2);
+        server.setTransport(transport);
+        server.startListening();
+
+        socket = transport.openSocket();
+        sendConnectionRequest(socket, MD5_HASH);
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(inputStream).getType());
+        server.sendSeekCommand(5000);
+        assertEquals(5000, readMessage(inputStream).getSeekCommand().getTimestamp());
+    }
+
+    @Test
+    public void silentGuestsAreDisconnected() throws Exception {
+        printTestHeader("NIO connection timeout test");
+        socket.close();
+        server.setConnectionTimeouts(200, 300);
+        try(Socket neverAsks = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+            Socket neverAnswers = new Socket("localhost", SAVPPValues.PORT_NUMBER)) {
+            sendConnectionRequest(neverAnswers, MD5_HASH);
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(neverAnswers.getInputStream()).getType());
+
+            // One never sends a connection request, and the other never answers a ping
+            assertNull(readMessage(neverAsks.getInputStream()));
+            assertNull(readMessage(neverAnswers.getInputStream()));
+        }
+        assertEquals(2, server.getMetrics().counter("connections.timedout").getCount());
+    }
+
+    @Test
+    public void burstOfCommandsArrivesInOrder() throws Exception {
+        printTestHeader("NIO write batching test");
+        sendConnectionRequest(socket, MD5_HASH);
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(0, readMessage(inputStream).getSeekCommand().getTimestamp());
+
+        server.sendSeekCommand(5000);
+        for(int i = 0; i < 50; i++) {
+            server.sendPlayCommand();
+        }
+
+        // However the commands were batched, they come out whole and in the order they were sent
+        assertEquals(5000, readMessage(inputStream).getSeekCommand().getTimestamp());
+        for(int i = 0; i < 50; i++) {
+            assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, readMessage(inputStream).getType());
+        }
+        Histogram batches = server.getMetrics().histogram("write.batch.frames");
+        assertTrue(batches.getCount() > 0);
+        assertTrue(batches.getMax() <= SAVPPValues.WRITE_BATCH_MAX_FRAMES);
+    }
+
+    @Test
+    public void fixedLayoutIsNegotiated() throws Exception {
+        printTestHeader("NIO fixed layout test");
+        sendConnectionRequest(socket, SAVPPProto.ConnectionRequest.newBuilder()
+                .setMd5(MD5_HASH)
+                .setCapabilities(SAVPPProto.Capabilities.newBuilder().setFixedLayout(true)));
+        InputStream inputStream = socket.getInputStream();
+        DecodedMessage capabilities = readDecodedMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.CAPABILITIES, capabilities.getType());
+        assertTrue(capabilities.getMessage().getCapabilities().getFixedLayout());
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readDecodedMessage(inputStream).getType());
+
+        server.sendPlayCommand();
+        long playStartedAt = System.nanoTime();
+        DecodedMessage play = readDecodedMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, play.getType());
+        assertTrue(play.hasHostTime());
+        assertNull(play.getMessage());
+
+        // The host reads the fixed layout too, and answers in it
+        ByteBuffer probe = ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE);
+        FixedLayoutCodec.writeClockProbe(probe, 1234);
+        socket.getOutputStream().write(probe.array(), 0, probe.position());
+        DecodedMessage reply = readDecodedMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY, reply.getType());
+        assertEquals(1234, reply.getOriginateTime());
+        assertNull(reply.getMessage());
+
+        // Position reports too, and the drift correction they lead to
+        for(int i = 0; i < DriftCorrector.MIN_SAMPLES; i++) {
+            long now = System.nanoTime();
+            ByteBuffer report = ByteBuffer.allocate(MessageCodec.MAX_FAST_PATH_FRAME_SIZE);
+            FixedLayoutCodec.writePositionReport(report, (int) TimeUnit.NANOSECONDS.toMillis(now - playStartedAt) - 200, now);
+            socket.getOutputStream().write(report.array(), 0, report.position());
+        }
+        DecodedMessage correction = readDecodedMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.RATE_ADJUSTMENT, correction.getType());
+        assertTrue(correction.getRate() > 1);
+        assertNull(correction.getMessage());
+    }
+
+    @Test
+    public void slowTimestampDoesNotHoldUpConnection() throws Exception {
+        printTestHeader("NIO slow event handler test");
+        CompletableFuture<Integer> timestamp = new CompletableFuture<>();
+        server.setEventHandler(new MediaSynchronizationServer.EventHandler() {
+            @Override
+            public CompletionStage<Integer> timestampRequestedAsync() {
+                return timestamp;
+            }
+        });
+        sendConnectionRequest(socket, MD5_HASH);
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE)
+                .setClockProbe(SAVPPProto.ClockProbe.newBuilder().setOriginateTime(111))
+                .build()
+                .writeDelimitedTo(socket.getOutputStream());
+
+        // The guest is answered while the handler is still deciding where it should start
+        InputStream inputStream = socket.getInputStream();
+        SAVPPMessage reply = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.CLOCK_PROBE_REPLY, reply.getType());
+        assertEquals(111, reply.getClockProbe().getOriginateTime());
+
+        timestamp.complete(4321);
+        assertEquals(4321, readMessage(inputStream).getSeekCommand().getTimestamp());
+    }
+
+    @Test
+    public void tearDownDrainsGuests() throws Exception {
+        printTestHeader("NIO graceful shutdown test");
+        sendConnectionRequest(socket, MD5_HASH);
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(inputStream).getType());
+
+        server.sendSeekCommand(5000);
+        CompletableFuture<Void> terminated = server.tearDown();
+
+        assertEquals(5000, readMessage(inputStream).getSeekCommand().getTimestamp());
+        SAVPPMessage notice = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.ERROR, notice.getType());
+        assertEquals(SAVPPProto.Error.ErrorType.SERVER_SHUTTING_DOWN, notice.getError().getType());
+        assertNull(readMessage(inputStream));
+
+        // The host doesn't wait for the guest to hang up once everything has been written
+        terminated.get(5, TimeUnit.SECONDS);
+        assertEquals(DESTROYED, server.getState());
+    }
+
+    @Test
+    public void sideChannelCarriesClockProbes() throws Exception {
+        printTestHeader("NIO side channel test");
+        socket.close();
+        server.tearDown().get();
+        server = new SAVPPNioServer(MD5_HASH, 2);
+        server.enableSideChannel(0);
+        server.startListening();
+        socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+
+        sendConnectionRequest(socket, SAVPPProto.ConnectionRequest.newBuilder()
+                .setMd5(MD5_HASH)
+                .setSideChannel(true));
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(inputStream).getType());
+        SAVPPMessage offer = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.SIDE_CHANNEL_OFFER, offer.getType());
+        long key = offer.getSideChannel().getKey();
+        assertEquals(server.getSideChannelPort(), offer.getSideChannel().getPort());
+
+        try(DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress("localhost", offer.getSideChannel().getPort()));
+            channel.write(SideChannelCodec.encode(key, 0, SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SIDE_CHANNEL_HELLO)
+                    .build()));
+            assertEquals(SAVPPMessage.MessageType.SIDE_CHANNEL_HELLO, receiveDatagram(channel, key).getType());
+            SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.SIDE_CHANNEL_ACCEPT)
+                    .setSideChannel(SAVPPProto.SideChannel.newBuilder().setKey(key))
+                    .build()
+                    .writeDelimitedTo(socket.getOutputStream());
+
+            channel.write(clockProbeDatagram(key, 1, 111));
+            assertEquals(111, receiveDatagram(channel, key).getOriginateTime());
+
+            // A datagram that arrives after a newer one is dropped
+            channel.write(clockProbeDatagram(key, 1, 222));
+            channel.write(clockProbeDatagram(key, 2, 333));
+            assertEquals(333, receiveDatagram(channel, key).getOriginateTime());
+            assertEquals(1, server.getMetrics().counter("sidechannel.datagrams.stale").getCount());
+        }
+    }
+
+    @Test
+    public void commandsAreMulticastAndRepairedOverTcp() throws Exception {
+        printTestHeader("NIO multicast test");
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        int port;
+        try(DatagramChannel probe = DatagramChannel.open().bind(new InetSocketAddress(0))) {
+            port = ((InetSocketAddress) probe.getLocalAddress()).getPort();
+        }
+        socket.close();
+        server.tearDown().get();
+        server = new SAVPPNioServer(MD5_HASH, 2);
+        server.enableMulticast(new InetSocketAddress("239.255.83.86", port), loopback);
+        server.startListening();
+        socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+
+        sendConnectionRequest(socket, SAVPPProto.ConnectionRequest.newBuilder()
+                .setMd5(MD5_HASH)
+                .setMulticast(true));
+        InputStream inputStream = socket.getInputStream();
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, readMessage(inputStream).getType());
+        SAVPPMessage offer = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.MULTICAST_OFFER, offer.getType());
+        long key = offer.getMulticastGroup().getKey();
+
+        try(DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(offer.getMulticastGroup().getPort()));
+            channel.join(InetAddress.getByName(offer.getMulticastGroup().getAddress()), loopback);
+            SAVPPMessage.newBuilder()
+                    .setType(SAVPPMessage.MessageType.MULTICAST_JOIN)
+                    .setMulticastGroup(SAVPPProto.MulticastGroup.newBuilder().setKey(key))
+                    .build()
+                    .writeDelimitedTo(socket.getOutputStream());
+            SAVPPMessage joined = readMessage(inputStream);
+            assertEquals(SAVPPMessage.MessageType.MULTICAST_JOIN, joined.getType());
+            assertEquals(0, joined.getMulticastGroup().getSequence());
+
+            server.sendSeekCommand(5000);
+            ByteBuffer datagram = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+            do {
+                datagram.clear();
+                channel.receive(datagram);
+                datagram.flip();
+            } while(SideChannelCodec.isEmpty(datagram));
+            assertEquals(key, SideChannelCodec.readKey(datagram));
+            assertEquals(0, SideChannelCodec.readSequence(datagram));
+            DecodedMessage command = new DecodedMessage();
+            SideChannelCodec.decode(datagram, command);
+            assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, command.getType());
+            assertEquals(5000, command.getTimestamp());
+            assertEquals(1, server.getMetrics().counter("multicast.datagrams").getCount());
+        }
+
+        // Pretend the datagram was lost. The seek never came over TCP, so the repair is the next message.
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.NACK)
+                .setNack(SAVPPProto.Nack.newBuilder().setFrom(0).setTo(0))
+                .build()
+                .writeDelimitedTo(socket.getOutputStream());
+        SAVPPMessage repair = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.MULTICAST_REPAIR, repair.getType());
+        assertEquals(1, repair.getMulticastRepair().getFrameCount());
+        DecodedMessage repaired = new DecodedMessage();
+        SideChannelCodec.decodeFrame(repair.getMulticastRepair().getFrame(0).asReadOnlyByteBuffer(), 0, repaired);
+        assertEquals(5000, repaired.getTimestamp());
+        assertEquals(1, server.getMetrics().counter("multicast.repairs").getCount());
+
+        // Once the seek is out of the history, the guest is caught up instead. Those frames carry no host time, so
+        // the guest executes them straight away rather than at some moment long past.
+        for(int i = 0; i < SAVPPValues.MULTICAST_HISTORY_SIZE; i++) {
+            server.sendPlayCommand();
+        }
+        SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.NACK)
+                .setNack(SAVPPProto.Nack.newBuilder().setFrom(0).setTo(0))
+                .build()
+                .writeDelimitedTo(socket.getOutputStream());
+        repair = readMessage(inputStream);
+        assertEquals(SAVPPMessage.MessageType.MULTICAST_REPAIR, repair.getType());
+        assertEquals(2, repair.getMulticastRepair().getFrameCount());
+        SideChannelCodec.decodeFrame(repair.getMulticastRepair().getFrame(0).asReadOnlyByteBuffer(), 0, repaired);
+        assertEquals(SAVPPMessage.MessageType.SEEK_COMMAND, repaired.getType());
+        assertFalse(repaired.hasHostTime());
+        assertEquals(0, repaired.getDelay());
+        SideChannelCodec.decodeFrame(repair.getMulticastRepair().getFrame(1).asReadOnlyByteBuffer(), 0, repaired);
+        assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, repaired.getType());
+        assertFalse(repaired.hasHostTime());
+        assertEquals(0, repaired.getDelay());
+    }
+
+    private static ByteBuffer clockProbeDatagram(long key, int sequence, long originateTime) {
+        return SideChannelCodec.encode(key, sequence, SAVPPMessage.newBuilder()
+                .setType(SAVPPMessage.MessageType.CLOCK_PROBE)
+                .setClockProbe(SAVPPProto.ClockProbe.newBuilder().setOriginateTime(originateTime))
+                .build());
+    }
+
+    /**
+     * Reads the next datagram from the host, skipping the pings it sends once the side channel is active
+     */
+    private static DecodedMessage receiveDatagram(DatagramChannel channel, long key) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(SideChannelCodec.MAX_DATAGRAM_SIZE);
+        DecodedMessage message = new DecodedMessage();
+        do {
+            buffer.clear();
+            channel.read(buffer);
+            buffer.flip();
+            assertEquals(key, SideChannelCodec.readKey(buffer));
+            SideChannelCodec.readSequence(buffer);
+            SideChannelCodec.decode(buffer, message);
+        } while(message.getType() == SAVPPMessage.MessageType.PING);
+        return message;
+    }
+
+    private void awaitState(SAVPPServer.State state) throws InterruptedException {
+        while(server.getState() != state) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package me.noahandrews.savpp;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static org.junit.Assert.*;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class OutboundQueueTest {
+    private final AtomicInteger framesAvailableCalls = new AtomicInteger();
+    private final AtomicInteger overflowCalls = new AtomicInteger();
+
+    private final OutboundQueue.Listener listener = new OutboundQueue.Listener() {
+        @Override
+        public void framesAvailable() {
+            framesAvailableCalls.incrementAndGet();
+        }
+
+        @Override
+        public void overflowed() {
+            overflowCalls.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void notifiesOnlyWhenBecomingNonEmpty() {
+        OutboundQueue queue = new OutboundQueue(4, SlowConsumerPolicy.DROP, listener);
+        queue.offer(Frame.ping(1));
+        queue.offer(Frame.ping(2));
+        assertEquals(1, framesAvailableCalls.get());
+
+        queue.poll();
+        queue.poll();
+        queue.offer(Frame.ping(3));
+        assertEquals(2, framesAvailableCalls.get());
+    }
+
+    @Test
+    public void dropPolicyDiscardsNewFrames() {
+        OutboundQueue queue = new OutboundQueue(1, SlowConsumerPolicy.DROP, listener);
+        Frame first = Frame.ping(1);
+        assertTrue(queue.offer(first));
+        assertFalse(queue.offer(Frame.ping(2)));
+        assertSame(first, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void coalescePolicyKeepsLatestFrame() {
+        OutboundQueue queue = new OutboundQueue(1, SlowConsumerPolicy.COALESCE, listener);
+        Frame latest = Frame.ping(3);
+        queue.offer(Frame.ping(1));
+        queue.offer(Frame.ping(2));
+        assertTrue(queue.offer(latest));
+        assertEquals(1, queue.size());
+        assertSame(latest, queue.poll());
+    }
+
+    @Test
+    public void disconnectPolicyReportsOverflow() {
+        OutboundQueue queue = new OutboundQueue(1, SlowConsumerPolicy.DISCONNECT, listener);
+        queue.offer(Frame.ping(1));
+        assertFalse(queue.offer(Frame.ping(2)));
+        assertEquals(1, overflowCalls.get());
+    }
+
+    @Test
+    public void pendingSeekIsReplacedWhenNothingFollowsIt() {
+        OutboundQueue queue = new OutboundQueue(4, SlowConsumerPolicy.COALESCE, listener);
+        Frame latest = Frame.seek(3, 0, 0);
+        queue.offer(Frame.seek(1, 0, 0));
+        assertTrue(queue.offer(latest));
+        assertEquals(1, queue.size());
+        assertSame(latest, queue.poll());
+    }
+
+    @Test
+    public void seekIsNotMovedPastAPlay() {
+        OutboundQueue queue = new OutboundQueue(4, SlowConsumerPolicy.COALESCE, listener);
+        Frame first = Frame.seek(1, 0, 0);
+        Frame play = Frame.play(0, 0);
+        Frame second = Frame.seek(2, 0, 0);
+        queue.offer(first);
+        queue.offer(play);
+        assertTrue(queue.offer(second));
+        assertSame(first, queue.poll());
+        assertSame(play, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void coalescingKeepsCommandOrderWhenFull() {
+        OutboundQueue queue = new OutboundQueue(3, SlowConsumerPolicy.COALESCE, listener);
+        Frame latest = Frame.seek(2, 0, 0);
+        queue.offer(Frame.seek(1, 0, 0));
+        queue.offer(Frame.play(0, 0));
+        queue.offer(Frame.ping(1));
+        assertTrue(queue.offer(latest));
+        assertSame(latest, queue.poll());
+        assertEquals(SAVPPMessage.MessageType.PLAY_COMMAND, queue.poll().getType());
+        assertEquals(SAVPPMessage.MessageType.PING, queue.poll().getType());
+    }
+
+    @Test
+    public void handshakeSeekIsNeverReplaced() {
+        OutboundQueue queue = new OutboundQueue(1, SlowConsumerPolicy.COALESCE, listener);
+        Frame handshake = Frame.seek(1, 0, 0);
+        queue.add(handshake);
+        assertFalse(queue.offer(Frame.seek(2, 0, 0)));
+        assertSame(handshake, queue.poll());
+    }
+
+    @Test
+    public void otherPoliciesKeepEverySeek() {
+        for(SlowConsumerPolicy policy: new SlowConsumerPolicy[]{SlowConsumerPolicy.DROP, SlowConsumerPolicy.DISCONNECT}) {
+            OutboundQueue queue = new OutboundQueue(4, policy, listener);
+            Frame first = Frame.seek(1, 0, 0);
+            queue.offer(first);
+            assertTrue(queue.offer(Frame.seek(2, 0, 0)));
+            assertEquals(2, queue.size());
+            assertSame(first, queue.poll());
+        }
+    }
+
+    @Test
+    public void addIgnoresCapacity() {
+        OutboundQueue queue = new OutboundQueue(1, SlowConsumerPolicy.DROP, listener);
+        queue.offer(Frame.ping(1));
+        queue.add(Frame.ping(2));
+        assertEquals(2, queue.size());
+    }
+}
@@ -58,10 +58,12 @@ public class ServerConnector implements TestRule {
 
                 socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
 
-                base.evaluate();
-
-                socket.close();
-                savppServer.tearDown();
+                try {
+                    base.evaluate();
+                } finally {
+                    socket.close();
+                    savppServer.tearDown().get();
+                }
             }
         };
     }
@@ -0,0 +1,139 @@
+package me.noahandrews.savpp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static me.noahandrews.savpp.SAVPPProto.FingerprintType.FULL_MD5;
+import static me.noahandrews.savpp.SAVPPProto.SAVPPMessage;
+import static me.noahandrews.savpp.TestUtils.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2016 Noah Andrews
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+public class SessionRouterTests {
+    @Rule
+    public Timeout timeout = new Timeout(10000, TimeUnit.MILLISECONDS);
+
+    private SessionRouter router;
+
+    @Before
+    public void setUp() throws Exception {
+        router = new SessionRouter(2);
+        router.startListening();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        router.tearDown().get();
+    }
+
+    private static Socket join(String md5Hash, String roomId) throws Exception {
+        Socket socket = new Socket("localhost", SAVPPValues.PORT_NUMBER);
+        sendConnectionRequest(socket, FULL_MD5, md5Hash, roomId);
+        return socket;
+    }
+
+    @Test
+    public void guestsAreRoutedToTheirRoom() throws Exception {
+        printTestHeader("session routing test");
+        Session first = router.openSession(MD5_HASH, "first");
+        Session second = router.openSession(MD5_HASH, "second");
+        Session other = router.openSession(MD5_HASH_2);
+
+        try(Socket firstGuest = join(MD5_HASH, "first");
+            Socket secondGuest = join(MD5_HASH, "second");
+            Socket otherGuest = join(MD5_HASH_2, "")) {
+            InputStream firstStream = firstGuest.getInputStream();
+            InputStream secondStream = secondGuest.getInputStream();
+            InputStream otherStream = otherGuest.getInputStream();
+            assertEquals(0, readMessage(firstStream).getSeekCommand().getTimestamp());
+            assertEquals(0, readMessage(secondStream).getSeekCommand().getTimestamp());
+            assertEquals(0, readMessage(otherStream).getSeekCommand().getTimestamp());
+            assertEquals(1, first.getGuestCount());
+            assertEquals(1, second.getGuestCount());
+            assertEquals(1, other.getGuestCount());
+
+            second.sendSeekCommand(2000);
+            first.sendSeekCommand(1000);
+            other.sendSeekCommand(3000);
+
+            assertEquals(1000, readMessage(firstStream).getSeekCommand().getTimestamp());
+            assertEquals(2000, readMessage(secondStream).getSeekCommand().getTimestamp());
+            assertEquals(3000, readMessage(otherStream).getSeekCommand().getTimestamp());
+        }
+    }
+
+    @Test
+    public void unknownFileIsRefused() throws Exception {
+        printTestHeader("unknown session test");
+        router.openSession(MD5_HASH, "first");
+        router.openSession(MD5_HASH, "second");
+
+        try(Socket guest = join(MD5_HASH, "third")) {
+            InputStream inputStream = guest.getInputStream();
+            SAVPPMessage message = readMessage(inputStream);
+            assertEquals(SAVPPProto.Error.ErrorType.NO_MATCHING_SESSION, message.getError().getType());
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void closingASessionDisconnectsOnlyItsGuests() throws Exception {
+        printTestHeader("session close test");
+        Session closed = router.openSession(MD5_HASH);
+        Session open = router.openSession(MD5_HASH_2);
+
+        try(Socket closedGuest = join(MD5_HASH, "");
+            Socket openGuest = join(MD5_HASH_2, "")) {
+            readMessage(closedGuest.getInputStream());
+            readMessage(openGuest.getInputStream());
+
+            closed.close();
+            assertEquals(-1, closedGuest.getInputStream().read());
+            assertEquals(1, router.getSessionCount());
+
+            open.sendSeekCommand(4000);
+            assertEquals(4000, readMessage(openGuest.getInputStream()).getSeekCommand().getTimestamp());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateSessionIsRejected() {
+        router.openSession(MD5_HASH, "room");
+        router.openSession(MD5_HASH, "room");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSeekCoalescingIsRejected() {
+        router.openSession(MD5_HASH, "room").setSeekCoalescing(100, 0);
+    }
+}
@@ -1,9 +1,14 @@
 package me.noahandrews.savpp;
 
+import com.google.protobuf.CodedInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -50,16 +55,75 @@ class TestUtils {
     }
 
     void submitConnectionRequest(String md5Hash) throws IOException {
+        sendConnectionRequest(serverConnector.getSocket(), md5Hash);
+    }
+
+    static void sendConnectionRequest(Socket socket, String md5Hash) throws IOException {
+        sendConnectionRequest(socket, SAVPPProto.FingerprintType.FULL_MD5, md5Hash);
+    }
+
+    static void sendConnectionRequest(Socket socket, SAVPPProto.FingerprintType type, String fingerprint) throws IOException {
+        sendConnectionRequest(socket, type, fingerprint, "");
+    }
+
+    static void sendConnectionRequest(Socket socket, SAVPPProto.FingerprintType type, String fingerprint, String roomId) throws IOException {
+        sendConnectionRequest(socket, SAVPPProto.ConnectionRequest.newBuilder()
+                .setMd5(fingerprint)
+                .setFingerprintType(type)
+                .setRoomId(roomId));
+    }
+
+    /**
+     * Sends a request that asks for a resume token, resuming an earlier connection if resumeToken isn't empty
+     */
+    static void sendResumableConnectionRequest(Socket socket, String md5Hash, String resumeToken) throws IOException {
+        sendConnectionRequest(socket, SAVPPProto.ConnectionRequest.newBuilder()
+                .setMd5(md5Hash)
+                .setResumable(true)
+                .setResumeToken(resumeToken));
+    }
+
+    static void sendConnectionRequest(Socket socket, SAVPPProto.ConnectionRequest.Builder request) throws IOException {
         logger.traceEntry();
         SAVPPProto.SAVPPMessage connectionRequest = SAVPPProto.SAVPPMessage.newBuilder()
                 .setType(SAVPPProto.SAVPPMessage.MessageType.CONNECTION_REQUEST)
-                .setConnectionRequest(SAVPPProto.ConnectionRequest.newBuilder().setMd5(md5Hash))
+                .setConnectionRequest(request)
                 .build();
 
-        connectionRequest.writeDelimitedTo(serverConnector.getSocket().getOutputStream());
+        connectionRequest.writeDelimitedTo(socket.getOutputStream());
         logger.traceExit();
     }
 
+    /**
+     * Reads the next message from the server, skipping the pings it sends in the background.
+     */
+    static SAVPPProto.SAVPPMessage readMessage(InputStream inputStream) throws IOException {
+        SAVPPProto.SAVPPMessage message;
+        do {
+            message = SAVPPProto.SAVPPMessage.parseDelimitedFrom(inputStream);
+        } while(message != null && message.getType() == SAVPPProto.SAVPPMessage.MessageType.PING);
+        return message;
+    }
+
+    /**
+     * Reads the next message from a server that may be sending the fixed layout, skipping pings like
+     * {@link #readMessage(InputStream)}
+     * @return null at the end of the stream
+     */
+    static DecodedMessage readDecodedMessage(InputStream inputStream) throws IOException {
+        DecodedMessage message = new DecodedMessage();
+        do {
+            int firstByte = inputStream.read();
+            if(firstByte == -1) {
+                return null;
+            }
+            byte[] body = new byte[CodedInputStream.readRawVarint32(firstByte, inputStream)];
+            new DataInputStream(inputStream).readFully(body);
+            message.decode(ByteBuffer.wrap(body), 0, body.length);
+        } while(message.getType() == SAVPPProto.SAVPPMessage.MessageType.PING);
+        return message;
+    }
+
     void connectToServer() throws IOException, InterruptedException {
         CountDownLatch latch = new CountDownLatch(1);
 